@@ -0,0 +1,39 @@
+plugins {
+    id("me.champeau.gradle.jmh") version "0.5.2"
+}
+
+@Suppress("UNCHECKED_CAST") val libraryVersions =
+        rootProject.ext.get("libraryVersions") as Map<String, String>
+
+dependencies {
+    jmh(project(":idscp2"))
+    jmh(testFixtures(project(":idscp2")))
+    jmh(project(":idscp2-app-layer"))
+
+    jmh("org.jetbrains.kotlin", "kotlin-stdlib-jdk8", libraryVersions["kotlin"])
+    jmh("com.google.protobuf", "protobuf-java", libraryVersions["protobuf"])
+}
+
+val jmhResults = file("${buildDir}/reports/jmh/results.json")
+
+// Fixed forks, iterations and heap, such that results of different runs are comparable
+jmh {
+    jmhVersion = libraryVersions["jmh"]
+    fork = 2
+    warmupIterations = 5
+    warmup = "1s"
+    iterations = 10
+    timeOnIteration = "1s"
+    jvmArgs = listOf("-Xms1g", "-Xmx1g", "-XX:+AlwaysPreTouch")
+    resultFormat = "JSON"
+    resultsFile = jmhResults
+    failOnError = true
+    duplicateClassesStrategy = DuplicatesStrategy.EXCLUDE
+    // e.g. -Pjmh.include=FsmDispatchBenchmark
+    findProperty("jmh.include")?.let { include = listOf(it.toString()) }
+}
+
+// The module only contains benchmarks, there is nothing to bundle
+tasks.named("jar") {
+    enabled = false
+}
@@ -0,0 +1,87 @@
+/*-
+ * ========================LICENSE_START=================================
+ * benchmarks
+ * %%
+ * Copyright (C) 2020 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.idscp2.benchmarks;
+
+import de.fhg.aisec.ids.idscp2.app_layer.AppLayerConnection;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.StaticDapsDriver;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Round trips of GenericMessages between two AppLayerConnections, the server echoes every message.
+ *
+ * <p>The connections are connected via an in-memory secure channel, such that the app layer and
+ * the FSM are measured without TLS.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AppLayerRoundTripBenchmark {
+  private static final String HEADER = "benchmark";
+
+  @Param({"64", "4096", "65536"})
+  public int size;
+
+  private final BlockingQueue<byte[]> echoes = new LinkedBlockingQueue<>();
+  private AppLayerConnection client;
+  private AppLayerConnection server;
+  private byte[] payload;
+
+  @Setup
+  public void setup() throws InterruptedException {
+    BenchmarkSupport.registerInstantRatDrivers();
+    Idscp2Settings settings = new Idscp2Settings.Builder().build();
+    SecureChannel[] channels = InMemoryEndpoint.createChannelPair();
+    StaticDapsDriver dapsDriver = new StaticDapsDriver();
+    client = new AppLayerConnection(channels[0], settings, dapsDriver);
+    server = new AppLayerConnection(channels[1], settings, dapsDriver);
+    server.addGenericMessageListener(
+        (connection, header, data) -> connection.sendGenericMessage(header, data));
+    client.addGenericMessageListener((connection, header, data) -> echoes.add(data));
+    server.unlockMessaging();
+    client.unlockMessaging();
+    BenchmarkSupport.awaitConnected(client, server);
+    payload = new byte[size];
+  }
+
+  @TearDown
+  public void tearDown() {
+    client.close();
+    server.close();
+  }
+
+  @Benchmark
+  public byte[] roundTrip() throws InterruptedException {
+    client.sendGenericMessage(HEADER, payload);
+    return echoes.take();
+  }
+}
@@ -0,0 +1,54 @@
+/*-
+ * ========================LICENSE_START=================================
+ * benchmarks
+ * %%
+ * Copyright (C) 2020 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.idscp2.benchmarks;
+
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatProverInstant;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatVerifierInstant;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatProverDriverRegistry;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatVerifierDriverRegistry;
+
+/** Setup helpers shared by the benchmarks. */
+final class BenchmarkSupport {
+  private static final long HANDSHAKE_TIMEOUT = 30_000;
+
+  private BenchmarkSupport() {}
+
+  /**
+   * Register the instant RAT drivers as "Dummy", which is part of the default attestation config.
+   */
+  static void registerInstantRatDrivers() {
+    RatProverDriverRegistry.INSTANCE.registerDriver("Dummy", RatProverInstant::new, null);
+    RatVerifierDriverRegistry.INSTANCE.registerDriver("Dummy", RatVerifierInstant::new, null);
+  }
+
+  /** Wait until the IDSCP2 handshake of all connections has been completed. */
+  static void awaitConnected(Idscp2Connection... connections) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;
+    for (Idscp2Connection connection : connections) {
+      while (!connection.isConnected()) {
+        if (System.currentTimeMillis() > deadline) {
+          throw new IllegalStateException("Handshake of " + connection.getId() + " timed out");
+        }
+        Thread.sleep(1);
+      }
+    }
+  }
+}
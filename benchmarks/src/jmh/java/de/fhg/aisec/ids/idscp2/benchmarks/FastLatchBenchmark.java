@@ -0,0 +1,87 @@
+/*-
+ * ========================LICENSE_START=================================
+ * benchmarks
+ * %%
+ * Copyright (C) 2020 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.idscp2.benchmarks;
+
+import de.fhg.aisec.ids.idscp2.idscp_core.FastLatch;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * FastLatch, which guards every send until the IDSCP2 handshake has been completed.
+ *
+ * <p>The await of an unlocked latch is on the send path of every message, CountDownLatch serves as
+ * reference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FastLatchBenchmark {
+  private FastLatch unlockedLatch;
+  private CountDownLatch unlockedCountDownLatch;
+
+  @Setup
+  public void setup() {
+    unlockedLatch = new FastLatch();
+    unlockedLatch.unlock();
+    unlockedCountDownLatch = new CountDownLatch(1);
+    unlockedCountDownLatch.countDown();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void awaitUnlocked() {
+    unlockedLatch.await();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void awaitUnlockedContended() {
+    unlockedLatch.await();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public void awaitUnlockedCountDownLatch() throws InterruptedException {
+    unlockedCountDownLatch.await();
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void awaitUnlockedCountDownLatchContended() throws InterruptedException {
+    unlockedCountDownLatch.await();
+  }
+
+  @Benchmark
+  @Threads(1)
+  public FastLatch unlockAndAwait() {
+    FastLatch latch = new FastLatch();
+    latch.unlock();
+    latch.await();
+    return latch;
+  }
+}
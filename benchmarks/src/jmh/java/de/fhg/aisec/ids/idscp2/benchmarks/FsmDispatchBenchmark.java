@@ -0,0 +1,129 @@
+/*-
+ * ========================LICENSE_START=================================
+ * benchmarks
+ * %%
+ * Copyright (C) 2020 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.idscp2.benchmarks;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.UnsafeByteOperations;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.StaticDapsDriver;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2ConnectionImpl;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.Event;
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FSM;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Dispatch of a received IDSCP_DATA frame within the FSM of an established connection.
+ *
+ * <p>{@code fastPath} passes the frame to {@code FSM.onMessage()}, which hands the payload to the
+ * connection via the IDSCP_DATA fast path. {@code eventPath} dispatches the same frame like the FSM
+ * did before the fast path: an {@code Event} is created and fed to STATE_ESTABLISHED under the FSM
+ * lock, which looks up and runs the IDSCP_DATA transition. The difference of both scores is the
+ * per-message overhead that the fast path saves. The messages are delivered to the listener on the
+ * calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FsmDispatchBenchmark {
+  @Param({"64", "4096"})
+  public int size;
+
+  private final AtomicLong received = new AtomicLong();
+  private Idscp2Connection client;
+  private Idscp2Connection server;
+  private FSM fsm;
+  private Lock fsmIsBusy;
+  private de.fhg.aisec.ids.idscp2.idscp_core.fsm.State established;
+  private ByteBuffer frame;
+
+  @Setup
+  public void setup() throws InterruptedException, ReflectiveOperationException {
+    BenchmarkSupport.registerInstantRatDrivers();
+    // deliver on the dispatching thread, such that the receive queue cannot grow without bounds
+    Idscp2Settings settings =
+        new Idscp2Settings.Builder().setMessageDeliveryExecutor(Runnable::run).build();
+    SecureChannel[] channels = InMemoryEndpoint.createChannelPair();
+    StaticDapsDriver dapsDriver = new StaticDapsDriver();
+    client = new Idscp2ConnectionImpl(channels[0], settings, dapsDriver);
+    server = new Idscp2ConnectionImpl(channels[1], settings, dapsDriver);
+    server.addMessageListener((connection, data) -> received.incrementAndGet());
+    server.unlockMessaging();
+    client.unlockMessaging();
+    BenchmarkSupport.awaitConnected(client, server);
+
+    // the FSM internals of the generic dispatching are not part of the API
+    fsm = (FSM) field(Idscp2ConnectionImpl.class, "fsm").get(server);
+    fsmIsBusy = (Lock) field(FSM.class, "fsmIsBusy").get(fsm);
+    established = fsm.getState(FSM.FsmState.STATE_ESTABLISHED);
+    frame =
+        ByteBuffer.wrap(
+            Idscp2MessageHelper.INSTANCE.createIdscpDataMessage(new byte[size], "").toByteArray());
+  }
+
+  @TearDown
+  public void tearDown() {
+    client.close();
+    server.close();
+  }
+
+  @Benchmark
+  public void fastPath() {
+    fsm.onMessage(frame.duplicate());
+  }
+
+  @Benchmark
+  public void eventPath() throws IOException {
+    // parsed exactly like FSM.onMessage() does
+    CodedInputStream codedInput =
+        UnsafeByteOperations.unsafeWrap(frame.duplicate()).newCodedInput();
+    codedInput.enableAliasing(true);
+    Event event = new Event(IdscpMessage.parseFrom(codedInput));
+    fsmIsBusy.lock();
+    try {
+      established.feedEvent(event);
+    } finally {
+      fsmIsBusy.unlock();
+    }
+  }
+
+  private static Field field(Class<?> type, String name) throws NoSuchFieldException {
+    Field field = type.getDeclaredField(name);
+    field.setAccessible(true);
+    return field;
+  }
+}
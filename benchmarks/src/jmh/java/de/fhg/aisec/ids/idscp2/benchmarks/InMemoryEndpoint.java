@@ -0,0 +1,80 @@
+/*-
+ * ========================LICENSE_START=================================
+ * benchmarks
+ * %%
+ * Copyright (C) 2020 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.idscp2.benchmarks;
+
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelEndpoint;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A SecureChannelEndpoint that delivers frames to a peer SecureChannel within the same JVM, such
+ * that neither TLS nor sockets are involved.
+ *
+ * <p>Frames are delivered by one thread per direction, which keeps them in order and ensures that
+ * the peer FSM is not called while the local FSM lock is held.
+ */
+public class InMemoryEndpoint implements SecureChannelEndpoint {
+  private final ExecutorService transport = Executors.newSingleThreadExecutor();
+  private volatile SecureChannel peer;
+  private volatile boolean connected = true;
+
+  /** Connect the endpoints of two secure channels with each other. */
+  public static SecureChannel[] createChannelPair() {
+    InMemoryEndpoint first = new InMemoryEndpoint();
+    InMemoryEndpoint second = new InMemoryEndpoint();
+    SecureChannel firstChannel = new SecureChannel(first);
+    SecureChannel secondChannel = new SecureChannel(second);
+    first.peer = secondChannel;
+    second.peer = firstChannel;
+    return new SecureChannel[] {firstChannel, secondChannel};
+  }
+
+  @Override
+  public void close() {
+    connected = false;
+    transport.shutdownNow();
+  }
+
+  @Override
+  public void onMessage(byte[] bytes) {}
+
+  @Override
+  public boolean send(byte[] bytes) {
+    if (!connected) {
+      return false;
+    }
+    transport.execute(() -> peer.onMessage(bytes));
+    return true;
+  }
+
+  @Override
+  public boolean isWritable() {
+    return true;
+  }
+
+  @Override
+  public void setWritabilityCallback(Runnable callback) {}
+
+  @Override
+  public boolean isConnected() {
+    return connected;
+  }
+}
@@ -0,0 +1,105 @@
+/*-
+ * ========================LICENSE_START=================================
+ * benchmarks
+ * %%
+ * Copyright (C) 2020 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.idscp2.benchmarks;
+
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper;
+import de.fhg.aisec.ids.idscp2.idscp_core.PayloadCompression;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpClose.CloseCause;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Encoding and decoding of all IdscpMessage variants created by the Idscp2MessageHelper. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageHelperBenchmark {
+  private static final String[] RAT_SUITE = {"Dummy", "TPM2d"};
+
+  @Param({
+    "HELLO",
+    "CLOSE",
+    "DAT_EXPIRED",
+    "DAT",
+    "RE_RAT",
+    "RAT_PROVER",
+    "RAT_VERIFIER",
+    "DATA"
+  })
+  public String messageType;
+
+  /** Size of the variable part of the message, i.e. DAT, RAT message or payload */
+  @Param({"1024"})
+  public int size;
+
+  private byte[] body;
+  private byte[] encoded;
+
+  @Setup
+  public void setup() {
+    body = new byte[size];
+    for (int i = 0; i < body.length; i++) {
+      body[i] = (byte) i;
+    }
+    encoded = create().toByteArray();
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return create().toByteArray();
+  }
+
+  @Benchmark
+  public IdscpMessage decode() throws Exception {
+    return IdscpMessage.parseFrom(encoded);
+  }
+
+  private IdscpMessage create() {
+    Idscp2MessageHelper helper = Idscp2MessageHelper.INSTANCE;
+    switch (messageType) {
+      case "HELLO":
+        return helper.createIdscpHelloMessage(
+            body, RAT_SUITE, RAT_SUITE, PayloadCompression.INSTANCE.getCODEC_PRIORITY());
+      case "CLOSE":
+        return helper.createIdscpCloseMessage("User close", CloseCause.USER_SHUTDOWN);
+      case "DAT_EXPIRED":
+        return helper.createIdscpDatExpiredMessage();
+      case "DAT":
+        return helper.createIdscpDatMessage(body);
+      case "RE_RAT":
+        return helper.createIdscpReRatMessage("");
+      case "RAT_PROVER":
+        return helper.createIdscpRatProverMessage(body);
+      case "RAT_VERIFIER":
+        return helper.createIdscpRatVerifierMessage(body);
+      case "DATA":
+        return helper.createIdscpDataMessage(body, "");
+      default:
+        throw new IllegalArgumentException("Unknown message type " + messageType);
+    }
+  }
+}
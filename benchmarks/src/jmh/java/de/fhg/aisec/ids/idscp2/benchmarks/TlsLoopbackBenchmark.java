@@ -0,0 +1,132 @@
+/*-
+ * ========================LICENSE_START=================================
+ * benchmarks
+ * %%
+ * Copyright (C) 2020 Fraunhofer AISEC
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * =========================LICENSE_END==================================
+ */
+package de.fhg.aisec.ids.idscp2.benchmarks;
+
+import de.fhg.aisec.ids.idscp2.Idscp2EndpointListener;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.StaticDapsDriver;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.LoopbackCertificates;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.NativeTLSDriver;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.NioTLSDriver;
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureChannelDriver;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2ConnectionImpl;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2ServerFactory;
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings;
+import de.fhg.aisec.ids.idscp2.idscp_core.server.Idscp2Server;
+import java.net.ServerSocket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Round trips of IDSCP_DATA messages through the length-prefixed framing of the TLS drivers over
+ * loopback, the server echoes every message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TlsLoopbackBenchmark {
+  @Param({"native", "nio"})
+  public String driver;
+
+  @Param({"64", "4096", "65536"})
+  public int size;
+
+  private final BlockingQueue<byte[]> echoes = new LinkedBlockingQueue<>();
+  private LoopbackCertificates certificates;
+  private Idscp2Server<Idscp2Connection> server;
+  private Idscp2Connection client;
+  private byte[] payload;
+
+  @Setup
+  public void setup() throws Exception {
+    BenchmarkSupport.registerInstantRatDrivers();
+    certificates = LoopbackCertificates.generate();
+    Idscp2Settings settings =
+        new Idscp2Settings.Builder()
+            .setHost("localhost")
+            .setServerPort(freePort())
+            .setKeyStorePath(certificates.getKeyStorePath())
+            .setTrustStorePath(certificates.getTrustStorePath())
+            .setKeyStorePassword(LoopbackCertificates.PASSWORD.toCharArray())
+            .setTrustStorePassword(LoopbackCertificates.PASSWORD.toCharArray())
+            .setKeyPassword(LoopbackCertificates.PASSWORD.toCharArray())
+            .setCertificateAlias(LoopbackCertificates.CERTIFICATE_ALIAS)
+            .setKeyStoreKeyType("RSA")
+            .build();
+    SecureChannelDriver<Idscp2Connection> secureChannelDriver =
+        "nio".equals(driver) ? new NioTLSDriver<>() : new NativeTLSDriver<>();
+    StaticDapsDriver dapsDriver = new StaticDapsDriver();
+    server =
+        new Idscp2ServerFactory<>(
+                Idscp2ConnectionImpl::new,
+                new EchoListener(),
+                settings,
+                dapsDriver,
+                secureChannelDriver)
+            .listen(settings);
+    client =
+        secureChannelDriver
+            .connect(Idscp2ConnectionImpl::new, settings, dapsDriver)
+            .get(30, TimeUnit.SECONDS);
+    client.addMessageListener((connection, data) -> echoes.add(data));
+    client.unlockMessaging();
+    BenchmarkSupport.awaitConnected(client);
+    payload = new byte[size];
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    client.close();
+    server.terminate();
+    certificates.delete();
+  }
+
+  @Benchmark
+  public byte[] roundTrip() throws InterruptedException {
+    client.send(payload);
+    return echoes.take();
+  }
+
+  private static int freePort() throws Exception {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private static class EchoListener implements Idscp2EndpointListener<Idscp2Connection> {
+    @Override
+    public void onConnection(Idscp2Connection connection) {
+      connection.addMessageListener((c, data) -> c.send(data));
+    }
+
+    @Override
+    public void onError(Throwable t) {}
+  }
+}
@@ -29,6 +29,8 @@ import de.fhg.aisec.ids.messages.Idscp.Error;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
@@ -46,6 +48,7 @@ import java.util.Base64;
 import java.util.List;
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
 import org.checkerframework.checker.nullness.qual.NonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
@@ -54,6 +57,9 @@ import tss.tpm.*;
 
 public class RemoteAttestationHandler {
   public static final String CONTROL_SOCKET = "/var/run/tpm2d/control.sock";
+  // connect and read timeout in milliseconds for requests to attestation repositories
+  private static final int REPOSITORY_TIMEOUT = 15_000;
+  private static SSLSocketFactory repositorySocketFactory;
   protected static final Logger LOG = LoggerFactory.getLogger(RemoteAttestationClientHandler.class);
   static String lastError = "";
   // used to count messages between ids connector and attestation repository
@@ -282,12 +288,29 @@ public class RemoteAttestationHandler {
         .build();
   }
 
+  /**
+   * Get the SSLSocketFactory for all requests to attestation repositories.
+   *
+   * <p>HttpsURLConnection only reuses kept-alive connections for the same SSLSocketFactory and
+   * TLS sessions are cached per SSLContext, hence a single factory is shared instead of creating a
+   * new SSLContext per request.
+   */
+  private static synchronized SSLSocketFactory getRepositorySocketFactory()
+      throws GeneralSecurityException {
+    if (repositorySocketFactory == null) {
+      SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
+      sslContext.init(null, null, null);
+      repositorySocketFactory = sslContext.getSocketFactory();
+    }
+    return repositorySocketFactory;
+  }
+
   private static ConnectorMessage readRepositoryResponse(@NonNull ConnectorMessage msg, URL adr)
       throws IOException, GeneralSecurityException {
     HttpsURLConnection urlc = (HttpsURLConnection) adr.openConnection();
-    SSLContext sslContext = SSLContext.getInstance("TLSv1.2");
-    sslContext.init(null, null, null);
-    urlc.setSSLSocketFactory(sslContext.getSocketFactory());
+    urlc.setSSLSocketFactory(getRepositorySocketFactory());
+    urlc.setConnectTimeout(REPOSITORY_TIMEOUT);
+    urlc.setReadTimeout(REPOSITORY_TIMEOUT);
     urlc.setUseCaches(false);
     urlc.setDoInput(true);
     urlc.setDoOutput(true);
@@ -295,8 +318,14 @@ public class RemoteAttestationHandler {
     urlc.setRequestProperty("Accept", "application/x-protobuf");
     urlc.setRequestProperty("Content-Type", "application/x-protobuf");
     urlc.setRequestProperty("User-Agent", "IDS-Connector");
-    urlc.setRequestProperty("Content-length", String.valueOf(msg.toByteArray().length));
-    msg.writeTo(urlc.getOutputStream());
-    return ConnectorMessage.newBuilder().mergeFrom(urlc.getInputStream()).build();
+    byte[] body = msg.toByteArray();
+    urlc.setFixedLengthStreamingMode(body.length);
+    try (OutputStream out = urlc.getOutputStream()) {
+      out.write(body);
+    }
+    // read the response completely and close it, such that the connection can be kept alive
+    try (InputStream in = urlc.getInputStream()) {
+      return ConnectorMessage.newBuilder().mergeFrom(in).build();
+    }
   }
 }
@@ -32,4 +32,7 @@ dependencies {
     providedByBundle(project(":idscp2")) { isTransitive = false }
 
     providedByBundle("com.google.protobuf", "protobuf-java", libraryVersions["protobuf"])
+
+    testImplementation("junit", "junit", libraryVersions["junit4"])
+    testImplementation("org.mockito", "mockito-core", libraryVersions["mockito"])
 }
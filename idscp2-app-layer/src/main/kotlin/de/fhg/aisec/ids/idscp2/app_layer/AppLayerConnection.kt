@@ -2,6 +2,7 @@ package de.fhg.aisec.ids.idscp2.app_layer
 
 import com.google.protobuf.ByteString
 import de.fhg.aisec.ids.idscp2.app_layer.listeners.GenericMessageListener
+import de.fhg.aisec.ids.idscp2.app_layer.listeners.StreamOpenListener
 import de.fhg.aisec.ids.idscp2.app_layer.messages.AppLayer
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
 import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection
@@ -11,11 +12,13 @@ import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings
 import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel
 import org.slf4j.LoggerFactory
 import java.util.*
+import java.util.concurrent.CompletableFuture
 
 class AppLayerConnection private constructor(private val idscp2Connection: Idscp2Connection):
         Idscp2Connection by idscp2Connection {
     private var idscp2MessageListener: Idscp2MessageListener? = null
     private val genericMessageListeners: MutableSet<GenericMessageListener> = Collections.synchronizedSet(HashSet())
+    private val streamMultiplexer = AppLayerStreamMultiplexer(this, idscp2Connection)
 
     constructor(secureChannel: SecureChannel, settings: Idscp2Settings, dapsDriver: DapsDriver):
         this(Idscp2ConnectionImpl(secureChannel, settings, dapsDriver))
@@ -35,6 +38,14 @@ class AppLayerConnection private constructor(private val idscp2Connection: Idscp
                                 it.onMessage(this, genericMessage.header, genericMessage.payload.toByteArray())
                             }
                         }
+                        AppLayer.AppLayerMessage.MessageCase.STREAMOPEN ->
+                            streamMultiplexer.onStreamOpen(appLayerMessage.streamOpen)
+                        AppLayer.AppLayerMessage.MessageCase.STREAMDATA ->
+                            streamMultiplexer.onStreamData(appLayerMessage.streamData)
+                        AppLayer.AppLayerMessage.MessageCase.STREAMCLOSE ->
+                            streamMultiplexer.onStreamClose(appLayerMessage.streamClose)
+                        AppLayer.AppLayerMessage.MessageCase.STREAMWINDOWUPDATE ->
+                            streamMultiplexer.onStreamWindowUpdate(appLayerMessage.streamWindowUpdate)
                         else -> LOG.warn("Unknown app layer message header encountered.")
                     }
                 } catch (e: Exception) {
@@ -47,12 +58,44 @@ class AppLayerConnection private constructor(private val idscp2Connection: Idscp
     }
 
     fun sendGenericMessage(header: String, payload: ByteArray) {
+        idscp2Connection.send(createGenericMessage(header, payload))
+    }
+
+    /**
+     * Queue a generic message without blocking, see Idscp2Connection.sendAsync()
+     */
+    fun sendGenericMessageAsync(header: String, payload: ByteArray): CompletableFuture<Void?> {
+        return idscp2Connection.sendAsync(createGenericMessage(header, payload))
+    }
+
+    private fun createGenericMessage(header: String, payload: ByteArray): ByteArray {
         val message = AppLayer.AppLayerMessage.newBuilder()
                 .setGenericMessage(AppLayer.GenericMessage.newBuilder()
                         .setHeader(header)
                         .setPayload(ByteString.copyFrom(payload)))
                 .build()
-        idscp2Connection.send(message.toByteArray())
+        return message.toByteArray()
+    }
+
+    /**
+     * Open a new logical stream to the peer, the window limits the bytes in flight in each direction
+     */
+    @JvmOverloads
+    fun openStream(name: String, window: Int = DEFAULT_STREAM_WINDOW): AppLayerStream {
+        assureMessageListener()
+        return streamMultiplexer.openStream(name, window)
+    }
+
+    /**
+     * Register a listener for streams opened by the peer
+     */
+    fun addStreamOpenListener(listener: StreamOpenListener) {
+        assureMessageListener()
+        streamMultiplexer.addStreamOpenListener(listener)
+    }
+
+    fun removeStreamOpenListener(listener: StreamOpenListener): Boolean {
+        return streamMultiplexer.removeStreamOpenListener(listener)
     }
 
     fun addGenericMessageListener(listener: GenericMessageListener) {
@@ -65,7 +108,8 @@ class AppLayerConnection private constructor(private val idscp2Connection: Idscp
 
     fun removeGenericMessageListener(listener: GenericMessageListener): Boolean {
         val ret = genericMessageListeners.remove(listener)
-        if (genericMessageListeners.isEmpty()) {
+        // streams require the message listener for the lifetime of the connection
+        if (genericMessageListeners.isEmpty() && !streamMultiplexer.isInUse) {
             idscp2MessageListener?.let { idscp2Connection.removeMessageListener(it) }
             idscp2MessageListener = null
         }
@@ -74,6 +118,7 @@ class AppLayerConnection private constructor(private val idscp2Connection: Idscp
 
     companion object {
         private val LOG = LoggerFactory.getLogger(AppLayerConnection::class.java)
+        const val DEFAULT_STREAM_WINDOW = 256 * 1024
         private val appLayerConnections = Collections.synchronizedMap(
                 WeakHashMap<Idscp2Connection, AppLayerConnection>())
 
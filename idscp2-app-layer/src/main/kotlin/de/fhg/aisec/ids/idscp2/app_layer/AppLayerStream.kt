@@ -0,0 +1,172 @@
+package de.fhg.aisec.ids.idscp2.app_layer
+
+import de.fhg.aisec.ids.idscp2.app_layer.listeners.StreamListener
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
+import de.fhg.aisec.ids.idscp2.idscp_core.SerialExecutor
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.CompletableFuture
+
+/**
+ * A logical stream within an AppLayerConnection.
+ *
+ * Messages of a stream are delivered in order on a serial executor of the stream, such that a slow
+ * stream does not block other streams of the same connection. Each direction of a stream is flow
+ * controlled by a window of payload bytes: the sender queues messages locally while the window is
+ * exhausted and the receiver grants new window after its listeners have processed the messages.
+ * A message larger than the whole window is sent as soon as the complete window is available.
+ */
+class AppLayerStream internal constructor(
+        private val multiplexer: AppLayerStreamMultiplexer,
+        val id: Int,
+        val isLocallyOpened: Boolean,
+        val name: String,
+        private val window: Int
+) {
+    private val listeners = Collections.synchronizedSet(HashSet<StreamListener>())
+    private val deliveryExecutor = SerialExecutor(Idscp2Executors.worker)
+    private val pendingSends = ArrayDeque<PendingSend>()
+    private var sendWindow = window.toLong()
+    private var receiveWindow = window.toLong()
+    private var consumedBytes = 0L
+
+    @Volatile
+    var isOpen = true
+        private set
+
+    val connection: AppLayerConnection
+        get() = multiplexer.connection
+
+    /**
+     * Send a message via this stream, the future is completed when the message has been passed to the
+     * send queue of the connection. Messages are queued locally while the flow control window is exhausted.
+     */
+    fun send(header: String, payload: ByteArray): CompletableFuture<Void?> {
+        val future = CompletableFuture<Void?>()
+        synchronized(this) {
+            if (!isOpen) {
+                future.completeExceptionally(Idscp2Exception("Stream $id has been closed"))
+                return future
+            }
+            pendingSends.add(PendingSend(header, payload, future))
+            sendPending()
+        }
+        return future
+    }
+
+    /**
+     * Close the stream, pending messages are discarded
+     */
+    fun close() {
+        if (closeInternal()) {
+            multiplexer.sendClose(this)
+        }
+    }
+
+    fun addStreamListener(listener: StreamListener) {
+        listeners.add(listener)
+    }
+
+    fun removeStreamListener(listener: StreamListener): Boolean {
+        return listeners.remove(listener)
+    }
+
+    internal fun execute(task: Runnable) {
+        deliveryExecutor.execute(task)
+    }
+
+    internal fun onWindowUpdate(increment: Int) {
+        synchronized(this) {
+            sendWindow += increment
+            sendPending()
+        }
+    }
+
+    internal fun onData(header: String, payload: ByteArray) {
+        synchronized(this) {
+            if (!isOpen) {
+                return
+            }
+            if (payload.size > receiveWindow && receiveWindow < window) {
+                LOG.warn("Peer exceeded flow control window of stream {}, closing stream", id)
+                close()
+                return
+            }
+            receiveWindow -= payload.size
+        }
+        deliveryExecutor.execute {
+            try {
+                val currentListeners = synchronized(listeners) { ArrayList(listeners) }
+                currentListeners.forEach { it.onMessage(this, header, payload) }
+            } finally {
+                // grant the window in any case, a failing listener must not stall the stream
+                onConsumed(payload.size)
+            }
+        }
+    }
+
+    /*
+     * Close the stream without notifying the peer, returns false if it has already been closed
+     */
+    internal fun closeInternal(): Boolean {
+        val pending = synchronized(this) {
+            if (!isOpen) {
+                return false
+            }
+            isOpen = false
+            val pending = ArrayList(pendingSends)
+            pendingSends.clear()
+            pending
+        }
+        pending.forEach { it.future.completeExceptionally(Idscp2Exception("Stream $id has been closed")) }
+        multiplexer.removeStream(this)
+        deliveryExecutor.execute {
+            val currentListeners = synchronized(listeners) { ArrayList(listeners) }
+            currentListeners.forEach { it.onClose(this) }
+        }
+        return true
+    }
+
+    /*
+     * Pass queued messages to the connection while the window allows it, must hold the stream lock
+     * such that messages are passed in order
+     */
+    private fun sendPending() {
+        while (true) {
+            val next = pendingSends.peek() ?: return
+            if (sendWindow < next.payload.size && sendWindow < window) {
+                return
+            }
+            pendingSends.poll()
+            sendWindow -= next.payload.size
+            multiplexer.sendData(this, next.header, next.payload).whenComplete { _, t ->
+                if (t == null) {
+                    next.future.complete(null)
+                } else {
+                    next.future.completeExceptionally(t)
+                }
+            }
+        }
+    }
+
+    private fun onConsumed(size: Int) {
+        val increment = synchronized(this) {
+            consumedBytes += size
+            if (!isOpen || consumedBytes < window / 2) {
+                return
+            }
+            val increment = consumedBytes
+            consumedBytes = 0
+            receiveWindow += increment
+            increment
+        }
+        multiplexer.sendWindowUpdate(this, increment.toInt())
+    }
+
+    private class PendingSend(val header: String, val payload: ByteArray, val future: CompletableFuture<Void?>)
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(AppLayerStream::class.java)
+    }
+}
@@ -0,0 +1,215 @@
+package de.fhg.aisec.ids.idscp2.app_layer
+
+import com.google.protobuf.ByteString
+import de.fhg.aisec.ids.idscp2.app_layer.listeners.StreamOpenListener
+import de.fhg.aisec.ids.idscp2.app_layer.messages.AppLayer
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2ConnectionListener
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2WritabilityListener
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Multiplexes AppLayerStreams over a single IDSCP2 connection.
+ *
+ * Both peers allocate stream ids independently, hence a stream is identified by its id and the
+ * peer that opened it.
+ *
+ * Stream control messages (open, window update, close) are never dropped while the connection is
+ * open: if the bounded send queue rejects them, they are kept in order and resent as soon as the
+ * connection is writable again.
+ */
+internal class AppLayerStreamMultiplexer(
+        val connection: AppLayerConnection,
+        private val idscp2Connection: Idscp2Connection
+) : Idscp2ConnectionListener, Idscp2WritabilityListener {
+    private val streams = ConcurrentHashMap<StreamKey, AppLayerStream>()
+
+    // stream control messages that have not been accepted by the send queue yet, guarded by itself
+    private val pendingControl = ArrayDeque<AppLayer.AppLayerMessage>()
+    private val openListeners = Collections.synchronizedSet(HashSet<StreamOpenListener>())
+    private val nextStreamId = AtomicInteger(1)
+
+    /**
+     * Set when streams have been used, the app layer message listener must not be removed then
+     */
+    @Volatile
+    var isInUse = false
+        private set
+
+    fun openStream(name: String, window: Int): AppLayerStream {
+        isInUse = true
+        val stream = AppLayerStream(this, nextStreamId.getAndIncrement(), true, name, window)
+        streams[StreamKey(stream.id, true)] = stream
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Opening stream {} ({}) on connection {}", stream.id, name, idscp2Connection.id)
+        }
+        send(AppLayer.AppLayerMessage.newBuilder()
+                .setStreamOpen(AppLayer.StreamOpen.newBuilder()
+                        .setStreamId(stream.id)
+                        .setName(name)
+                        .setWindow(window))
+                .build())
+        return stream
+    }
+
+    fun addStreamOpenListener(listener: StreamOpenListener) {
+        isInUse = true
+        openListeners.add(listener)
+    }
+
+    fun removeStreamOpenListener(listener: StreamOpenListener): Boolean {
+        return openListeners.remove(listener)
+    }
+
+    fun onStreamOpen(message: AppLayer.StreamOpen) {
+        if (streams.size >= MAX_STREAMS) {
+            LOG.warn("Too many streams on connection {}, rejecting stream {}", idscp2Connection.id, message.streamId)
+            sendClose(message.streamId, false)
+            return
+        }
+        val window = if (message.window > 0) message.window else AppLayerConnection.DEFAULT_STREAM_WINDOW
+        val stream = AppLayerStream(this, message.streamId, false, message.name, window)
+        if (streams.putIfAbsent(StreamKey(stream.id, false), stream) != null) {
+            LOG.warn("Peer opened stream {} twice, ignoring", message.streamId)
+            return
+        }
+        // notify on the stream executor, such that listeners are registered before messages are delivered
+        stream.execute {
+            val listeners = synchronized(openListeners) { ArrayList(openListeners) }
+            listeners.forEach { it.onStreamOpened(stream) }
+        }
+    }
+
+    fun onStreamData(message: AppLayer.StreamData) {
+        getStream(message.streamId, message.openedBySender)
+                ?.onData(message.header, message.payload.toByteArray())
+    }
+
+    fun onStreamClose(message: AppLayer.StreamClose) {
+        getStream(message.streamId, message.openedBySender)?.closeInternal()
+    }
+
+    fun onStreamWindowUpdate(message: AppLayer.StreamWindowUpdate) {
+        getStream(message.streamId, message.openedBySender)?.onWindowUpdate(message.windowIncrement)
+    }
+
+    fun sendData(stream: AppLayerStream, header: String, payload: ByteArray): CompletableFuture<Void?> {
+        return idscp2Connection.sendAsync(AppLayer.AppLayerMessage.newBuilder()
+                .setStreamData(AppLayer.StreamData.newBuilder()
+                        .setStreamId(stream.id)
+                        .setOpenedBySender(stream.isLocallyOpened)
+                        .setHeader(header)
+                        .setPayload(ByteString.copyFrom(payload)))
+                .build().toByteArray())
+    }
+
+    fun sendWindowUpdate(stream: AppLayerStream, increment: Int) {
+        send(AppLayer.AppLayerMessage.newBuilder()
+                .setStreamWindowUpdate(AppLayer.StreamWindowUpdate.newBuilder()
+                        .setStreamId(stream.id)
+                        .setOpenedBySender(stream.isLocallyOpened)
+                        .setWindowIncrement(increment))
+                .build())
+    }
+
+    fun sendClose(stream: AppLayerStream) {
+        sendClose(stream.id, stream.isLocallyOpened)
+    }
+
+    fun removeStream(stream: AppLayerStream) {
+        streams.remove(StreamKey(stream.id, stream.isLocallyOpened), stream)
+    }
+
+    override fun onError(t: Throwable) {}
+
+    /*
+     * Close all streams when the connection has been closed
+     */
+    override fun onClose() {
+        synchronized(pendingControl) {
+            pendingControl.clear()
+        }
+        streams.values.forEach { it.closeInternal() }
+    }
+
+    override fun onWritabilityChanged(connection: Idscp2Connection, writable: Boolean) {
+        if (writable) {
+            // called under the notification lock of the send queue, which is also taken by sendAsync()
+            Idscp2Executors.worker.execute { sendPendingControl() }
+        }
+    }
+
+    private fun sendClose(streamId: Int, openedBySender: Boolean) {
+        send(AppLayer.AppLayerMessage.newBuilder()
+                .setStreamClose(AppLayer.StreamClose.newBuilder()
+                        .setStreamId(streamId)
+                        .setOpenedBySender(openedBySender))
+                .build())
+    }
+
+    private fun getStream(streamId: Int, openedBySender: Boolean): AppLayerStream? {
+        // a stream opened by the sender has been opened remotely from our point of view
+        val stream = streams[StreamKey(streamId, !openedBySender)]
+        if (stream == null && LOG.isDebugEnabled) {
+            LOG.debug("Received message for unknown or closed stream {}", streamId)
+        }
+        return stream
+    }
+
+    private fun send(message: AppLayer.AppLayerMessage) {
+        synchronized(pendingControl) {
+            pendingControl.add(message)
+            sendPendingControl()
+        }
+    }
+
+    /*
+     * Pass the pending stream control messages to the send queue in order, stops at the first message
+     * that is rejected by the full queue, the remaining messages are sent by onWritabilityChanged()
+     */
+    private fun sendPendingControl() {
+        synchronized(pendingControl) {
+            while (true) {
+                val message = pendingControl.peek() ?: return
+                val bytes = message.toByteArray()
+                var future = idscp2Connection.sendAsync(bytes)
+                if (future.isCompletedExceptionally && idscp2Connection.isWritable) {
+                    // the send queue might have been drained in the meantime
+                    future = idscp2Connection.sendAsync(bytes)
+                }
+                if (future.isCompletedExceptionally) {
+                    if (!idscp2Connection.isWritable) {
+                        return
+                    }
+                    // a writable connection rejects messages only when it has been closed
+                    LOG.warn("Cannot send {} stream control messages, connection {} has been closed",
+                            pendingControl.size, idscp2Connection.id)
+                    pendingControl.clear()
+                    return
+                }
+                pendingControl.poll()
+                future.exceptionally { t ->
+                    LOG.warn("Cannot send stream control message {}", message.messageCase, t)
+                    null
+                }
+            }
+        }
+    }
+
+    private data class StreamKey(val streamId: Int, val locallyOpened: Boolean)
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(AppLayerStreamMultiplexer::class.java)
+        private const val MAX_STREAMS = 1024
+    }
+
+    init {
+        idscp2Connection.addConnectionListener(this)
+        idscp2Connection.addWritabilityListener(this)
+    }
+}
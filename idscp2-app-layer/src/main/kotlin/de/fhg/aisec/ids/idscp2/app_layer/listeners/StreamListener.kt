@@ -0,0 +1,12 @@
+package de.fhg.aisec.ids.idscp2.app_layer.listeners
+
+import de.fhg.aisec.ids.idscp2.app_layer.AppLayerStream
+
+/**
+ * Listener for messages and the closure of a single AppLayerStream. The methods of a stream are
+ * called one after another in the order of the received messages.
+ */
+interface StreamListener {
+    fun onMessage(stream: AppLayerStream, header: String, payload: ByteArray)
+    fun onClose(stream: AppLayerStream)
+}
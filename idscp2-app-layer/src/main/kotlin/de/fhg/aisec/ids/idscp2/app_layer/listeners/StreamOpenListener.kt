@@ -0,0 +1,11 @@
+package de.fhg.aisec.ids.idscp2.app_layer.listeners
+
+import de.fhg.aisec.ids.idscp2.app_layer.AppLayerStream
+
+/**
+ * Listener for streams that have been opened by the peer. It is called before any message of the
+ * new stream is delivered, such that StreamListeners can be registered.
+ */
+fun interface StreamOpenListener {
+    fun onStreamOpened(stream: AppLayerStream)
+}
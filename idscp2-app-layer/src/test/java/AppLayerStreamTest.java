@@ -0,0 +1,243 @@
+import com.google.protobuf.ByteString;
+import de.fhg.aisec.ids.idscp2.app_layer.AppLayerConnection;
+import de.fhg.aisec.ids.idscp2.app_layer.AppLayerStream;
+import de.fhg.aisec.ids.idscp2.app_layer.listeners.StreamListener;
+import de.fhg.aisec.ids.idscp2.app_layer.messages.AppLayer;
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2ConnectionListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2WritabilityListener;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Flow control and multiplexing of AppLayerStreams on top of a mocked IDSCP2 connection, messages of
+ * the peer are injected via the message listener of the app layer
+ */
+public class AppLayerStreamTest {
+    private final List<AppLayer.AppLayerMessage> sent = new CopyOnWriteArrayList<>();
+    private Idscp2Connection idscp2Connection;
+    private Idscp2MessageListener messageListener;
+    private Idscp2ConnectionListener connectionListener;
+    private Idscp2WritabilityListener writabilityListener;
+    private AppLayerConnection connection;
+
+    @Before
+    public void setUp() {
+        idscp2Connection = mock(Idscp2Connection.class);
+        acceptSends();
+        doAnswer(invocation -> {
+            messageListener = invocation.getArgument(0);
+            return null;
+        }).when(idscp2Connection).addMessageListener(any());
+        doAnswer(invocation -> {
+            connectionListener = invocation.getArgument(0);
+            return null;
+        }).when(idscp2Connection).addConnectionListener(any());
+        doAnswer(invocation -> {
+            writabilityListener = invocation.getArgument(0);
+            return null;
+        }).when(idscp2Connection).addWritabilityListener(any());
+        connection = AppLayerConnection.Companion.from(idscp2Connection);
+    }
+
+    @Test
+    public void testSendWaitsForWindowUpdate() throws Exception {
+        AppLayerStream stream = connection.openStream("test", 100);
+        assertEquals(1, sent(AppLayer.AppLayerMessage.MessageCase.STREAMOPEN).size());
+
+        CompletableFuture<Void> first = stream.send("header", new byte[60]);
+        CompletableFuture<Void> second = stream.send("header", new byte[60]);
+        first.get();
+        assertFalse(second.isDone());
+        assertEquals(1, sent(AppLayer.AppLayerMessage.MessageCase.STREAMDATA).size());
+
+        receiveWindowUpdate(stream.getId(), 60);
+        second.get();
+        assertEquals(2, sent(AppLayer.AppLayerMessage.MessageCase.STREAMDATA).size());
+    }
+
+    @Test
+    public void testMessageLargerThanWindowIsSentWithTheCompleteWindow() throws Exception {
+        AppLayerStream stream = connection.openStream("test", 100);
+        stream.send("header", new byte[150]).get();
+
+        CompletableFuture<Void> next = stream.send("header", new byte[10]);
+        assertFalse(next.isDone());
+        receiveWindowUpdate(stream.getId(), 150);
+        next.get();
+    }
+
+    @Test
+    public void testCloseFailsPendingSends() {
+        AppLayerStream stream = connection.openStream("test", 100);
+        stream.send("header", new byte[100]);
+        CompletableFuture<Void> pending = stream.send("header", new byte[10]);
+
+        stream.close();
+        assertFalse(stream.isOpen());
+        assertTrue(failureOf(pending) instanceof Idscp2Exception);
+        assertTrue(failureOf(stream.send("header", new byte[10])) instanceof Idscp2Exception);
+
+        List<AppLayer.AppLayerMessage> closes = sent(AppLayer.AppLayerMessage.MessageCase.STREAMCLOSE);
+        assertEquals(1, closes.size());
+        assertEquals(stream.getId(), closes.get(0).getStreamClose().getStreamId());
+        assertTrue(closes.get(0).getStreamClose().getOpenedBySender());
+    }
+
+    @Test
+    public void testConnectionCloseClosesStreams() {
+        AppLayerStream stream = connection.openStream("test", 100);
+        stream.send("header", new byte[100]);
+        CompletableFuture<Void> pending = stream.send("header", new byte[10]);
+
+        connectionListener.onClose();
+        assertFalse(stream.isOpen());
+        assertTrue(failureOf(pending) instanceof Idscp2Exception);
+    }
+
+    @Test(timeout = 10000)
+    public void testPeerExceedingWindowClosesStream() throws Exception {
+        CountDownLatch consumed = new CountDownLatch(1);
+        AppLayerStream remoteStream = awaitRemoteStream(1, 100, new StreamListener() {
+            @Override
+            public void onMessage(AppLayerStream stream, String header, byte[] payload) {
+                // do not consume, such that no window is granted to the peer
+                try {
+                    consumed.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            @Override
+            public void onClose(AppLayerStream stream) {}
+        });
+        try {
+            receiveData(1, 60);
+            assertTrue(remoteStream.isOpen());
+            receiveData(1, 60);
+            assertFalse(remoteStream.isOpen());
+
+            List<AppLayer.AppLayerMessage> closes = sent(AppLayer.AppLayerMessage.MessageCase.STREAMCLOSE);
+            assertEquals(1, closes.size());
+            assertEquals(1, closes.get(0).getStreamClose().getStreamId());
+            assertFalse(closes.get(0).getStreamClose().getOpenedBySender());
+        } finally {
+            consumed.countDown();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testStreamsAreIdentifiedByTheOpeningPeer() throws Exception {
+        AppLayerStream localStream = connection.openStream("local", 100);
+        AppLayerStream remoteStream = awaitRemoteStream(localStream.getId(), 100, null);
+        assertEquals(localStream.getId(), remoteStream.getId());
+
+        // the peer closes the stream that it has opened
+        messageListener.onMessage(idscp2Connection, AppLayer.AppLayerMessage.newBuilder()
+                .setStreamClose(AppLayer.StreamClose.newBuilder()
+                        .setStreamId(remoteStream.getId())
+                        .setOpenedBySender(true))
+                .build().toByteArray());
+        assertFalse(remoteStream.isOpen());
+        assertTrue(localStream.isOpen());
+    }
+
+    @Test(timeout = 10000)
+    public void testControlMessagesRejectedByTheFullSendQueueAreResent() throws Exception {
+        when(idscp2Connection.sendAsync(any()))
+                .thenReturn(CompletableFuture.failedFuture(new Idscp2Exception("Send queue is full")));
+        when(idscp2Connection.isWritable()).thenReturn(false);
+        AppLayerStream stream = connection.openStream("test", 100);
+        stream.close();
+        assertTrue(sent.isEmpty());
+
+        acceptSends();
+        when(idscp2Connection.isWritable()).thenReturn(true);
+        writabilityListener.onWritabilityChanged(idscp2Connection, true);
+        while (sent.size() < 2) {
+            Thread.sleep(10);
+        }
+        assertEquals(AppLayer.AppLayerMessage.MessageCase.STREAMOPEN, sent.get(0).getMessageCase());
+        assertEquals(AppLayer.AppLayerMessage.MessageCase.STREAMCLOSE, sent.get(1).getMessageCase());
+    }
+
+    private void acceptSends() {
+        when(idscp2Connection.sendAsync(any())).thenAnswer(invocation -> {
+            sent.add(AppLayer.AppLayerMessage.parseFrom((byte[]) invocation.getArgument(0)));
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    private AppLayerStream awaitRemoteStream(int streamId, int window, StreamListener listener)
+            throws InterruptedException {
+        AtomicReference<AppLayerStream> remoteStream = new AtomicReference<>();
+        CountDownLatch opened = new CountDownLatch(1);
+        connection.addStreamOpenListener(stream -> {
+            if (listener != null) {
+                stream.addStreamListener(listener);
+            }
+            remoteStream.set(stream);
+            opened.countDown();
+        });
+        messageListener.onMessage(idscp2Connection, AppLayer.AppLayerMessage.newBuilder()
+                .setStreamOpen(AppLayer.StreamOpen.newBuilder()
+                        .setStreamId(streamId)
+                        .setName("remote")
+                        .setWindow(window))
+                .build().toByteArray());
+        assertTrue(opened.await(5, TimeUnit.SECONDS));
+        return remoteStream.get();
+    }
+
+    private void receiveData(int streamId, int size) {
+        messageListener.onMessage(idscp2Connection, AppLayer.AppLayerMessage.newBuilder()
+                .setStreamData(AppLayer.StreamData.newBuilder()
+                        .setStreamId(streamId)
+                        .setOpenedBySender(true)
+                        .setHeader("header")
+                        .setPayload(ByteString.copyFrom(new byte[size])))
+                .build().toByteArray());
+    }
+
+    private void receiveWindowUpdate(int streamId, int increment) {
+        // the stream has been opened locally, hence not by the sender of the update
+        messageListener.onMessage(idscp2Connection, AppLayer.AppLayerMessage.newBuilder()
+                .setStreamWindowUpdate(AppLayer.StreamWindowUpdate.newBuilder()
+                        .setStreamId(streamId)
+                        .setOpenedBySender(false)
+                        .setWindowIncrement(increment))
+                .build().toByteArray());
+    }
+
+    private List<AppLayer.AppLayerMessage> sent(AppLayer.AppLayerMessage.MessageCase messageCase) {
+        return sent.stream().filter(m -> m.getMessageCase() == messageCase).collect(Collectors.toList());
+    }
+
+    private static Throwable failureOf(CompletableFuture<Void> future) {
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+            throw new AssertionError("Future has not failed");
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+@Suppress("UNCHECKED_CAST") val libraryVersions =
+        rootProject.ext.get("libraryVersions") as Map<String, String>
+
+version = libraryVersions["idscp2"] ?: error("IDSCP2 version not specified")
+
+dependencies {
+    testImplementation(project(":idscp2"))
+    testImplementation(testFixtures(project(":idscp2")))
+    testImplementation(project(":idscp2-app-layer"))
+
+    testImplementation("org.jetbrains.kotlin", "kotlin-stdlib-jdk8", libraryVersions["kotlin"])
+    testImplementation("com.google.protobuf", "protobuf-java", libraryVersions["protobuf"])
+}
+
+// The module only contains the load test harness, there is nothing to bundle
+tasks.named("jar") {
+    enabled = false
+}
+
+// Usage: ./gradlew :idscp2-loadtest:loadTest -Ploadtest.connections=64 -Ploadtest.messageSize=4096
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the in-process IDSCP2 load test, see LoadTestConfig for the loadtest.* properties"
+    classpath = the<SourceSetContainer>()["test"].runtimeClasspath
+    main = "de.fhg.aisec.ids.idscp2.loadtest.Idscp2LoadTestKt"
+    systemProperties(project.properties.filterKeys { it.startsWith("loadtest.") })
+}
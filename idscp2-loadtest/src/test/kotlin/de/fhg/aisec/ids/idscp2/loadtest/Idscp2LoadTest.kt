@@ -0,0 +1,438 @@
+package de.fhg.aisec.ids.idscp2.loadtest
+
+import de.fhg.aisec.ids.idscp2.Idscp2EndpointListener
+import de.fhg.aisec.ids.idscp2.app_layer.AppLayerConnection
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.DapsEmulator
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.DefaultDapsDriver
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.DefaultDapsDriverConfig
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.StaticDapsDriver
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatProverDummy
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatProverInstant
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatVerifierDummy
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy.RatVerifierInstant
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.LoopbackCertificates
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.NativeTLSDriver
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.NioTLSDriver
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureChannelDriver
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2ConnectionAdapter
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2ConnectionImpl
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2ServerFactory
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings
+import de.fhg.aisec.ids.idscp2.idscp_core.metrics.HandshakePhase
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatProverDriverRegistry
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatVerifierDriverRegistry
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel
+import org.slf4j.LoggerFactory
+import java.lang.management.ManagementFactory
+import java.lang.management.MemoryType
+import java.nio.ByteBuffer
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.*
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.locks.LockSupport
+import kotlin.system.exitProcess
+
+/**
+ * An in-process load test, which starts an IDSCP2 server and multiple clients over loopback.
+ *
+ * The clients connect with limited concurrency, then every client sends the configured number of
+ * messages at the configured rate. The server echoes every message and the clients measure the
+ * round trip latency via a timestamp in the payload. The RAT drivers are replaced by local stand-ins
+ * and the DefaultDapsDriver requests and verifies DATs at an embedded DapsEmulator, such that the
+ * load test runs offline.
+ *
+ * All connections, the server and the emulator are closed at the end of a run, the run fails if
+ * threads of the protocol stack are still alive afterwards.
+ *
+ * See LoadTestConfig for the available system properties.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class Idscp2LoadTest(private val config: LoadTestConfig) {
+    private lateinit var dapsDriver: DapsDriver
+    private val connectLatencies = LatencyRecorder(config.connections)
+    private val phaseLatencies = EnumMap<HandshakePhase, LatencyRecorder>(HandshakePhase::class.java)
+    private val roundTripLatencies = LatencyRecorder(maxOf(1, minOf(MAX_SAMPLES, config.connections * config.messages)))
+    private val errors = AtomicInteger()
+    private val clients = Collections.synchronizedList(ArrayList<Idscp2Connection>())
+
+    // all client connections, including those that have not been established, guarded by itself
+    private val connections = ArrayList<Idscp2Connection>()
+    private var connectionsClosed = false
+
+    /*
+     * Run the load test and print the report, returns true if all connections have been established,
+     * all messages have been echoed and all threads of the protocol stack have terminated
+     */
+    fun run(): Boolean {
+        registerRatDrivers()
+        val certificates = LoopbackCertificates.generate()
+        val success = try {
+            if (config.daps == "static") {
+                dapsDriver = StaticDapsDriver(config.dapsDelay)
+                runLoadTest(certificates)
+            } else {
+                DapsEmulator().start().use { emulator ->
+                    emulator.tokenDelay = config.dapsDelay
+                    emulator.jwksDelay = config.dapsDelay
+                    dapsDriver = createDapsDriver(emulator, certificates.directory)
+                    runLoadTest(certificates)
+                }
+            }
+        } finally {
+            certificates.delete()
+        }
+        return awaitThreadsTerminated() && success
+    }
+
+    private fun runLoadTest(certificates: LoopbackCertificates): Boolean {
+        val settings = Idscp2Settings.Builder()
+                .setHost("localhost")
+                .setServerPort(config.port)
+                .setKeyStorePath(certificates.keyStorePath)
+                .setTrustStorePath(certificates.trustStorePath)
+                .setKeyStorePassword(LoopbackCertificates.PASSWORD.toCharArray())
+                .setTrustStorePassword(LoopbackCertificates.PASSWORD.toCharArray())
+                .setKeyPassword(LoopbackCertificates.PASSWORD.toCharArray())
+                .setCertificateAlias(LoopbackCertificates.CERTIFICATE_ALIAS)
+                .setKeyStoreKeyType("RSA")
+                .build()
+        val secureChannelDriver = createSecureChannelDriver()
+        val server = Idscp2ServerFactory(connectionFactory(), EchoListener(), settings, dapsDriver,
+                secureChannelDriver).listen(settings)
+        try {
+            println("IDSCP2 load test: $config")
+            val threads = ManagementFactory.getThreadMXBean()
+            val threadsBefore = threads.threadCount
+            resetPeakUsage()
+
+            val connectNanos = connectClients(secureChannelDriver, settings)
+            val threadsAfterConnect = threads.threadCount
+            val connected = clients.size
+            if (connected == 0) {
+                println("No client connection has been established")
+                return false
+            }
+
+            val expected = connected.toLong() * config.messages
+            val messagingNanos = sendMessages()
+            val received = roundTripLatencies.count.toLong()
+
+            printReport(connectNanos, connected, messagingNanos, received)
+            println(String.format("Threads: %d before, %d after connect, %d peak",
+                    threadsBefore, threadsAfterConnect, threads.peakThreadCount))
+            val heap = ManagementFactory.getMemoryMXBean().heapMemoryUsage
+            println(String.format("Heap: %.1f MiB used, %.1f MiB committed, %.1f MiB peak",
+                    heap.used / MIB, heap.committed / MIB, peakHeapUsage() / MIB))
+            println("Errors: ${errors.get()}")
+            return connected == config.connections && received == expected && errors.get() == 0
+        } finally {
+            synchronized(connections) {
+                connectionsClosed = true
+                connections.forEach { it.close() }
+            }
+            server.terminate()
+        }
+    }
+
+    /*
+     * Wait until all non-daemon threads except the current one have terminated, the connections are
+     * closed asynchronously. Returns false if threads are left, which would keep the JVM alive.
+     */
+    private fun awaitThreadsTerminated(): Boolean {
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(THREAD_TERMINATION_TIMEOUT)
+        while (true) {
+            val threads = Thread.getAllStackTraces().keys.filter {
+                it.isAlive && !it.isDaemon && it !== Thread.currentThread()
+            }
+            if (threads.isEmpty()) {
+                return true
+            }
+            if (System.nanoTime() > deadline) {
+                LOG.error("Threads still alive after the load test: {}", threads.joinToString { it.name })
+                return false
+            }
+            Thread.sleep(10)
+        }
+    }
+
+    /*
+     * Connect all clients, at most connectConcurrency handshakes are running at the same time
+     *
+     * Returns the duration of the connect phase in nanoseconds
+     */
+    private fun connectClients(driver: SecureChannelDriver<Idscp2Connection>, settings: Idscp2Settings): Long {
+        val permits = Semaphore(config.connectConcurrency)
+        val done = CountDownLatch(config.connections)
+        val watcher = Executors.newSingleThreadScheduledExecutor()
+        val start = System.nanoTime()
+        try {
+            for (i in 0 until config.connections) {
+                permits.acquire()
+                val connectStart = System.nanoTime()
+                driver.connect(connectionFactory(), settings, dapsDriver).thenAccept { connection ->
+                    synchronized(connections) {
+                        // connected after the connect phase timed out and the test finished
+                        if (connectionsClosed) {
+                            connection.close()
+                            return@thenAccept
+                        }
+                        connections.add(connection)
+                    }
+                    val closed = AtomicBoolean()
+                    connection.addConnectionListener(object : Idscp2ConnectionAdapter() {
+                        override fun onClose() {
+                            closed.set(true)
+                        }
+                    })
+                    addRoundTripListener(connection)
+                    connection.unlockMessaging()
+                    // the handshake continues in the background, wait until the connection is established
+                    val deadline = connectStart + TimeUnit.SECONDS.toNanos(config.timeout)
+                    awaitEstablished(watcher, connection, closed, connectStart, deadline) {
+                        permits.release()
+                        done.countDown()
+                    }
+                }.exceptionally { t ->
+                    LOG.error("Client connect failed", t)
+                    errors.incrementAndGet()
+                    permits.release()
+                    done.countDown()
+                    null
+                }
+            }
+            if (!done.await(config.timeout, TimeUnit.SECONDS)) {
+                LOG.error("Connect phase timed out")
+                errors.incrementAndGet()
+            }
+            return System.nanoTime() - start
+        } finally {
+            watcher.shutdownNow()
+        }
+    }
+
+    /*
+     * Poll the connection state until the connection is established, closed or the deadline passed
+     */
+    private fun awaitEstablished(watcher: ScheduledExecutorService, connection: Idscp2Connection,
+                                 closed: AtomicBoolean, connectStart: Long, deadline: Long, onDone: () -> Unit) {
+        when {
+            connection.isConnected -> {
+                connectLatencies.record(System.nanoTime() - connectStart)
+                connection.handshakeTimings.getDurations().forEach { (phase, duration) ->
+                    synchronized(phaseLatencies) {
+                        phaseLatencies.computeIfAbsent(phase) { LatencyRecorder(config.connections) }
+                    }.record(duration)
+                }
+                clients.add(connection)
+                onDone()
+            }
+            closed.get() -> {
+                LOG.error("Connection {} has been closed during the handshake", connection.id)
+                errors.incrementAndGet()
+                onDone()
+            }
+            System.nanoTime() > deadline -> {
+                LOG.error("Handshake of connection {} timed out", connection.id)
+                errors.incrementAndGet()
+                connection.close()
+                onDone()
+            }
+            else -> watcher.schedule(Runnable {
+                awaitEstablished(watcher, connection, closed, connectStart, deadline, onDone)
+            }, HANDSHAKE_POLL_INTERVAL, TimeUnit.MICROSECONDS)
+        }
+    }
+
+    /*
+     * Send the messages from one thread per client and wait for all echoes
+     *
+     * Returns the duration of the messaging phase in nanoseconds
+     */
+    private fun sendMessages(): Long {
+        val connections = synchronized(clients) { ArrayList(clients) }
+        val senders = Executors.newFixedThreadPool(connections.size)
+        val start = System.nanoTime()
+        try {
+            val futures = connections.map { connection ->
+                senders.submit(Runnable { sendClientMessages(connection) })
+            }
+            futures.forEach { it.get() }
+            val expected = connections.size.toLong() * config.messages
+            val deadline = start + TimeUnit.SECONDS.toNanos(config.timeout)
+            while (roundTripLatencies.count < expected && System.nanoTime() < deadline) {
+                Thread.sleep(1)
+            }
+            if (roundTripLatencies.count < expected) {
+                LOG.error("Messaging phase timed out, {} of {} messages have been echoed",
+                        roundTripLatencies.count, expected)
+            }
+            return System.nanoTime() - start
+        } catch (e: ExecutionException) {
+            LOG.error("Sending messages failed", e.cause)
+            errors.incrementAndGet()
+            return System.nanoTime() - start
+        } finally {
+            senders.shutdownNow()
+        }
+    }
+
+    private fun sendClientMessages(connection: Idscp2Connection) {
+        // send() copies the payload, hence the buffer can be reused
+        val payload = ByteArray(config.messageSize)
+        val buffer = ByteBuffer.wrap(payload)
+        val interval = if (config.rate > 0) TimeUnit.SECONDS.toNanos(1) / config.rate else 0
+        val start = System.nanoTime()
+        for (i in 0 until config.messages) {
+            if (interval > 0) {
+                // pace relative to the start, such that a slow send does not reduce the rate
+                val wait = start + i * interval - System.nanoTime()
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait)
+                }
+            }
+            buffer.putLong(0, System.nanoTime())
+            if (connection is AppLayerConnection) {
+                connection.sendGenericMessage(HEADER, payload)
+            } else {
+                connection.send(payload)
+            }
+        }
+    }
+
+    /*
+     * Record the round trip latency of the echoed messages via the timestamp in the payload
+     */
+    private fun addRoundTripListener(connection: Idscp2Connection) {
+        if (connection is AppLayerConnection) {
+            connection.addGenericMessageListener { _, _, payload -> recordRoundTrip(payload) }
+        } else {
+            connection.addMessageListener { _, data -> recordRoundTrip(data) }
+        }
+    }
+
+    private fun recordRoundTrip(payload: ByteArray) {
+        roundTripLatencies.record(System.nanoTime() - ByteBuffer.wrap(payload).getLong(0))
+    }
+
+    private fun printReport(connectNanos: Long, connected: Int, messagingNanos: Long, received: Long) {
+        val connectSeconds = connectNanos / NANOS_PER_SECOND
+        println(String.format("Connections: %d of %d established in %.3f s, %.1f connections/s",
+                connected, config.connections, connectSeconds, connected / connectSeconds))
+        println("Connect latency: ${connectLatencies.snapshot().format()}")
+        synchronized(phaseLatencies) {
+            phaseLatencies.forEach { (phase, latencies) ->
+                println("  $phase: ${latencies.snapshot().format()}")
+            }
+        }
+        val messagingSeconds = messagingNanos / NANOS_PER_SECOND
+        println(String.format("Messages: %d round trips in %.3f s, %.1f messages/s, %.2f MiB/s payload per direction",
+                received, messagingSeconds, received / messagingSeconds,
+                received * config.messageSize / MIB / messagingSeconds))
+        println("Round trip latency: ${roundTripLatencies.snapshot().format()}")
+    }
+
+    private fun connectionFactory(): (SecureChannel, Idscp2Settings, DapsDriver) -> Idscp2Connection {
+        return if (config.appLayer) {
+            { secureChannel, settings, dapsDriver -> AppLayerConnection(secureChannel, settings, dapsDriver) }
+        } else {
+            { secureChannel, settings, dapsDriver -> Idscp2ConnectionImpl(secureChannel, settings, dapsDriver) }
+        }
+    }
+
+    /*
+     * The DefaultDapsDriver authenticates at the emulator with the test connector key, which has the
+     * key identifiers required for the client assertion. The stores are copied from the classpath.
+     */
+    private fun createDapsDriver(emulator: DapsEmulator, directory: Path): DapsDriver {
+        val dapsConfig = DefaultDapsDriverConfig.Builder()
+                .setDapsUrl(emulator.url)
+                .setKeyStorePath(copyResource("ssl/aisecconnector1-keystore.p12", directory))
+                .setTrustStorePath(copyResource("ssl/client-truststore_new.p12", directory))
+                .setKeyStorePassword(DAPS_STORE_PASSWORD.toCharArray())
+                .setTrustStorePassword(DAPS_STORE_PASSWORD.toCharArray())
+                .setKeyAlias("1")
+                .setKeyPassword(DAPS_STORE_PASSWORD.toCharArray())
+                .build()
+        return DefaultDapsDriver(dapsConfig)
+    }
+
+    private fun copyResource(name: String, directory: Path): Path {
+        val target = directory.resolve(name.substringAfterLast('/'))
+        val resource = Idscp2LoadTest::class.java.classLoader.getResourceAsStream(name)
+                ?: error("Resource $name not found")
+        resource.use { Files.copy(it, target) }
+        return target
+    }
+
+    private fun createSecureChannelDriver(): SecureChannelDriver<Idscp2Connection> {
+        return if (config.driver == "nio") NioTLSDriver() else NativeTLSDriver()
+    }
+
+    private fun registerRatDrivers() {
+        if (config.rat == "dummy") {
+            RatProverDriverRegistry.registerDriver("Dummy", ::RatProverDummy, null)
+            RatVerifierDriverRegistry.registerDriver("Dummy", ::RatVerifierDummy, null)
+        } else {
+            // registered as "Dummy", which is part of the default attestation config
+            RatProverDriverRegistry.registerDriver("Dummy", ::RatProverInstant, null)
+            RatVerifierDriverRegistry.registerDriver("Dummy", ::RatVerifierInstant, null)
+        }
+    }
+
+    private fun resetPeakUsage() {
+        ManagementFactory.getThreadMXBean().resetPeakThreadCount()
+        ManagementFactory.getMemoryPoolMXBeans().forEach { it.resetPeakUsage() }
+    }
+
+    private fun peakHeapUsage(): Long {
+        return ManagementFactory.getMemoryPoolMXBeans()
+                .filter { it.type == MemoryType.HEAP }
+                .map { it.peakUsage.used }
+                .sum()
+    }
+
+    /**
+     * Echoes all messages received by the server
+     */
+    private inner class EchoListener : Idscp2EndpointListener<Idscp2Connection> {
+        override fun onConnection(connection: Idscp2Connection) {
+            if (connection is AppLayerConnection) {
+                connection.addGenericMessageListener { c, header, payload ->
+                    c.sendGenericMessage(header, payload)
+                }
+            } else {
+                connection.addMessageListener { c, data ->
+                    c.send(data)
+                }
+            }
+        }
+
+        override fun onError(t: Throwable) {
+            LOG.error("Server error", t)
+            errors.incrementAndGet()
+        }
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(Idscp2LoadTest::class.java)
+        private const val HEADER = "loadtest"
+        private const val MAX_SAMPLES = 10_000_000
+        private const val HANDSHAKE_POLL_INTERVAL = 500L
+        private const val NANOS_PER_SECOND = 1_000_000_000.0
+        private const val MIB = 1024.0 * 1024.0
+        private const val THREAD_TERMINATION_TIMEOUT = 30L
+        private const val DAPS_STORE_PASSWORD = "password"
+    }
+}
+
+fun main() {
+    if (!Idscp2LoadTest(LoadTestConfig.fromSystemProperties()).run()) {
+        exitProcess(1)
+    }
+}
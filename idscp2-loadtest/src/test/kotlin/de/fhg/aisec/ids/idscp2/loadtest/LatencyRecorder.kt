@@ -0,0 +1,71 @@
+package de.fhg.aisec.ids.idscp2.loadtest
+
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * Records up to capacity latency samples in nanoseconds from multiple threads and computes exact
+ * percentiles, further samples are counted but not stored.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class LatencyRecorder(capacity: Int) {
+    private val samples = AtomicLongArray(capacity)
+    private val index = AtomicInteger()
+
+    fun record(nanos: Long) {
+        val i = index.getAndIncrement()
+        if (i < samples.length()) {
+            samples.set(i, nanos)
+        }
+    }
+
+    val count: Int
+        get() = index.get()
+
+    /*
+     * Get a snapshot of the stored samples, the percentiles are computed on the snapshot
+     */
+    fun snapshot(): Snapshot {
+        val size = minOf(index.get(), samples.length())
+        val sorted = LongArray(size) { samples.get(it) }
+        sorted.sort()
+        return Snapshot(sorted)
+    }
+
+    class Snapshot internal constructor(private val sorted: LongArray) {
+        val count: Int
+            get() = sorted.size
+
+        val mean: Double
+            get() = if (sorted.isEmpty()) 0.0 else sorted.average()
+
+        val max: Long
+            get() = if (sorted.isEmpty()) 0 else sorted.last()
+
+        /*
+         * Get the given percentile (0..100) via the nearest-rank method
+         */
+        fun percentile(percentile: Double): Long {
+            if (sorted.isEmpty()) {
+                return 0
+            }
+            val rank = Math.ceil(percentile / 100.0 * sorted.size).toInt()
+            return sorted[(rank - 1).coerceIn(0, sorted.size - 1)]
+        }
+
+        /*
+         * Format mean and percentiles in milliseconds
+         */
+        fun format(): String {
+            return String.format("n=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f ms",
+                    count, mean / NANOS_PER_MILLI, percentile(50.0) / NANOS_PER_MILLI,
+                    percentile(90.0) / NANOS_PER_MILLI, percentile(99.0) / NANOS_PER_MILLI,
+                    percentile(99.9) / NANOS_PER_MILLI, max / NANOS_PER_MILLI)
+        }
+    }
+
+    companion object {
+        private const val NANOS_PER_MILLI = 1_000_000.0
+    }
+}
@@ -0,0 +1,121 @@
+package de.fhg.aisec.ids.idscp2.loadtest
+
+/**
+ * Configuration of an IDSCP2 load test run, read from system properties prefixed with "loadtest."
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class LoadTestConfig private constructor() {
+    /*
+     * Number of client connections to the server
+     */
+    var connections = 16
+        private set
+
+    /*
+     * Maximum number of concurrent client handshakes
+     */
+    var connectConcurrency = 8
+        private set
+
+    /*
+     * Number of messages sent by each client, every message is echoed by the server
+     */
+    var messages = 1000
+        private set
+
+    /*
+     * Payload size of the messages in bytes, at least the size of the embedded timestamp
+     */
+    var messageSize = 1024
+        private set
+
+    /*
+     * Messages per second per client, 0 sends as fast as possible
+     */
+    var rate = 0
+        private set
+
+    /*
+     * The secure channel driver, "native" (NativeTLSDriver) or "nio" (NioTLSDriver)
+     */
+    var driver = "native"
+        private set
+
+    /*
+     * If the messages are sent as generic messages via the AppLayerConnection
+     */
+    var appLayer = false
+        private set
+
+    /*
+     * The RAT drivers, "instant" drivers succeed immediately, "dummy" uses RatProverDummy and
+     * RatVerifierDummy, which take multiple seconds per handshake
+     */
+    var rat = "instant"
+        private set
+
+    /*
+     * The DAPS, "emulator" uses the DefaultDapsDriver with an embedded DapsEmulator, "static" uses
+     * StaticDapsDriver, which accepts every token without a DAPS
+     */
+    var daps = "emulator"
+        private set
+
+    /*
+     * Simulated DAPS latency in milliseconds, the response delay of the emulator or the verification
+     * delay of the static driver
+     */
+    var dapsDelay = 0L
+        private set
+
+    var port = 29292
+        private set
+
+    /*
+     * Overall timeout of the connect and the messaging phase in seconds
+     */
+    var timeout = 300L
+        private set
+
+    override fun toString(): String {
+        return "connections=$connections, connectConcurrency=$connectConcurrency, messages=$messages, " +
+                "messageSize=$messageSize, rate=$rate, driver=$driver, appLayer=$appLayer, rat=$rat, " +
+                "daps=$daps, dapsDelay=$dapsDelay, port=$port, timeout=$timeout"
+    }
+
+    companion object {
+        private const val PREFIX = "loadtest."
+        const val MIN_MESSAGE_SIZE = 8
+
+        fun fromSystemProperties(): LoadTestConfig {
+            val config = LoadTestConfig()
+            config.connections = intProperty("connections", config.connections, 1)
+            config.connectConcurrency = intProperty("connectConcurrency", config.connectConcurrency, 1)
+            config.messages = intProperty("messages", config.messages, 0)
+            config.messageSize = intProperty("messageSize", config.messageSize, MIN_MESSAGE_SIZE)
+            config.rate = intProperty("rate", config.rate, 0)
+            config.driver = choiceProperty("driver", config.driver, "native", "nio")
+            config.appLayer = System.getProperty(PREFIX + "appLayer", config.appLayer.toString())!!.toBoolean()
+            config.rat = choiceProperty("rat", config.rat, "instant", "dummy")
+            config.daps = choiceProperty("daps", config.daps, "emulator", "static")
+            config.dapsDelay = intProperty("dapsDelay", config.dapsDelay.toInt(), 0).toLong()
+            config.port = intProperty("port", config.port, 1)
+            config.timeout = intProperty("timeout", config.timeout.toInt(), 1).toLong()
+            return config
+        }
+
+        private fun intProperty(name: String, default: Int, min: Int): Int {
+            val value = System.getProperty(PREFIX + name) ?: return default
+            val parsed = value.toIntOrNull()
+            require(parsed != null && parsed >= min) { "$PREFIX$name must be an integer >= $min, was '$value'" }
+            return parsed
+        }
+
+        private fun choiceProperty(name: String, default: String, vararg choices: String): String {
+            val value = System.getProperty(PREFIX + name) ?: return default
+            require(value in choices) { "$PREFIX$name must be one of ${choices.joinToString()}, was '$value'" }
+            return value
+        }
+    }
+}
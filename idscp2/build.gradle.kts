@@ -8,6 +8,7 @@ version = libraryVersions["idscp2"] ?: error("IDSCP2 version not specified")
 
 apply(plugin = "com.google.protobuf")
 apply(plugin = "idea")
+apply(plugin = "java-test-fixtures")
 
 val generatedProtoBaseDir = "${projectDir}/generated"
 
@@ -43,6 +44,11 @@ dependencies {
     providedByBundle("org.bitbucket.b_c", "jose4j", libraryVersions["jose4j"])
     providedByBundle("com.squareup.okhttp3", "okhttp", libraryVersions["okhttp"])
 
+    // DAPS emulator for offline tests and benchmarks
+    "testFixturesImplementation"("org.jetbrains.kotlin", "kotlin-stdlib-jdk8", libraryVersions["kotlin"])
+    "testFixturesImplementation"("org.bitbucket.b_c", "jose4j", libraryVersions["jose4j"])
+    "testFixturesImplementation"("org.json", "json", libraryVersions["orgJson"])
+
     testImplementation("junit", "junit", libraryVersions["junit4"])
     testImplementation("org.mockito", "mockito-core", libraryVersions["mockito"])
 }
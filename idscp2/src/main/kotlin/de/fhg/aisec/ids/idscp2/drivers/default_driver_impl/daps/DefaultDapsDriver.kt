@@ -3,8 +3,10 @@ package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores.PreConfiguration
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
 import de.fhg.aisec.ids.idscp2.error.DatException
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
 import io.jsonwebtoken.Jwts
 import io.jsonwebtoken.SignatureAlgorithm
+import okhttp3.ConnectionPool
 import okhttp3.FormBody
 import okhttp3.OkHttpClient
 import okhttp3.Request
@@ -17,21 +19,27 @@ import org.jose4j.http.Get
 import org.jose4j.jwa.AlgorithmConstraints
 import org.jose4j.jwk.HttpsJwks
 import org.jose4j.jws.AlgorithmIdentifiers
-import org.jose4j.jwt.JwtClaims
 import org.jose4j.jwt.NumericDate
 import org.jose4j.jwt.consumer.JwtConsumerBuilder
 import org.jose4j.keys.resolvers.HttpsJwksVerificationKeyResolver
 import org.json.JSONObject
 import org.slf4j.LoggerFactory
 import java.io.IOException
+import java.lang.ref.WeakReference
+import java.nio.ByteBuffer
 import java.nio.charset.StandardCharsets
 import java.security.Key
 import java.security.KeyManagementException
+import java.security.MessageDigest
 import java.security.NoSuchAlgorithmException
 import java.security.cert.X509Certificate
 import java.time.Instant
 import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import java.util.function.Supplier
 import javax.net.ssl.SSLContext
 import javax.net.ssl.SSLSocketFactory
 import javax.net.ssl.X509ExtendedTrustManager
@@ -78,103 +86,248 @@ class DefaultDapsDriver(config: DefaultDapsDriverConfig) : DapsDriver {
         }
     }
 
+    /**
+     * The HTTP client for the DAPS, it keeps connections alive and resumes TLS sessions, such that
+     * DAT requests do not need a new TCP and TLS handshake
+     */
+    private val httpClient = OkHttpClient.Builder()
+            .sslSocketFactory(sslSocketFactory, trustManager)
+            .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.SECONDS))
+            .connectTimeout(config.httpTimeout, TimeUnit.SECONDS)
+            .writeTimeout(config.httpTimeout, TimeUnit.SECONDS)
+            .readTimeout(config.httpTimeout, TimeUnit.SECONDS)
+            .build()
+
+    /**
+     * The JWKS of the DAPS, it is downloaded on the first verification and cached for the
+     * configured duration. The key resolver refreshes the JWKS when a DAT refers to an unknown key id,
+     * such that key rotations of the DAPS are picked up immediately.
+     */
+    private val httpsJwks = HttpsJwks("$dapsUrl/.well-known/jwks.json").apply {
+        val getInstance = Get()
+        getInstance.setSslSocketFactory(sslSocketFactory)
+        setSimpleHttpGet(getInstance)
+        setDefaultCacheDuration(config.jwksCacheDuration)
+    }
+
+    /**
+     * The validation requirements for DATs, the consumer is thread-safe and shared by all verifications
+     */
+    private val jwtConsumer = JwtConsumerBuilder()
+            .setRequireExpirationTime() // has expiration time
+            .setAllowedClockSkewInSeconds(30) // leeway in validation time
+            .setRequireSubject() // has subject
+            .setExpectedAudience(true, "IDS_Connector", TARGET_AUDIENCE)
+            .setExpectedIssuer(dapsUrl) // e.g. https://daps.aisec.fraunhofer.de
+            .setVerificationKeyResolver(HttpsJwksVerificationKeyResolver(httpsJwks)) //get decryption key from jwks
+            .setJweAlgorithmConstraints(
+                    AlgorithmConstraints(
+                            AlgorithmConstraints.ConstraintType.WHITELIST,
+                            AlgorithmIdentifiers.RSA_USING_SHA256
+                    )
+            )
+            .build()
+
+    /**
+     * Successfully verified peer DATs by their SHA-256 hash, a DAT is verified again after its
+     * expiration time. The least recently used DATs are evicted when the cache is full.
+     */
+    private val verifiedTokenCacheSize = config.verifiedTokenCacheSize
+    private val verifiedTokens = object : LinkedHashMap<ByteBuffer, VerifiedToken>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<ByteBuffer, VerifiedToken>): Boolean {
+            return size > verifiedTokenCacheSize
+        }
+    }
+
+    /**
+     * The current DAT, it is renewed in the background when the renewal threshold of its lifetime
+     * has been reached, such that callers do not have to wait for the DAPS
+     */
+    @Volatile
+    private var currentToken: CachedToken? = null
+    private val renewalThreshold = config.tokenRenewalThreshold.coerceIn(0.0, 1.0)
+
+    /**
+     * The pending DAT request, concurrent callers share a single request to the DAPS
+     */
+    private val renewalLock = ReentrantLock()
+    private var pendingRenewal: CompletableFuture<CachedToken>? = null
+
     /**
      * Receive the signed and valid dynamic attribute token from the DAPS
+     *
+     * The cached DAT is returned as long as it is valid, a new DAT is only awaited if there is no
+     * valid DAT available
      */
     override val token: ByteArray
         get() {
-            val token: String
-            LOG.info("Retrieving Dynamic Attribute Token from Daps ...")
-
-            //Create connectorUUID
-            // Get AKI
-            //GET 2.5.29.14	SubjectKeyIdentifier / 2.5.29.35	AuthorityKeyIdentifier
-            val akiOid = Extension.authorityKeyIdentifier.id
-            val rawAuthorityKeyIdentifier = cert!!.getExtensionValue(akiOid)
-            val akiOc = ASN1OctetString.getInstance(rawAuthorityKeyIdentifier)
-            val aki = AuthorityKeyIdentifier.getInstance(akiOc.octets)
-            val authorityKeyIdentifier = aki.keyIdentifier
-
-            //GET SKI
-            val skiOid = Extension.subjectKeyIdentifier.id
-            val rawSubjectKeyIdentifier = cert.getExtensionValue(skiOid)
-            val ski0c = ASN1OctetString.getInstance(rawSubjectKeyIdentifier)
-            val ski = SubjectKeyIdentifier.getInstance(ski0c.octets)
-            val subjectKeyIdentifier = ski.keyIdentifier
-            val akiResult = encodeHexString(authorityKeyIdentifier, true).toUpperCase()
-            val skiResult = encodeHexString(subjectKeyIdentifier, true).toUpperCase()
-            if (LOG.isDebugEnabled) {
-                LOG.debug("AKI: $akiResult")
-                LOG.debug("SKI: $skiResult")
+            val cached = currentToken
+            val now = System.currentTimeMillis()
+            if (cached != null && now < cached.expiresAt - MIN_REMAINING_VALIDITY) {
+                if (now >= cached.renewAt) {
+                    renewToken()
+                }
+                return cached.token
             }
-            val connectorUUID = skiResult + "keyid:" + akiResult.substring(0, akiResult.length - 1)
-            if (LOG.isDebugEnabled) {
-                LOG.debug("ConnectorUUID: $connectorUUID")
-                LOG.debug("Retrieving Dynamic Attribute Token...")
+            return try {
+                renewToken().get().token
+            } catch (e: ExecutionException) {
+                val cause = e.cause
+                if (cause is DatException) {
+                    throw cause
+                }
+                throw DatException("Error whilst retrieving DAT", cause as? Exception)
+            } catch (e: InterruptedException) {
+                Thread.currentThread().interrupt()
+                throw DatException("Interrupted whilst retrieving DAT", e)
             }
+        }
 
-            //create signed JWT
-            val jwt = Jwts.builder()
-                    .setIssuer(connectorUUID)
-                    .setSubject(connectorUUID)
-                    .claim("@context", "https://w3id.org/idsa/contexts/context.jsonld")
-                    .claim("@type", "ids:DatRequestToken")
-                    .setExpiration(Date.from(Instant.now().plusSeconds(86400)))
-                    .setIssuedAt(Date.from(Instant.now()))
-                    .setNotBefore(Date.from(Instant.now()))
-                    .setAudience(TARGET_AUDIENCE)
-                    .signWith(privateKey, SignatureAlgorithm.RS256)
-                    .compact()
-
-            //build http client and request for DAPS
-            val formBody: RequestBody = FormBody.Builder()
-                    .add("grant_type", "client_credentials")
-                    .add(
-                            "client_assertion_type", "urn:ietf:params:oauth:client-assertion-type:jwt-bearer")
-                    .add("client_assertion", jwt)
-                    .add("scope", "idsc:IDS_CONNECTOR_ATTRIBUTES_ALL")
-                    .build()
-            val client = OkHttpClient.Builder()
-                    .sslSocketFactory(sslSocketFactory, trustManager)
-                    .connectTimeout(15, TimeUnit.SECONDS)
-                    .writeTimeout(15, TimeUnit.SECONDS)
-                    .readTimeout(15, TimeUnit.SECONDS)
-                    .build()
-            val request = Request.Builder()
-                    .url("$dapsUrl/v2/token")
-                    .post(formBody)
-                    .build()
-            return try {
-                //get http response from DAPS
-                if (LOG.isDebugEnabled) {
-                    LOG.debug("Acquire DAT from {}", dapsUrl)
+    /*
+     * Request a new DAT from the DAPS in the background, unless a request is already pending
+     */
+    private fun renewToken(): CompletableFuture<CachedToken> {
+        renewalLock.lock()
+        try {
+            pendingRenewal?.let { return it }
+            val renewal = CompletableFuture.supplyAsync(Supplier { requestToken() }, Idscp2Executors.worker)
+            pendingRenewal = renewal
+            renewal.whenComplete { newToken, error -> onRenewalCompleted(renewal, newToken, error) }
+            return renewal
+        } finally {
+            renewalLock.unlock()
+        }
+    }
+
+    private fun onRenewalCompleted(renewal: CompletableFuture<CachedToken>, newToken: CachedToken?,
+                                   error: Throwable?) {
+        renewalLock.lock()
+        try {
+            if (pendingRenewal === renewal) {
+                pendingRenewal = null
+            }
+            if (newToken != null) {
+                currentToken = newToken
+                scheduleRenewal(this, newToken)
+            } else {
+                LOG.warn("Cannot renew DAT: {}", error?.cause?.message ?: error?.message)
+                // keep the old DAT while it is valid, but do not request a new DAT on every access
+                currentToken?.let {
+                    val retryToken = CachedToken(it.token,
+                            System.currentTimeMillis() + RENEWAL_RETRY_DELAY, it.expiresAt)
+                    currentToken = retryToken
+                    // retry in the background, otherwise an idle connector keeps the old DAT until it expires
+                    scheduleRenewal(this, retryToken)
                 }
-                val response = client.newCall(request).execute()
+            }
+        } finally {
+            renewalLock.unlock()
+        }
+    }
 
+    /*
+     * Called by the scheduler when the renewal threshold of the given DAT has been reached
+     */
+    private fun onRenewalDue(dueToken: CachedToken) {
+        if (currentToken === dueToken) {
+            if (LOG.isDebugEnabled) {
+                LOG.debug("Renew DAT in the background")
+            }
+            renewToken()
+        }
+    }
+
+    /*
+     * Request a new DAT from the DAPS and verify it
+     */
+    private fun requestToken(): CachedToken {
+        val token: String
+        LOG.info("Retrieving Dynamic Attribute Token from Daps ...")
+
+        //Create connectorUUID
+        // Get AKI
+        //GET 2.5.29.14	SubjectKeyIdentifier / 2.5.29.35	AuthorityKeyIdentifier
+        val akiOid = Extension.authorityKeyIdentifier.id
+        val rawAuthorityKeyIdentifier = cert!!.getExtensionValue(akiOid)
+        val akiOc = ASN1OctetString.getInstance(rawAuthorityKeyIdentifier)
+        val aki = AuthorityKeyIdentifier.getInstance(akiOc.octets)
+        val authorityKeyIdentifier = aki.keyIdentifier
+
+        //GET SKI
+        val skiOid = Extension.subjectKeyIdentifier.id
+        val rawSubjectKeyIdentifier = cert.getExtensionValue(skiOid)
+        val ski0c = ASN1OctetString.getInstance(rawSubjectKeyIdentifier)
+        val ski = SubjectKeyIdentifier.getInstance(ski0c.octets)
+        val subjectKeyIdentifier = ski.keyIdentifier
+        val akiResult = encodeHexString(authorityKeyIdentifier, true).toUpperCase()
+        val skiResult = encodeHexString(subjectKeyIdentifier, true).toUpperCase()
+        if (LOG.isDebugEnabled) {
+            LOG.debug("AKI: $akiResult")
+            LOG.debug("SKI: $skiResult")
+        }
+        val connectorUUID = skiResult + "keyid:" + akiResult.substring(0, akiResult.length - 1)
+        if (LOG.isDebugEnabled) {
+            LOG.debug("ConnectorUUID: $connectorUUID")
+            LOG.debug("Retrieving Dynamic Attribute Token...")
+        }
+
+        //create signed JWT
+        val jwt = Jwts.builder()
+                .setIssuer(connectorUUID)
+                .setSubject(connectorUUID)
+                .claim("@context", "https://w3id.org/idsa/contexts/context.jsonld")
+                .claim("@type", "ids:DatRequestToken")
+                .setExpiration(Date.from(Instant.now().plusSeconds(86400)))
+                .setIssuedAt(Date.from(Instant.now()))
+                .setNotBefore(Date.from(Instant.now()))
+                .setAudience(TARGET_AUDIENCE)
+                .signWith(privateKey, SignatureAlgorithm.RS256)
+                .compact()
+
+        //build http client and request for DAPS
+        val formBody: RequestBody = FormBody.Builder()
+                .add("grant_type", "client_credentials")
+                .add(
+                        "client_assertion_type", "urn:ietf:params:oauth:client-assertion-type:jwt-bearer")
+                .add("client_assertion", jwt)
+                .add("scope", "idsc:IDS_CONNECTOR_ATTRIBUTES_ALL")
+                .build()
+        val request = Request.Builder()
+                .url("$dapsUrl/v2/token")
+                .post(formBody)
+                .build()
+        return try {
+            //get http response from DAPS
+            if (LOG.isDebugEnabled) {
+                LOG.debug("Acquire DAT from {}", dapsUrl)
+            }
+            // close the response in any case, such that the connection is returned to the pool
+            val json = httpClient.newCall(request).execute().use { response ->
                 //check for valid response
                 if (!response.isSuccessful) {
                     throw DatException("Received non-200 http response: " + response.code())
                 }
-                if (response.body() == null) {
-                    throw DatException("Received empty DAPS response")
-                }
-                val json = JSONObject(response.body()!!.string())
-                if (json.has("access_token")) {
-                    token = json.getString("access_token")
-                    if (LOG.isDebugEnabled) {
-                        LOG.debug("Received DAT from DAPS: {}", token)
-                    }
-                } else if (json.has("error")) {
-                    throw DatException("DAPS reported error: " + json.getString("error"))
-                } else {
-                    throw DatException("DAPS response does not contain \"access_token\" or \"error\" field.")
+                val body = response.body() ?: throw DatException("Received empty DAPS response")
+                JSONObject(body.string())
+            }
+            if (json.has("access_token")) {
+                token = json.getString("access_token")
+                if (LOG.isDebugEnabled) {
+                    LOG.debug("Received DAT from DAPS: {}", token)
                 }
-                verifyToken(token.toByteArray(StandardCharsets.UTF_8), null)
-                token.toByteArray(StandardCharsets.UTF_8)
-            } catch (e: IOException) {
-                throw DatException("Error whilst retrieving DAT", e)
+            } else if (json.has("error")) {
+                throw DatException("DAPS reported error: " + json.getString("error"))
+            } else {
+                throw DatException("DAPS response does not contain \"access_token\" or \"error\" field.")
             }
+            val tokenBytes = token.toByteArray(StandardCharsets.UTF_8)
+            val lifetime = TimeUnit.SECONDS.toMillis(verifyToken(tokenBytes, null))
+            val now = System.currentTimeMillis()
+            CachedToken(tokenBytes, now + (lifetime * renewalThreshold).toLong(), now + lifetime)
+        } catch (e: IOException) {
+            throw DatException("Error whilst retrieving DAT", e)
         }
+    }
 
     /**
      * Verify a given dynamic attribute token
@@ -189,40 +342,28 @@ class DefaultDapsDriver(config: DefaultDapsDriverConfig) : DapsDriver {
         if (LOG.isDebugEnabled) {
             LOG.debug("Verifying dynamic attribute token...")
         }
-
-        // Get JsonWebKey JWK from JsonWebKeyStore JWKS using DAPS JWKS endpoint
-        val httpsJwks = HttpsJwks("$dapsUrl/.well-known/jwks.json")
-        val getInstance = Get()
-        getInstance.setSslSocketFactory(sslSocketFactory)
-        httpsJwks.setSimpleHttpGet(getInstance)
-
-        // create new jwks key resolver, selects jwk based on key ID in jwt header
-        val jwksKeyResolver = HttpsJwksVerificationKeyResolver(httpsJwks)
-
-        //create validation requirements
-        val jwtConsumer = JwtConsumerBuilder()
-                .setRequireExpirationTime() // has expiration time
-                .setAllowedClockSkewInSeconds(30) // leeway in validation time
-                .setRequireSubject() // has subject
-                .setExpectedAudience(true, "IDS_Connector", TARGET_AUDIENCE)
-                .setExpectedIssuer(dapsUrl) // e.g. https://daps.aisec.fraunhofer.de
-                .setVerificationKeyResolver(jwksKeyResolver) //get decryption key from jwks
-                .setJweAlgorithmConstraints(
-                        AlgorithmConstraints(
-                                AlgorithmConstraints.ConstraintType.WHITELIST,
-                                AlgorithmIdentifiers.RSA_USING_SHA256
-                        )
-                )
-                .build()
-        val validityTime: Long
-        val claims: JwtClaims
-        try {
-            claims = jwtConsumer.processToClaims(String(dat!!, StandardCharsets.UTF_8))
-            val expTime = claims.expirationTime
-            validityTime = expTime.value - NumericDate.now().value
-        } catch (e: Exception) {
-            throw DatException("Error during claims processing", e)
+        val tokenHash = if (dat != null && verifiedTokenCacheSize > 0) {
+            ByteBuffer.wrap(MessageDigest.getInstance("SHA-256").digest(dat))
+        } else {
+            null
         }
+        val cachedToken = tokenHash?.let { getVerifiedToken(it) }
+        val verifiedToken = if (cachedToken == null) {
+            val newToken = try {
+                val claims = jwtConsumer.processToClaims(String(dat!!, StandardCharsets.UTF_8))
+                VerifiedToken(claims.expirationTime.value, claims.toJson())
+            } catch (e: Exception) {
+                throw DatException("Error during claims processing", e)
+            }
+            tokenHash?.let { putVerifiedToken(it, newToken) }
+            newToken
+        } else {
+            if (LOG.isDebugEnabled) {
+                LOG.debug("DAT has been verified before")
+            }
+            cachedToken
+        }
+        val validityTime = verifiedToken.expirationTime - NumericDate.now().value
 
         //check security requirements
         if (securityRequirements != null) {
@@ -233,7 +374,7 @@ class DefaultDapsDriver(config: DefaultDapsDriverConfig) : DapsDriver {
                 throw DatException("Invalid security requirements format. Expected " +
                         SecurityRequirements::class.java.name)
             }
-            val securityLevel = parseSecurityRequirements(claims.toJson()).requiredSecurityLevel
+            val securityLevel = parseSecurityRequirements(verifiedToken.claims).requiredSecurityLevel
                     ?: throw DatException("No security profile provided")
             when (securityRequirements.requiredSecurityLevel) {
                 "idsc:BASE_CONNECTOR_SECURITY_PROFILE" -> {
@@ -277,6 +418,26 @@ class DefaultDapsDriver(config: DefaultDapsDriverConfig) : DapsDriver {
         return validityTime
     }
 
+    /*
+     * Get a cached verification result, it is only valid until the expiration time of the DAT
+     */
+    private fun getVerifiedToken(tokenHash: ByteBuffer): VerifiedToken? {
+        synchronized(verifiedTokens) {
+            val verifiedToken = verifiedTokens[tokenHash] ?: return null
+            if (verifiedToken.expirationTime <= NumericDate.now().value) {
+                verifiedTokens.remove(tokenHash)
+                return null
+            }
+            return verifiedToken
+        }
+    }
+
+    private fun putVerifiedToken(tokenHash: ByteBuffer, verifiedToken: VerifiedToken) {
+        synchronized(verifiedTokens) {
+            verifiedTokens[tokenHash] = verifiedToken
+        }
+    }
+
     private fun parseSecurityRequirements(dat: String): SecurityRequirements {
         val asJson = JSONObject(dat)
         if (!asJson.has("securityProfile")) {
@@ -320,8 +481,46 @@ class DefaultDapsDriver(config: DefaultDapsDriverConfig) : DapsDriver {
         return sb.toString()
     }
 
+    /**
+     * A DAT with its renewal and expiration time in epoch milliseconds
+     */
+    private class CachedToken(val token: ByteArray, val renewAt: Long, val expiresAt: Long)
+
+    /**
+     * The claims of a successfully verified DAT and its expiration time in epoch seconds
+     */
+    private class VerifiedToken(val expirationTime: Long, val claims: String)
+
     companion object {
         private val LOG = LoggerFactory.getLogger(DefaultDapsDriver::class.java)
         private const val TARGET_AUDIENCE = "idsc:IDS_CONNECTORS_ALL"
+
+        /*
+         * A cached DAT is not handed out anymore when it expires within this number of milliseconds
+         */
+        private const val MIN_REMAINING_VALIDITY = 10_000L
+
+        /*
+         * Delay in milliseconds until a failed renewal is retried while the old DAT is still valid
+         */
+        private const val RENEWAL_RETRY_DELAY = 30_000L
+
+        /*
+         * Connection pool of the HTTP client, idle connections are closed after the keep alive duration
+         * in seconds
+         */
+        private const val MAX_IDLE_CONNECTIONS = 2
+        private const val KEEP_ALIVE_DURATION = 300L
+
+        /*
+         * Schedule the background renewal of the DAT, the driver is only referenced weakly, such that
+         * the pending renewal does not keep unused drivers alive
+         */
+        private fun scheduleRenewal(driver: DefaultDapsDriver, token: CachedToken) {
+            val driverReference = WeakReference(driver)
+            val delay = maxOf(0L, token.renewAt - System.currentTimeMillis())
+            Idscp2Executors.scheduler.schedule(Runnable { driverReference.get()?.onRenewalDue(token) },
+                    delay, TimeUnit.MILLISECONDS)
+        }
     }
 }
\ No newline at end of file
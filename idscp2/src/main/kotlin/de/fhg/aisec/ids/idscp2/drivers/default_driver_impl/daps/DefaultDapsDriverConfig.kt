@@ -23,6 +23,14 @@ class DefaultDapsDriverConfig {
         private set
     var trustStorePassword: CharArray = "password".toCharArray()
         private set
+    var tokenRenewalThreshold = DEFAULT_TOKEN_RENEWAL_THRESHOLD
+        private set
+    var jwksCacheDuration = DEFAULT_JWKS_CACHE_DURATION
+        private set
+    var verifiedTokenCacheSize = DEFAULT_VERIFIED_TOKEN_CACHE_SIZE
+        private set
+    var httpTimeout = DEFAULT_HTTP_TIMEOUT
+        private set
 
     class Builder {
         private val config = DefaultDapsDriverConfig()
@@ -61,8 +69,47 @@ class DefaultDapsDriverConfig {
             return this
         }
 
+        /*
+         * Fraction (0.0 - 1.0) of the DAT lifetime after which a new DAT is requested in the background
+         */
+        fun setTokenRenewalThreshold(threshold: Double): Builder {
+            config.tokenRenewalThreshold = threshold
+            return this
+        }
+
+        /*
+         * Number of seconds the JWKS of the DAPS is cached, unknown key ids trigger a refresh anyway
+         */
+        fun setJwksCacheDuration(seconds: Long): Builder {
+            config.jwksCacheDuration = seconds
+            return this
+        }
+
+        /*
+         * Maximum number of verified peer DATs that are cached until they expire, zero disables the cache
+         */
+        fun setVerifiedTokenCacheSize(size: Int): Builder {
+            config.verifiedTokenCacheSize = size
+            return this
+        }
+
+        /*
+         * Connect, read and write timeout in seconds for the requests to the DAPS
+         */
+        fun setHttpTimeout(seconds: Long): Builder {
+            config.httpTimeout = seconds
+            return this
+        }
+
         fun build(): DefaultDapsDriverConfig {
             return config
         }
     }
+
+    companion object {
+        const val DEFAULT_TOKEN_RENEWAL_THRESHOLD = 0.75
+        const val DEFAULT_JWKS_CACHE_DURATION = 3600L
+        const val DEFAULT_VERIFIED_TOKEN_CACHE_SIZE = 1024
+        const val DEFAULT_HTTP_TIMEOUT = 15L
+    }
 }
\ No newline at end of file
@@ -34,7 +34,7 @@ class CustomX509ExtendedKeyManager internal constructor(
 
     /** returns an existing certAlias that matches one of the given KeyTypes, or null;
     called only by client in TLS handshake */
-    override fun chooseClientAlias(keyTypes: Array<String>, issuers: Array<Principal>?, socket: Socket): String? {
+    override fun chooseClientAlias(keyTypes: Array<String>, issuers: Array<Principal>?, socket: Socket?): String? {
         if (listOf(*keyTypes).contains(keyType)) {
             if (cachedAliases.containsKey(certAlias) &&
                     cachedAliases[certAlias]!!.match(keyType, issuers)
@@ -61,7 +61,7 @@ class CustomX509ExtendedKeyManager internal constructor(
      * returns an existing certAlias that matches the given KeyType, or null;
      * called only by server in TLS handshake
      */
-    override fun chooseServerAlias(keyType: String, issuers: Array<Principal>?, socket: Socket): String? {
+    override fun chooseServerAlias(keyType: String, issuers: Array<Principal>?, socket: Socket?): String? {
         if (keyType == this.keyType) {
             if (cachedAliases.containsKey(certAlias) && cachedAliases[certAlias]!!.match(keyType, issuers)
                     || listOf(*getServerAliases(keyType, issuers ?: emptyArray())).contains(certAlias)) {
@@ -102,12 +102,15 @@ class CustomX509ExtendedKeyManager internal constructor(
         }
     }
 
-    override fun chooseEngineClientAlias(keyType: Array<String>, issuers: Array<Principal>, sslEngine: SSLEngine): String {
-        return delegate.chooseEngineClientAlias(keyType, issuers, sslEngine)
+    /** same alias selection as chooseClientAlias(), used by SSLEngine based drivers */
+    override fun chooseEngineClientAlias(keyType: Array<String>, issuers: Array<Principal>?,
+                                         sslEngine: SSLEngine?): String? {
+        return chooseClientAlias(keyType, issuers, null)
     }
 
-    override fun chooseEngineServerAlias(keyType: String, issuers: Array<Principal>, sslEngine: SSLEngine): String {
-        return delegate.chooseEngineServerAlias(keyType, issuers, sslEngine)
+    /** same alias selection as chooseServerAlias(), used by SSLEngine based drivers */
+    override fun chooseEngineServerAlias(keyType: String, issuers: Array<Principal>?, sslEngine: SSLEngine?): String? {
+        return chooseServerAlias(keyType, issuers, null)
     }
 
     /**
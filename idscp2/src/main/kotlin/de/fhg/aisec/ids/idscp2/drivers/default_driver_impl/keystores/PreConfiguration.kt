@@ -2,22 +2,85 @@ package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores
 
 import org.slf4j.LoggerFactory
 import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
 import java.nio.file.Files
 import java.nio.file.Path
+import java.nio.file.attribute.FileTime
 import java.security.*
 import java.security.cert.CertificateException
 import java.security.cert.X509Certificate
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import javax.net.ssl.*
 
 /**
  * A class for creating pre-configured TrustManagers and KeyManagers for TLS Server and TLS Client
  *
+ * Key stores, TrustManagers and KeyManagers are cached process-wide by file path and password digest.
+ * Each cache entry is bound to the modification time and size of its file, such that a replaced
+ * key store is reloaded transparently on the next access.
+ *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
 object PreConfiguration {
     private val LOG = LoggerFactory.getLogger(PreConfiguration::class.java)
+    private val keyStores = ConcurrentHashMap<StoreKey, CachedEntry<KeyStore>>()
+    private val trustManagers = ConcurrentHashMap<StoreKey, CachedEntry<Array<TrustManager>>>()
+    private val keyManagers = ConcurrentHashMap<AliasKey, CachedEntry<Array<KeyManager>>>()
+    private val keys = ConcurrentHashMap<AliasKey, CachedEntry<Key>>()
+
+    /*
+     * Get the key store from the given path, the returned instance is shared and must not be modified
+     */
     @Throws(KeyStoreException::class, IOException::class, CertificateException::class, NoSuchAlgorithmException::class)
     fun loadKeyStore(keyStorePath: Path, keyStorePassword: CharArray): KeyStore {
+        return getCached(keyStores, StoreKey(keyStorePath, keyStorePassword), keyStorePath) {
+            readKeyStore(keyStorePath, keyStorePassword)
+        }
+    }
+
+    /*
+     * Remove all cached key stores, TrustManagers and KeyManagers
+     */
+    fun invalidateCaches() {
+        keyStores.clear()
+        trustManagers.clear()
+        keyManagers.clear()
+        keys.clear()
+    }
+
+    /*
+     * Get a digest of the given passwords, used as cache key such that passwords are not retained
+     */
+    fun passwordDigest(vararg passwords: CharArray): String {
+        val md = MessageDigest.getInstance("SHA-256")
+        for (password in passwords) {
+            val bytes: ByteBuffer = Charsets.UTF_8.encode(CharBuffer.wrap(password))
+            md.update(bytes)
+            // separator, such that different splits of the same characters produce different digests
+            md.update(0.toByte())
+        }
+        return Base64.getEncoder().encodeToString(md.digest())
+    }
+
+    /*
+     * Get the cached value for the given key, the value is (re)loaded if the file has been changed
+     */
+    private fun <K, V> getCached(cache: ConcurrentHashMap<K, CachedEntry<V>>, key: K, path: Path,
+                                 loader: () -> V): V {
+        val version = FileVersion(Files.getLastModifiedTime(path), Files.size(path))
+        return cache.compute(key) { _, cached ->
+            if (cached != null && cached.version == version) {
+                cached
+            } else {
+                CachedEntry(version, loader())
+            }
+        }!!.value
+    }
+
+    @Throws(KeyStoreException::class, IOException::class, CertificateException::class, NoSuchAlgorithmException::class)
+    private fun readKeyStore(keyStorePath: Path, keyStorePassword: CharArray): KeyStore {
         val ks: KeyStore
         val pathString = keyStorePath.toString()
         ks = when {
@@ -51,6 +114,20 @@ object PreConfiguration {
     fun getX509ExtTrustManager(
             trustStorePath: Path,
             trustStorePassword: CharArray
+    ): Array<TrustManager> {
+        return try {
+            // the array is copied, such that callers cannot modify the cached TrustManagers
+            getCached(trustManagers, StoreKey(trustStorePath, trustStorePassword), trustStorePath) {
+                createX509ExtTrustManager(trustStorePath, trustStorePassword)
+            }.clone()
+        } catch (e: IOException) {
+            throw RuntimeException(e)
+        }
+    }
+
+    private fun createX509ExtTrustManager(
+            trustStorePath: Path,
+            trustStorePassword: CharArray
     ): Array<TrustManager> {
         return try {
             /* create TrustManager */
@@ -91,6 +168,24 @@ object PreConfiguration {
             keyStorePassword: CharArray,
             certAlias: String,
             keyType: String
+    ): Array<KeyManager> {
+        return try {
+            // the array is copied, such that callers cannot modify the cached KeyManagers
+            val key = AliasKey(StoreKey(keyStorePath, keyStorePassword, keyPassword), certAlias, keyType)
+            getCached(keyManagers, key, keyStorePath) {
+                createX509ExtKeyManager(keyPassword, keyStorePath, keyStorePassword, certAlias, keyType)
+            }.clone()
+        } catch (e: IOException) {
+            throw RuntimeException(e)
+        }
+    }
+
+    private fun createX509ExtKeyManager(
+            keyPassword: CharArray,
+            keyStorePath: Path,
+            keyStorePassword: CharArray,
+            certAlias: String,
+            keyType: String
     ): Array<KeyManager> {
         return try {
             /* create KeyManager for remote authentication */
@@ -135,11 +230,15 @@ object PreConfiguration {
             keyPassword: CharArray
     ): Key {
         return try {
-            val keyStore = loadKeyStore(keyStorePath, keyStorePassword)
+            // decrypting the key is expensive, hence it is cached until the key store has been changed
+            getCached(keys, AliasKey(StoreKey(keyStorePath, keyStorePassword, keyPassword), keyAlias),
+                    keyStorePath) {
+                val keyStore = loadKeyStore(keyStorePath, keyStorePassword)
 
-            // get private key
-            val key = keyStore.getKey(keyAlias, keyPassword)
-            key ?: throw RuntimeException("No key was found in keystore for given alias")
+                // get private key
+                val key = keyStore.getKey(keyAlias, keyPassword)
+                key ?: throw RuntimeException("No key was found in keystore for given alias")
+            }
         } catch (e: IOException) {
             throw RuntimeException(e)
         } catch (e: KeyStoreException) {
@@ -181,7 +280,26 @@ object PreConfiguration {
         } catch (e: UnrecoverableKeyException) {
             throw RuntimeException(e)
         }
-    } /*
+    }
+
+    /**
+     * Modification time and size of a key store file
+     */
+    private data class FileVersion(val lastModified: FileTime, val size: Long)
+
+    private class CachedEntry<V>(val version: FileVersion, val value: V)
+
+    /**
+     * Cache key of a key store file, passwords are only stored as digest
+     */
+    private data class StoreKey(val path: Path, val passwordDigest: String) {
+        constructor(path: Path, vararg passwords: CharArray) :
+                this(path.toAbsolutePath().normalize(), PreConfiguration.passwordDigest(*passwords))
+    }
+
+    private data class AliasKey(val storeKey: StoreKey, val alias: String, val keyType: String = "")
+
+    /*
      * This method can be used for filtering certificates in the trust store
      * to avoid expired certificates
      */
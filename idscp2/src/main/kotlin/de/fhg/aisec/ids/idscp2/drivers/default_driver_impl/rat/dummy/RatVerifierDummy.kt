@@ -1,52 +1,44 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy
 
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatVerifierDriver
-import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FsmListener
 import de.fhg.aisec.ids.idscp2.idscp_core.fsm.InternalControlMessage
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.RatListener
 import org.slf4j.LoggerFactory
-import java.util.concurrent.BlockingQueue
-import java.util.concurrent.LinkedBlockingQueue
 
 /**
  * A RatVerifier dummy that exchanges messages with a remote RatProver dummy
  *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
-class RatVerifierDummy(fsmListener: FsmListener) : RatVerifierDriver(fsmListener) {
-    private val queue: BlockingQueue<ByteArray> = LinkedBlockingQueue()
-    override fun delegate(message: ByteArray) {
-        queue.add(message)
+class RatVerifierDummy(fsmListener: RatListener) : RatVerifierDriver(fsmListener) {
+    private var countDown = 2
+
+    /*
+     * The verifier waits for the first message of the prover
+     */
+    override fun start() {
         if (LOG.isDebugEnabled) {
-            LOG.debug("Delegated to Verifier")
+            LOG.debug("Verifier waits")
         }
     }
 
-    override fun run() {
-        var countDown = 2
-        while (running) {
-            try {
-                sleep(1000)
-                if (LOG.isDebugEnabled) {
-                    LOG.debug("Verifier waits")
-                }
-                queue.take()
-                if (LOG.isDebugEnabled) {
-                    LOG.debug("Verifier receives, send something")
-                }
-                fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_MSG,
-                        "test".toByteArray())
-                if (--countDown == 0) break
-            } catch (e: InterruptedException) {
-                if (running) {
-                    fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_FAILED)
-                }
-                return
+    override fun delegate(message: ByteArray) {
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Delegated to Verifier")
+        }
+        execute {
+            if (LOG.isDebugEnabled) {
+                LOG.debug("Verifier receives, send something")
+            }
+            fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_MSG,
+                    "test".toByteArray())
+            if (--countDown == 0) {
+                fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_OK)
             }
         }
-        fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_OK)
     }
 
     companion object {
         private val LOG = LoggerFactory.getLogger(RatVerifierDummy::class.java)
     }
-}
\ No newline at end of file
+}
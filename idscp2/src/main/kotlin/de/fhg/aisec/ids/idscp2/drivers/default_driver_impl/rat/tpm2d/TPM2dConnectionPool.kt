@@ -0,0 +1,133 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.tpm2d
+
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedDeque
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * A pool of persistent connections to a tpm2d, such that attestation requests do not have to
+ * connect to the tpm2d each time
+ *
+ * The tpm2d protocol does not correlate requests and responses, hence each connection is used by
+ * a single request at a time and requests run concurrently on different connections. Idle
+ * connections are reused in LIFO order and closed by a periodic reaper on the shared IDSCP2
+ * scheduler once they have been idle for one minute.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class TPM2dConnectionPool private constructor(private val host: String) {
+    private val idleSockets = ConcurrentLinkedDeque<IdleSocket>()
+
+    /**
+     * Run the request on a pooled or new connection with the given connect and response timeout
+     * in milliseconds
+     *
+     * A reused connection might have been closed by the tpm2d in the meantime, so a failed request
+     * on a reused connection is repeated once on a new connection, unless it timed out or was
+     * interrupted. The connection is returned to the pool if the request succeeded.
+     */
+    @Throws(IOException::class)
+    fun <T> execute(timeout: Int, request: (TPM2dSocket) -> T): T {
+        val pooledSocket = pollIdleSocket()
+        if (pooledSocket != null) {
+            try {
+                pooledSocket.soTimeout = timeout
+                val result = request(pooledSocket)
+                release(pooledSocket)
+                return result
+            } catch (e: InterruptedIOException) {
+                closeQuietly(pooledSocket)
+                throw e
+            } catch (e: IOException) {
+                closeQuietly(pooledSocket)
+                if (LOG.isDebugEnabled) {
+                    LOG.debug("Reused tpm2d connection failed, reconnect: {}", e.toString())
+                }
+            }
+        }
+        val socket = TPM2dSocket(host, timeout)
+        try {
+            val result = request(socket)
+            release(socket)
+            return result
+        } catch (e: Exception) {
+            closeQuietly(socket)
+            throw e
+        }
+    }
+
+    private fun pollIdleSocket(): TPM2dSocket? {
+        val now = System.nanoTime()
+        while (true) {
+            val idleSocket = idleSockets.pollFirst() ?: return null
+            if (!idleSocket.socket.isClosed && now - idleSocket.since < MAX_IDLE_TIME) {
+                return idleSocket.socket
+            }
+            closeQuietly(idleSocket.socket)
+        }
+    }
+
+    private fun release(socket: TPM2dSocket) {
+        if (socket.isClosed) {
+            return
+        }
+        idleSockets.offerFirst(IdleSocket(socket, System.nanoTime()))
+        // close the connections that have been idle for the longest time
+        while (idleSockets.size > MAX_IDLE_SOCKETS) {
+            idleSockets.pollLast()?.let { closeQuietly(it.socket) }
+        }
+    }
+
+    /*
+     * Close the connections that have been idle for too long, the oldest ones are at the end of the deque
+     */
+    private fun closeExpiredSockets() {
+        val now = System.nanoTime()
+        while (true) {
+            val idleSocket = idleSockets.peekLast() ?: return
+            if (now - idleSocket.since < MAX_IDLE_TIME) {
+                return
+            }
+            // the connection might have been taken by a request in the meantime
+            if (idleSockets.removeLastOccurrence(idleSocket)) {
+                closeQuietly(idleSocket.socket)
+            }
+        }
+    }
+
+    private class IdleSocket(val socket: TPM2dSocket, val since: Long)
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(TPM2dConnectionPool::class.java)
+        private const val MAX_IDLE_SOCKETS = 8
+        private val MAX_IDLE_TIME = TimeUnit.MINUTES.toNanos(1)
+        private val REAPER_INTERVAL = TimeUnit.SECONDS.toMillis(30)
+        private val pools = ConcurrentHashMap<String, TPM2dConnectionPool>()
+        private val reaperStarted = AtomicBoolean(false)
+
+        /*
+         * Get the shared connection pool for the tpm2d at the given host
+         */
+        fun forHost(host: String): TPM2dConnectionPool {
+            if (reaperStarted.compareAndSet(false, true)) {
+                Idscp2Executors.scheduler.scheduleWithFixedDelay(
+                        Runnable { pools.values.forEach { it.closeExpiredSockets() } },
+                        REAPER_INTERVAL, REAPER_INTERVAL, TimeUnit.MILLISECONDS)
+            }
+            return pools.computeIfAbsent(host) { TPM2dConnectionPool(it) }
+        }
+
+        private fun closeQuietly(socket: TPM2dSocket) {
+            try {
+                socket.close()
+            } catch (e: IOException) {
+                LOG.warn("Cannot close tpm2d connection", e)
+            }
+        }
+    }
+}
@@ -2,21 +2,20 @@ package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.tpm2d
 
 import com.google.protobuf.InvalidProtocolBufferException
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatProverDriver
-import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FsmListener
 import de.fhg.aisec.ids.idscp2.idscp_core.fsm.InternalControlMessage
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.RatListener
 import de.fhg.aisec.ids.idscp2.messages.Tpm2dAttestation
 import de.fhg.aisec.ids.idscp2.messages.Tpm2dAttestation.Tpm2dMessageWrapper
 import org.slf4j.LoggerFactory
 import java.io.IOException
-import java.util.concurrent.BlockingQueue
-import java.util.concurrent.LinkedBlockingQueue
+import java.io.InterruptedIOException
 
 /**
  * A TPM2d RatProver Driver implementation that proves its identity to a remote peer using TPM2d
  *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
-class TPM2dProver(fsmListener: FsmListener) : RatProverDriver(fsmListener) {
+class TPM2dProver(fsmListener: RatListener) : RatProverDriver(fsmListener) {
     /*
      * ******************* Protocol *******************
      *
@@ -50,8 +49,12 @@ class TPM2dProver(fsmListener: FsmListener) : RatProverDriver(fsmListener) {
      * -------------------------
      *
      */
-    private val queue: BlockingQueue<ByteArray> = LinkedBlockingQueue()
     private var config = TPM2dProverConfig.Builder().build()
+    private var awaitingChallenge = true
+
+    @Volatile
+    private var tpmSocket: TPM2dSocket? = null
+
     override fun setConfig(config: Any) {
         if (config is TPM2dProverConfig) {
             if (LOG.isDebugEnabled) {
@@ -65,33 +68,44 @@ class TPM2dProver(fsmListener: FsmListener) : RatProverDriver(fsmListener) {
         }
     }
 
+    /*
+     * The prover waits for the RatChallenge of the verifier
+     */
+    override fun start() {}
+
     override fun delegate(message: ByteArray) {
-        queue.add(message)
         if (LOG.isDebugEnabled) {
             LOG.debug("Delegated to prover")
         }
-    }
-
-    override fun run() {
-        //TPM2d Challenge-Response Protocol
-
-        // wait for RatChallenge from Verifier
-        var msg: ByteArray?
-        try {
-            msg = queue.take()
+        execute {
             if (LOG.isDebugEnabled) {
                 LOG.debug("Prover receives new message")
             }
-        } catch (e: InterruptedException) {
-            if (running) {
-                fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED)
+            if (awaitingChallenge) {
+                awaitingChallenge = false
+                handleChallenge(message)
+            } else {
+                handleResult(message)
             }
-            return
         }
+    }
+
+    /*
+     * Close a TPM connection the prover is blocked on
+     */
+    override fun onTerminate() {
+        try {
+            tpmSocket?.close()
+        } catch (e: IOException) {
+            LOG.warn("Cannot close TPM socket", e)
+        }
+    }
+
+    private fun handleChallenge(msg: ByteArray) {
+        //TPM2d Challenge-Response Protocol
 
         // parse body to expected tpm2d message wrapper
-        var tpm2dMessageWrapper: Tpm2dMessageWrapper
-        tpm2dMessageWrapper = try {
+        val tpm2dMessageWrapper: Tpm2dMessageWrapper = try {
             Tpm2dMessageWrapper.parseFrom(msg)
         } catch (e: InvalidProtocolBufferException) {
             LOG.error("Cannot parse IdscpRatVerifier body", e)
@@ -128,14 +142,22 @@ class TPM2dProver(fsmListener: FsmListener) : RatProverDriver(fsmListener) {
         )
 
         // get TPM response
-        val tpmResponse: Tpm2dAttestation.Tpm2dToRemote
-        tpmResponse = try {
-            val tpmSocket = TPM2dSocket(config.tpm2dHost)
-            tpmSocket.requestAttestation(tpmRequest)
+        val tpmResponse: Tpm2dAttestation.Tpm2dToRemote = try {
+            TPM2dConnectionPool.forHost(config.tpm2dHost).execute(config.tpmTimeout) { socket ->
+                tpmSocket = socket
+                if (!running) {
+                    throw InterruptedIOException("RAT prover has been terminated")
+                }
+                socket.requestAttestation(tpmRequest)
+            }
         } catch (e: IOException) {
-            LOG.error("Cannot access TPM", e)
-            fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED)
+            if (running) {
+                LOG.error("Cannot access TPM", e)
+                fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED)
+            }
             return
+        } finally {
+            tpmSocket = null
         }
 
         // create Tpm2dResponse
@@ -145,22 +167,11 @@ class TPM2dProver(fsmListener: FsmListener) : RatProverDriver(fsmListener) {
             LOG.debug("Send rat response to verifier")
         }
         fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_MSG, response)
+    }
 
-        // wait for result
-        try {
-            msg = queue.take()
-            if (LOG.isDebugEnabled) {
-                LOG.debug("Prover receives new message")
-            }
-        } catch (e: InterruptedException) {
-            if (running) {
-                fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_FAILED)
-            }
-            return
-        }
-
+    private fun handleResult(msg: ByteArray) {
         // parse body to expected tpm2d message wrapper
-        tpm2dMessageWrapper = try {
+        val tpm2dMessageWrapper: Tpm2dMessageWrapper = try {
             Tpm2dMessageWrapper.parseFrom(msg)
         } catch (e: InvalidProtocolBufferException) {
             LOG.error("Cannot parse IdscpRatVerifier body", e)
@@ -178,7 +189,7 @@ class TPM2dProver(fsmListener: FsmListener) : RatProverDriver(fsmListener) {
             return
         }
         if (LOG.isDebugEnabled) {
-            LOG.debug("Get rat challenge from rat verifier")
+            LOG.debug("Get rat result from rat verifier")
         }
         val result = tpm2dMessageWrapper.ratResult
 
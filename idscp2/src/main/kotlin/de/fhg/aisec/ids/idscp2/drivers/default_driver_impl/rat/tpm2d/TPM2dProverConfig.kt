@@ -12,6 +12,8 @@ class TPM2dProverConfig private constructor() {
         private set
     var tpm2dHost: String
         private set
+    var tpmTimeout = DEFAULT_TPM_TIMEOUT
+        private set
 
     class Builder {
         fun setRemoteCertificate(remoteCert: Certificate?): Builder {
@@ -24,6 +26,14 @@ class TPM2dProverConfig private constructor() {
             return this
         }
 
+        /*
+         * Connect and response timeout in milliseconds for requests to the tpm2d
+         */
+        fun setTpmTimeout(timeout: Int): Builder {
+            config.tpmTimeout = timeout
+            return this
+        }
+
         fun build(): TPM2dProverConfig {
             return config
         }
@@ -33,6 +43,10 @@ class TPM2dProverConfig private constructor() {
         }
     }
 
+    companion object {
+        const val DEFAULT_TPM_TIMEOUT = 30_000
+    }
+
     init {
         tpm2dHost = if (System.getenv("TPM_HOST") != null) System.getenv("TPM_HOST") else "localhost"
     }
@@ -1,17 +1,28 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.tpm2d
 
 import de.fhg.aisec.ids.idscp2.messages.Tpm2dAttestation
+import java.io.BufferedOutputStream
 import java.io.DataInputStream
 import java.io.DataOutputStream
 import java.io.IOException
+import java.net.InetSocketAddress
 import java.net.Socket
 
 /**
  * A TPM2d Socket for communication with the Trusted Platform Module
+ *
+ * The socket stays connected after a request, such that it can be reused for further requests,
+ * see TPM2dConnectionPool. Requests must not be sent concurrently on the same socket.
  */
-class TPM2dSocket(host: String?) : Socket(host, 9505) {
+class TPM2dSocket @JvmOverloads constructor(host: String?, timeout: Int = 0) : Socket() {
+    init {
+        connect(InetSocketAddress(host, TPM2D_PORT), timeout)
+        soTimeout = timeout
+        tcpNoDelay = true
+    }
+
     private val `is`: DataInputStream = DataInputStream(this.inputStream)
-    private val os: DataOutputStream = DataOutputStream(this.outputStream)
+    private val os: DataOutputStream = DataOutputStream(BufferedOutputStream(this.outputStream))
 
     @Throws(IOException::class)
     fun requestAttestation(request: Tpm2dAttestation.RemoteToTpm2d?): Tpm2dAttestation.Tpm2dToRemote {
@@ -19,10 +30,14 @@ class TPM2dSocket(host: String?) : Socket(host, 9505) {
         val requestBytes = request!!.toByteArray()
         os.writeInt(requestBytes.size)
         os.write(requestBytes)
+        os.flush()
         // Read attestation result message
         val resultBytes = ByteArray(`is`.readInt())
         `is`.readFully(resultBytes)
         return Tpm2dAttestation.Tpm2dToRemote.parseFrom(resultBytes)
     }
 
-}
\ No newline at end of file
+    companion object {
+        const val TPM2D_PORT = 9505
+    }
+}
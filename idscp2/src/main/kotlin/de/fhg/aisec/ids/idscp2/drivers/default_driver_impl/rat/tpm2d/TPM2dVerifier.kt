@@ -2,8 +2,8 @@ package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.tpm2d
 
 import com.google.protobuf.InvalidProtocolBufferException
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatVerifierDriver
-import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FsmListener
 import de.fhg.aisec.ids.idscp2.idscp_core.fsm.InternalControlMessage
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.RatListener
 import de.fhg.aisec.ids.idscp2.messages.Tpm2dAttestation.Tpm2dMessageWrapper
 import de.fhg.aisec.ids.idscp2.messages.Tpm2dAttestation.Tpm2dRatResponse
 import org.slf4j.LoggerFactory
@@ -16,13 +16,11 @@ import java.security.Signature
 import java.security.cert.CertificateFactory
 import java.security.cert.X509Certificate
 import java.util.*
-import java.util.concurrent.BlockingQueue
-import java.util.concurrent.LinkedBlockingQueue
 
 /**
  * A TPM2d RatVerifier driver that verifies the remote peer's identity using TPM2d
  */
-class TPM2dVerifier(fsmListener: FsmListener) : RatVerifierDriver(fsmListener) {
+class TPM2dVerifier(fsmListener: RatListener) : RatVerifierDriver(fsmListener) {
     /*
      * ******************* Protocol *******************
      *
@@ -56,8 +54,9 @@ class TPM2dVerifier(fsmListener: FsmListener) : RatVerifierDriver(fsmListener) {
      * -------------------------
      *
      */
-    private val queue: BlockingQueue<ByteArray> = LinkedBlockingQueue()
     private var config = TPM2dVerifierConfig.Builder().build()
+    private var nonce: ByteArray? = null
+
     override fun setConfig(config: Any) {
         if (config is TPM2dVerifierConfig) {
             LOG.debug("Set rat verifier config")
@@ -67,38 +66,41 @@ class TPM2dVerifier(fsmListener: FsmListener) : RatVerifierDriver(fsmListener) {
         }
     }
 
+    override fun start() {
+        execute { sendChallenge() }
+    }
+
     override fun delegate(message: ByteArray) {
-        queue.add(message)
         LOG.debug("Delegated to Verifier")
+        execute { handleResponse(message) }
     }
 
-    override fun run() {
+    private fun sendChallenge() {
         //TPM2d Challenge-Response Protocol
 
         // create rat challenge with fresh nonce
         LOG.debug("Generate and send rat challenge for rat prover")
         val nonce = TPM2dHelper.generateNonce(20)
+        this.nonce = nonce
 
         // send challenge as RAT Verifier Message
         val ratChallenge = TPM2dMessageFactory.getAttestationChallengeMessage(
                 nonce, config.expectedAType, config.expectedAttestationMask).toByteArray()
         fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_MSG, ratChallenge)
+    }
 
-        // wait for attestation response
-        val msg: ByteArray
-        try {
-            msg = queue.take()
-            LOG.debug("Verifier receives new message")
-        } catch (e: InterruptedException) {
-            if (running) {
-                fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_FAILED)
-            }
+    private fun handleResponse(msg: ByteArray) {
+        LOG.debug("Verifier receives new message")
+        val nonce = this.nonce
+        if (nonce == null) {
+            LOG.warn("Unexpected message from RatProver: No rat response expected")
+            fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_FAILED)
             return
         }
+        this.nonce = null
 
         // parse body to expected tpm2d message wrapper
-        val tpm2dMessageWrapper: Tpm2dMessageWrapper
-        tpm2dMessageWrapper = try {
+        val tpm2dMessageWrapper: Tpm2dMessageWrapper = try {
             Tpm2dMessageWrapper.parseFrom(msg)
         } catch (e: InvalidProtocolBufferException) {
             LOG.error("Cannot parse IdscpRatProver body", e)
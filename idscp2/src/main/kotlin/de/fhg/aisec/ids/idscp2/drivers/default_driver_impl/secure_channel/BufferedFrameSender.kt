@@ -0,0 +1,120 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel
+
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.SendFlushPolicy
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.io.OutputStream
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * A buffered sender for length-prefixed IDSCP2 frames of a single connection.
+ *
+ * Length prefix and message are assembled into a single write, such that they end up in the same
+ * TLS record. Depending on the SendFlushPolicy, several queued messages are coalesced into one write.
+ * Delayed flushes are triggered by the shared scheduler, but written on the worker pool, since the write
+ * may block. Errors of delayed flushes are reported to the error handler.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class BufferedFrameSender(
+        private val out: OutputStream,
+        private val policy: SendFlushPolicy,
+        private val flushDelay: Long,
+        private val batchSize: Int,
+        private val errorHandler: (IOException) -> Unit
+) {
+    private var buffer = ByteArrayOutputStream(INITIAL_BUFFER_SIZE)
+    private var bufferedFrames = 0
+    private var flushTask: ScheduledFuture<*>? = null
+
+    constructor(out: OutputStream, settings: Idscp2Settings, errorHandler: (IOException) -> Unit) :
+            this(out, settings.sendFlushPolicy, settings.sendFlushDelay, settings.sendBatchSize, errorHandler)
+
+    /*
+     * Send a message, it is flushed according to the flush policy
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun send(bytes: ByteArray) {
+        writeLength(bytes.size)
+        if (bytes.size >= DIRECT_WRITE_THRESHOLD) {
+            // do not grow the buffer for large messages, write them with the buffered frames at once
+            writeBuffer(bytes)
+            out.flush()
+            return
+        }
+        buffer.write(bytes)
+        bufferedFrames++
+        when {
+            policy == SendFlushPolicy.IMMEDIATE || buffer.size() >= MAX_BUFFER_SIZE -> flush()
+            policy == SendFlushPolicy.BATCH && bufferedFrames >= batchSize -> flush()
+            flushTask == null -> {
+                flushTask = Idscp2Executors.scheduler.schedule(
+                        Runnable { Idscp2Executors.worker.execute { delayedFlush() } },
+                        flushDelay, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    /*
+     * Write all buffered messages to the output stream
+     */
+    @Synchronized
+    @Throws(IOException::class)
+    fun flush() {
+        if (buffer.size() > 0) {
+            writeBuffer()
+            out.flush()
+        }
+    }
+
+    private fun writeLength(length: Int) {
+        buffer.write(length ushr 24)
+        buffer.write(length ushr 16)
+        buffer.write(length ushr 8)
+        buffer.write(length)
+    }
+
+    /*
+     * Write the buffer and the optional message in a single write, such that the length prefix of the
+     * message is never sent in a TLS record of its own
+     */
+    private fun writeBuffer(message: ByteArray? = null) {
+        flushTask?.cancel(false)
+        flushTask = null
+        val size = buffer.size()
+        if (message == null) {
+            buffer.writeTo(out)
+        } else {
+            val frames = buffer.toByteArray().copyOf(size + message.size)
+            System.arraycopy(message, 0, frames, size, message.size)
+            out.write(frames)
+        }
+        bufferedFrames = 0
+        if (size > MAX_BUFFER_SIZE) {
+            // do not retain large buffers
+            buffer = ByteArrayOutputStream(INITIAL_BUFFER_SIZE)
+        } else {
+            buffer.reset()
+        }
+    }
+
+    @Synchronized
+    private fun delayedFlush() {
+        flushTask = null
+        try {
+            flush()
+        } catch (e: IOException) {
+            errorHandler(e)
+        }
+    }
+
+    companion object {
+        private const val INITIAL_BUFFER_SIZE = 4096
+        private const val MAX_BUFFER_SIZE = 64 * 1024
+        private const val DIRECT_WRITE_THRESHOLD = 16 * 1024
+    }
+}
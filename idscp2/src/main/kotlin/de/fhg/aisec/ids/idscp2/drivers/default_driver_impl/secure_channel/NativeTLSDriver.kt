@@ -20,6 +20,8 @@ import java.util.concurrent.CompletableFuture
 /**
  * An implementation of SecureChannelDriver interface on TLSv1.3
  *
+ * SSLContexts are shared via the TLSContextCache, such that TLS sessions can be resumed
+ *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
 class NativeTLSDriver<CC: Idscp2Connection> : SecureChannelDriver<CC> {
@@ -31,7 +33,8 @@ class NativeTLSDriver<CC: Idscp2Connection> : SecureChannelDriver<CC> {
                          dapsDriver: DapsDriver): CompletableFuture<CC> {
         val connectionFuture = CompletableFuture<CC>()
         try {
-            val tlsClient = TLSClient(connectionFactory, settings, dapsDriver, connectionFuture)
+            val tlsClient = TLSClient(connectionFactory, settings, TLSContextCache.getContext(settings),
+                    dapsDriver, connectionFuture)
             tlsClient.connect(settings.host, settings.serverPort)
         } catch (e: IOException) {
             connectionFuture.completeExceptionally(Idscp2Exception("Call to connect() has failed", e))
@@ -52,7 +55,7 @@ class NativeTLSDriver<CC: Idscp2Connection> : SecureChannelDriver<CC> {
     override fun listen(settings: Idscp2Settings, channelInitListener: SecureChannelInitListener<CC>,
                         serverListenerPromise: CompletableFuture<ServerConnectionListener<CC>>): SecureServer {
         return try {
-            TLSServer(settings, channelInitListener, serverListenerPromise)
+            TLSServer(settings, TLSContextCache.getContext(settings), channelInitListener, serverListenerPromise)
         } catch (e: IOException) {
             throw Idscp2Exception("Error while trying to to start SecureServer", e)
         } catch (e: NoSuchAlgorithmException) {
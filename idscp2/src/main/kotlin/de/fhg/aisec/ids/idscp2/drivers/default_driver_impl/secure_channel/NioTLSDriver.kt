@@ -0,0 +1,96 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel
+
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio.NioSelectorPool
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio.NioTLSChannel
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio.NioTLSServer
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureChannelDriver
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureServer
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.SecureChannelInitListener
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel
+import de.fhg.aisec.ids.idscp2.idscp_core.server.ServerConnectionListener
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.StandardSocketOptions
+import java.nio.channels.SocketChannel
+import java.security.GeneralSecurityException
+import java.util.concurrent.CompletableFuture
+
+/**
+ * A non-blocking implementation of the SecureChannelDriver interface on TLSv1.3, based on SSLEngine.
+ *
+ * In contrast to the NativeTLSDriver, which uses one thread per connection, all connections of this
+ * driver are served by the fixed set of selector threads of the given NioSelectorPool.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class NioTLSDriver<CC : Idscp2Connection>(
+        private val selectorPool: NioSelectorPool = NioSelectorPool.DEFAULT
+) : SecureChannelDriver<CC> {
+    /**
+     * Performs an asynchronous client connect to a TLS server.
+     */
+    override fun connect(connectionFactory: (SecureChannel, Idscp2Settings, DapsDriver) -> CC,
+                         settings: Idscp2Settings,
+                         dapsDriver: DapsDriver): CompletableFuture<CC> {
+        val connectionFuture = CompletableFuture<CC>()
+        try {
+            val engine = TLSContextCache.getContext(settings).createSSLEngine(settings.host, settings.serverPort)
+            engine.useClientMode = true
+
+            // set TLS constraints
+            val sslParameters = engine.sslParameters
+            sslParameters.useCipherSuitesOrder = false // use server priority order
+            sslParameters.needClientAuth = true
+            sslParameters.protocols = TLSConstants.TLS_ENABLED_PROTOCOLS // only TLSv1.3
+            sslParameters.cipherSuites = TLSConstants.TLS_ENABLED_CIPHERS // only allow strong cipher
+            engine.sslParameters = sslParameters
+
+            val socketChannel = SocketChannel.open()
+            socketChannel.configureBlocking(false)
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true)
+            val channel = NioTLSChannel(selectorPool.next(), socketChannel, engine,
+                    object : NioTLSChannel.HandshakeListener {
+                        override fun onHandshakeCompleted(secureChannel: SecureChannel) {
+                            val connection = connectionFactory(secureChannel, settings, dapsDriver)
+                            // Try to complete, won't do anything if promise has been cancelled
+                            connectionFuture.complete(connection)
+                            if (connectionFuture.isCancelled) {
+                                connection.close()
+                            }
+                        }
+
+                        override fun onHandshakeFailed(t: Throwable) {
+                            connectionFuture.completeExceptionally(Idscp2Exception("TLS Handshake failed", t))
+                        }
+                    })
+            channel.connect(InetSocketAddress(settings.host, settings.serverPort))
+        } catch (e: IOException) {
+            connectionFuture.completeExceptionally(Idscp2Exception("Call to connect() has failed", e))
+        } catch (e: GeneralSecurityException) {
+            connectionFuture.completeExceptionally(Idscp2Exception("Call to connect() has failed", e))
+        }
+        return connectionFuture
+    }
+
+    /**
+     * Creates and starts a new non-blocking TLS Server instance.
+     *
+     * @return The SecureServer instance
+     * @throws Idscp2Exception If any error occurred during server creation/start
+     */
+    override fun listen(settings: Idscp2Settings, channelInitListener: SecureChannelInitListener<CC>,
+                        serverListenerPromise: CompletableFuture<ServerConnectionListener<CC>>): SecureServer {
+        return try {
+            NioTLSServer(settings, TLSContextCache.getContext(settings), selectorPool, channelInitListener,
+                    serverListenerPromise)
+        } catch (e: IOException) {
+            throw Idscp2Exception("Error while trying to to start SecureServer", e)
+        } catch (e: GeneralSecurityException) {
+            throw Idscp2Exception("Error while trying to to start SecureServer", e)
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel
+
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A process-wide pool of receive buffers for incoming IDSCP2 frames.
+ *
+ * Buffers are organized in power-of-two size classes from 256 bytes to 1 MiB, frames larger than
+ * the biggest size class are allocated exactly and are not pooled. Each size class keeps at most
+ * maxBuffersPerClass idle buffers.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class ReceiveBufferPool(private val maxBuffersPerClass: Int = DEFAULT_MAX_BUFFERS_PER_CLASS) {
+    private val buffers = Array(SIZE_CLASSES) { ConcurrentLinkedQueue<ByteArray>() }
+    private val bufferCounts = Array(SIZE_CLASSES) { AtomicInteger() }
+
+    /*
+     * Get a buffer with at least the given size
+     */
+    fun acquire(size: Int): ByteArray {
+        val sizeClass = sizeClassOf(size)
+        if (sizeClass < 0) {
+            return ByteArray(size)
+        }
+        val buffer = buffers[sizeClass].poll() ?: return ByteArray(MIN_BUFFER_SIZE shl sizeClass)
+        bufferCounts[sizeClass].decrementAndGet()
+        return buffer
+    }
+
+    /*
+     * Return a buffer to the pool, buffers that do not match a size class are dropped
+     */
+    fun release(buffer: ByteArray) {
+        val sizeClass = sizeClassOf(buffer.size)
+        if (sizeClass < 0 || MIN_BUFFER_SIZE shl sizeClass != buffer.size) {
+            return
+        }
+        if (bufferCounts[sizeClass].incrementAndGet() > maxBuffersPerClass) {
+            bufferCounts[sizeClass].decrementAndGet()
+            return
+        }
+        buffers[sizeClass].offer(buffer)
+    }
+
+    /*
+     * Create the buffer cache of a single connection
+     */
+    fun connectionBuffers(maxRetainedBytes: Int = DEFAULT_MAX_RETAINED_BYTES): ConnectionBuffers {
+        return ConnectionBuffers(this, maxRetainedBytes)
+    }
+
+    /**
+     * Receive buffers of a single connection, must only be used by the reader of the connection.
+     *
+     * The connection keeps the last released buffer up to maxRetainedBytes for the next frame,
+     * larger buffers are returned to the shared pool immediately
+     */
+    class ConnectionBuffers internal constructor(
+            private val pool: ReceiveBufferPool,
+            private val maxRetainedBytes: Int) {
+        private var retained: ByteArray? = null
+
+        fun acquire(size: Int): ByteArray {
+            val cached = retained
+            if (cached != null && cached.size >= size) {
+                retained = null
+                return cached
+            }
+            return pool.acquire(size)
+        }
+
+        fun release(buffer: ByteArray) {
+            val cached = retained
+            if (buffer.size <= maxRetainedBytes && (cached == null || cached.size < buffer.size)) {
+                if (cached != null) {
+                    pool.release(cached)
+                }
+                retained = buffer
+            } else {
+                pool.release(buffer)
+            }
+        }
+
+        /*
+         * Return the retained buffer to the shared pool, e.g. when the connection has been closed
+         */
+        fun close() {
+            retained?.let { pool.release(it) }
+            retained = null
+        }
+    }
+
+    companion object {
+        private const val MIN_SHIFT = 8
+        private const val MAX_SHIFT = 20
+        private const val SIZE_CLASSES = MAX_SHIFT - MIN_SHIFT + 1
+        private const val MIN_BUFFER_SIZE = 1 shl MIN_SHIFT
+        const val DEFAULT_MAX_BUFFERS_PER_CLASS = 64
+        const val DEFAULT_MAX_RETAINED_BYTES = 64 * 1024
+
+        val DEFAULT = ReceiveBufferPool()
+
+        /*
+         * Get the index of the smallest size class that fits the given size, or -1 if too large
+         */
+        private fun sizeClassOf(size: Int): Int {
+            if (size <= MIN_BUFFER_SIZE) {
+                return 0
+            }
+            val shift = 32 - Integer.numberOfLeadingZeros(size - 1)
+            return if (shift > MAX_SHIFT) -1 else shift - MIN_SHIFT
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel
+
+import org.slf4j.LoggerFactory
+import java.lang.reflect.Method
+
+/**
+ * Creates the accept and reader threads of the blocking TLS driver.
+ *
+ * Virtual threads (Thread.ofVirtual()) are only available on Java 21+, while this module is built
+ * for Java 11. They are therefore looked up via reflection and platform threads are used as fallback.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+object SecureChannelThreads {
+    private val LOG = LoggerFactory.getLogger(SecureChannelThreads::class.java)
+    private val ofVirtual: Method?
+    private val builderName: Method?
+    private val builderUnstarted: Method?
+
+    @Volatile
+    private var fallbackLogged = false
+
+    /*
+     * Check if the runtime supports virtual threads
+     */
+    val virtualThreadsSupported: Boolean
+        get() = ofVirtual != null
+
+    /*
+     * Create a new unstarted thread, which is a virtual thread if requested and supported by the runtime
+     */
+    fun newThread(task: Runnable, name: String, useVirtualThreads: Boolean): Thread {
+        if (useVirtualThreads) {
+            if (ofVirtual != null) {
+                val builder = builderName!!.invoke(ofVirtual.invoke(null), name)
+                return builderUnstarted!!.invoke(builder, task) as Thread
+            } else if (!fallbackLogged) {
+                fallbackLogged = true
+                LOG.warn("Virtual threads are not supported by this Java runtime, using platform threads")
+            }
+        }
+        return Thread(task, name)
+    }
+
+    init {
+        var ofVirtualMethod: Method? = null
+        var nameMethod: Method? = null
+        var unstartedMethod: Method? = null
+        try {
+            val builderClass = Class.forName("java.lang.Thread\$Builder")
+            nameMethod = builderClass.getMethod("name", String::class.java)
+            unstartedMethod = builderClass.getMethod("unstarted", Runnable::class.java)
+            ofVirtualMethod = Thread::class.java.getMethod("ofVirtual")
+        } catch (ignore: ReflectiveOperationException) {
+            // Java runtime < 21
+        }
+        ofVirtual = ofVirtualMethod
+        builderName = nameMethod
+        builderUnstarted = unstartedMethod
+    }
+}
@@ -20,4 +20,16 @@ object TLSConstants {
             //            "TLS_ECDH_ECDSA_WITH_AES_256_GCM_SHA384",
             //            "TLS_ECDH_RSA_WITH_AES_256_GCM_SHA384",
             "TLS_DHE_RSA_WITH_AES_256_GCM_SHA384")
+
+    // Maximum number of cached TLS sessions per SSLContext, used for session resumption
+    const val TLS_SESSION_CACHE_SIZE = 1000
+
+    // Lifetime of cached TLS sessions in seconds
+    const val TLS_SESSION_TIMEOUT = 3600
+
+    // Read timeout during the TLS handshake in milliseconds, such that silent peers cannot block an endpoint
+    const val TLS_HANDSHAKE_TIMEOUT = 5000
+
+    // Maximum length of a received IDSCP2 frame in bytes, larger frames close the channel before allocation
+    const val MAX_FRAME_SIZE = 64 * 1024 * 1024
 }
\ No newline at end of file
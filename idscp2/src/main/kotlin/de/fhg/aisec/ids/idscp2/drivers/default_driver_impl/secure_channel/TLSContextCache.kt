@@ -0,0 +1,100 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel
+
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores.PreConfiguration
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings
+import org.slf4j.LoggerFactory
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
+import javax.net.ssl.KeyManager
+import javax.net.ssl.SSLContext
+import javax.net.ssl.TrustManager
+
+/**
+ * A process-wide cache of SSLContexts, shared by all TLS clients and servers with the same
+ * keystore, truststore and certificate alias.
+ *
+ * Sharing the SSLContext also shares its TLS session caches, which allows TLS 1.3 session
+ * resumption when reconnecting to the same peer. The KeyManagers and TrustManagers are provided by the
+ * PreConfiguration cache, a context is rebuilt as soon as they have been reloaded due to a changed key store.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+object TLSContextCache {
+    private val LOG = LoggerFactory.getLogger(TLSContextCache::class.java)
+    private val contexts = ConcurrentHashMap<ContextKey, CachedContext>()
+
+    /*
+     * Get the shared SSLContext for the given settings, the context is created on first use
+     */
+    fun getContext(settings: Idscp2Settings): SSLContext {
+        // get array of TrustManagers, that contains only one instance of X509ExtendedTrustManager, which enables
+        // hostVerification and algorithm constraints
+        val myTrustManager = PreConfiguration.getX509ExtTrustManager(
+                settings.trustStorePath,
+                settings.trustStorePassword
+        )
+
+        // get array of KeyManagers, that contains only one instance of X509ExtendedKeyManager, which enables
+        // connection specific key selection via key alias
+        val myKeyManager = PreConfiguration.getX509ExtKeyManager(
+                settings.keyPassword,
+                settings.keyStorePath,
+                settings.keyStorePassword,
+                settings.certificateAlias,
+                settings.keyStoreKeyType
+        )
+        return contexts.compute(ContextKey(settings)) { _, cached ->
+            if (cached != null && cached.keyManager === myKeyManager[0] && cached.trustManager === myTrustManager[0]) {
+                cached
+            } else {
+                CachedContext(myKeyManager[0], myTrustManager[0], createContext(settings, myKeyManager, myTrustManager))
+            }
+        }!!.sslContext
+    }
+
+    /*
+     * Remove all cached contexts and their TLS session caches
+     */
+    fun invalidate() {
+        contexts.clear()
+    }
+
+    private fun createContext(settings: Idscp2Settings, myKeyManager: Array<KeyManager>,
+                              myTrustManager: Array<TrustManager>): SSLContext {
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Creating SSLContext for keystore {} and alias {}", settings.keyStorePath,
+                    settings.certificateAlias)
+        }
+        val sslContext = SSLContext.getInstance(TLSConstants.TLS_INSTANCE)
+        sslContext.init(myKeyManager, myTrustManager, null)
+
+        // configure session caches for session resumption
+        sslContext.clientSessionContext.sessionCacheSize = TLSConstants.TLS_SESSION_CACHE_SIZE
+        sslContext.clientSessionContext.sessionTimeout = TLSConstants.TLS_SESSION_TIMEOUT
+        sslContext.serverSessionContext.sessionCacheSize = TLSConstants.TLS_SESSION_CACHE_SIZE
+        sslContext.serverSessionContext.sessionTimeout = TLSConstants.TLS_SESSION_TIMEOUT
+        return sslContext
+    }
+
+    /**
+     * Cache key, passwords are only stored as digest
+     */
+    private data class ContextKey(
+            val keyStorePath: Path,
+            val trustStorePath: Path,
+            val certificateAlias: String,
+            val keyStoreKeyType: String,
+            val passwordDigest: String
+    ) {
+        constructor(settings: Idscp2Settings) : this(
+                settings.keyStorePath.toAbsolutePath().normalize(),
+                settings.trustStorePath.toAbsolutePath().normalize(),
+                settings.certificateAlias,
+                settings.keyStoreKeyType,
+                PreConfiguration.passwordDigest(settings.keyStorePassword, settings.keyPassword,
+                        settings.trustStorePassword)
+        )
+    }
+
+    private class CachedContext(val keyManager: KeyManager, val trustManager: TrustManager, val sslContext: SSLContext)
+}
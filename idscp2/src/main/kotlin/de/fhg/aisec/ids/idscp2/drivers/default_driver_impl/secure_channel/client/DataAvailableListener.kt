@@ -1,5 +1,7 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.client
 
+import java.nio.ByteBuffer
+
 /**
  * An interface for DataAvailableListeners, that will be notified when new data has been received
  * at the sslSocket
@@ -8,9 +10,9 @@ package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.clien
  */
 interface DataAvailableListener {
     /*
-     * Provide incoming data to listener
+     * Provide incoming data to listener, the buffer is reused after the call returns
      */
-    fun onMessage(bytes: ByteArray)
+    fun onMessage(buffer: ByteBuffer)
 
     /*
      * Notify listener that an error has occurred
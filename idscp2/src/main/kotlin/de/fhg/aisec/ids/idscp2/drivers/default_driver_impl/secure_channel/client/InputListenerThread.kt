@@ -1,48 +1,73 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.client
 
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.ReceiveBufferPool
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.SecureChannelThreads
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSConstants
 import java.io.DataInputStream
 import java.io.EOFException
 import java.io.IOException
 import java.io.InputStream
-import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
 
 /**
  * A simple Listener thread that listens to an input stream and notifies a listeners
  * when new data has been received
  *
+ * The listener is stopped by safeStop() and closing the underlying socket, which unblocks the read
+ *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
-class InputListenerThread(`in`: InputStream) : Thread(), InputListener {
+class InputListenerThread(`in`: InputStream, useVirtualThreads: Boolean = false) : Runnable, InputListener {
     private val `in`: DataInputStream = DataInputStream(`in`)
     private var listener: DataAvailableListener? = null //no race conditions, could be empty list
+    private val thread = SecureChannelThreads.newThread(this, "TLS Client Input Listener", useVirtualThreads)
+    private val buffers = ReceiveBufferPool.DEFAULT.connectionBuffers()
 
     @Volatile
     private var running = true
 
+    val isAlive: Boolean
+        get() = thread.isAlive
+
+    fun start() {
+        thread.start()
+    }
+
     /*
      * Run the input listener thread that reads from wire and provides data to upper layer
      */
     override fun run() {
-        var buf: ByteArray
         while (running) {
             try {
                 //first read the length
                 val len = `in`.readInt()
-                buf = ByteArray(len)
-                //then read the data
-                `in`.readFully(buf, 0, len)
-                //provide to listener
-                listener!!.onMessage(buf)
-            } catch (ignore: SocketTimeoutException) {
-                //timeout to catch safeStop() call
+                if (len < 0 || len > TLSConstants.MAX_FRAME_SIZE) {
+                    // close before a buffer of the announced length is allocated
+                    throw IOException("Received frame with invalid length $len")
+                }
+                //then read the data into a pooled buffer, which is reused after the listener returned
+                val buf = buffers.acquire(len)
+                try {
+                    `in`.readFully(buf, 0, len)
+                    //provide to listener
+                    listener!!.onMessage(ByteBuffer.wrap(buf, 0, len))
+                } finally {
+                    buffers.release(buf)
+                }
             } catch (e: EOFException) {
-                listener!!.onClose()
+                if (running) {
+                    listener!!.onClose()
+                }
                 running = false
             } catch (e: IOException) {
-                listener!!.onError(e)
+                // socket has been closed by safeStop(), no error
+                if (running) {
+                    listener!!.onError(e)
+                }
                 running = false
             }
         }
+        buffers.close()
     }
 
     override fun register(listener: DataAvailableListener) {
@@ -51,6 +76,10 @@ class InputListenerThread(`in`: InputStream) : Thread(), InputListener {
 
     override fun safeStop() {
         running = false
+        // interrupting a virtual thread closes the socket it is blocked on
+        if (Thread.currentThread() !== thread) {
+            thread.interrupt()
+        }
     }
 
-}
\ No newline at end of file
+}
@@ -1,6 +1,6 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.client
 
-import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores.PreConfiguration
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.BufferedFrameSender
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSConstants
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSSessionVerificationHelper
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
@@ -11,10 +11,10 @@ import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel
 import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelEndpoint
 import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelListener
 import org.slf4j.LoggerFactory
-import java.io.DataOutputStream
 import java.io.IOException
 import java.net.InetSocketAddress
 import java.net.Socket
+import java.nio.ByteBuffer
 import java.util.concurrent.CompletableFuture
 import javax.net.ssl.*
 
@@ -28,13 +28,16 @@ import javax.net.ssl.*
 class TLSClient<CC: Idscp2Connection>(
         private val connectionFactory: (SecureChannel, Idscp2Settings, DapsDriver) -> CC,
         private val clientSettings: Idscp2Settings,
+        sslContext: SSLContext,
         private val dapsDriver: DapsDriver,
         private val connectionFuture: CompletableFuture<CC>
 ) : HandshakeCompletedListener, DataAvailableListener, SecureChannelEndpoint {
     private val clientSocket: Socket?
-    private var out: DataOutputStream? = null
+    private var sender: BufferedFrameSender? = null
     private var inputListenerThread: InputListenerThread? = null
     private val listenerPromise = CompletableFuture<SecureChannelListener>()
+    @Volatile
+    private var handshakeStart = 0L
 
     /**
      * Connect to TLS server and start TLS Handshake
@@ -46,17 +49,17 @@ class TLSClient<CC: Idscp2Connection>(
         }
         try {
             sslSocket.connect(InetSocketAddress(hostname, port))
+            sslSocket.soTimeout = TLSConstants.TLS_HANDSHAKE_TIMEOUT
             LOG.debug("Client is connected to server {}:{}", hostname, port)
 
-            //set clientSocket timeout to allow safeStop()
-            clientSocket!!.soTimeout = 5000
-            out = DataOutputStream(clientSocket.getOutputStream())
+            sender = BufferedFrameSender(clientSocket!!.getOutputStream(), clientSettings) { e -> onError(e) }
 
             // Add inputListener but start it not before handshake is complete
-            inputListenerThread = InputListenerThread(clientSocket.getInputStream())
+            inputListenerThread = InputListenerThread(clientSocket.getInputStream(), clientSettings.useVirtualThreads)
             inputListenerThread!!.register(this)
             sslSocket.addHandshakeCompletedListener(this)
             LOG.debug("Start TLS Handshake")
+            handshakeStart = System.nanoTime()
             sslSocket.startHandshake()
         } catch (e: SSLHandshakeException) {
             // FIXME: Any such disconnect makes the server maintain a broken connection
@@ -74,7 +77,13 @@ class TLSClient<CC: Idscp2Connection>(
 
     private fun disconnect() {
         LOG.debug("Disconnecting from TLS server...")
-        //close listener
+        // write messages that are still buffered, e.g. the IDSCP2 close message
+        try {
+            sender?.flush()
+        } catch (e: IOException) {
+            LOG.debug("Could not flush buffered messages", e)
+        }
+        //close listener, closing the socket afterwards unblocks its pending read
         if (inputListenerThread != null && inputListenerThread!!.isAlive) {
             inputListenerThread!!.safeStop()
         }
@@ -105,9 +114,7 @@ class TLSClient<CC: Idscp2Connection>(
             false
         } else {
             try {
-                out!!.writeInt(bytes.size)
-                out!!.write(bytes)
-                out!!.flush()
+                sender!!.send(bytes)
                 LOG.debug("Send message")
                 true
             } catch (e: IOException) {
@@ -135,8 +142,10 @@ class TLSClient<CC: Idscp2Connection>(
         try {
             TLSSessionVerificationHelper.verifyTlsSession(handshakeCompletedEvent.session)
             LOG.debug("TLS session is valid")
+            // the handshake is done, reads block without timeout until the socket is closed
+            clientSocket!!.soTimeout = 0
             // Create secure channel, register secure channel as message listener and notify IDSCP2 Configuration.
-            val secureChannel = SecureChannel(this)
+            val secureChannel = SecureChannel(this, System.nanoTime() - handshakeStart)
             // Try to complete, won't do anything if promise has been cancelled
             listenerPromise.complete(secureChannel)
             val connection = connectionFactory(secureChannel, clientSettings, dapsDriver)
@@ -151,6 +160,9 @@ class TLSClient<CC: Idscp2Connection>(
             disconnect()
             connectionFuture.completeExceptionally(
                     Idscp2Exception("TLS session is not valid. Close TLS connection", e))
+        } catch (e: IOException) {
+            disconnect()
+            connectionFuture.completeExceptionally(Idscp2Exception("Cannot reset TLS socket timeout", e))
         }
     }
 
@@ -158,32 +170,25 @@ class TLSClient<CC: Idscp2Connection>(
         listenerPromise.thenAccept { listener: SecureChannelListener -> listener.onMessage(bytes) }
     }
 
+    override fun onMessage(buffer: ByteBuffer) {
+        val listener: SecureChannelListener? = listenerPromise.getNow(null)
+        if (listener != null) {
+            listener.onMessage(buffer)
+        } else {
+            // the buffer is reused by the input listener, copy it for deferred processing
+            val bytes = ByteArray(buffer.remaining())
+            buffer.get(bytes)
+            onMessage(bytes)
+        }
+    }
+
     companion object {
         private val LOG = LoggerFactory.getLogger(TLSClient::class.java)
     }
 
     init {
 
-        // init TLS Client
-
-        // get array of TrustManagers, that contains only one instance of X509ExtendedTrustManager, which enables
-        // hostVerification and algorithm constraints
-        val myTrustManager = PreConfiguration.getX509ExtTrustManager(
-                clientSettings.trustStorePath,
-                clientSettings.trustStorePassword
-        )
-
-        // get array of KeyManagers, that contains only one instance of X509ExtendedKeyManager, which enables
-        // connection specific key selection via key alias
-        val myKeyManager = PreConfiguration.getX509ExtKeyManager(
-                clientSettings.keyPassword,
-                clientSettings.keyStorePath,
-                clientSettings.keyStorePassword,
-                clientSettings.certificateAlias,
-                clientSettings.keyStoreKeyType
-        )
-        val sslContext = SSLContext.getInstance(TLSConstants.TLS_INSTANCE)
-        sslContext.init(myKeyManager, myTrustManager, null)
+        // init TLS Client, the shared SSLContext allows session resumption for reconnects
         val socketFactory = sslContext.socketFactory
 
         // create server socket
@@ -0,0 +1,26 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio
+
+import java.nio.channels.SelectionKey
+
+/**
+ * A handler for a channel that is registered at a NioSelectorLoop. All callbacks are executed
+ * on the selector thread of the loop the channel has been registered at.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+internal interface NioChannelHandler {
+    /*
+     * Called once the channel has been registered at the selector
+     */
+    fun onRegistered(key: SelectionKey)
+
+    /*
+     * Called when the channel is ready for at least one of its interest operations
+     */
+    fun onReady(key: SelectionKey)
+
+    /*
+     * Called when registration or processing of the channel has failed
+     */
+    fun onFailure(t: Throwable)
+}
@@ -0,0 +1,135 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio
+
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.nio.channels.CancelledKeyException
+import java.nio.channels.SelectableChannel
+import java.nio.channels.Selector
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * A single selector thread that multiplexes an arbitrary number of non-blocking channels.
+ *
+ * All operations on the registered channels (registration, interest changes, SSLEngine wrap/unwrap)
+ * are executed on this thread, other threads hand over their work via execute()
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class NioSelectorLoop internal constructor(name: String) : Runnable {
+    private val selector: Selector = Selector.open()
+    private val tasks = ConcurrentLinkedQueue<Runnable>()
+    private val thread = Thread(this, name)
+
+    @Volatile
+    private var running = true
+
+    /*
+     * Check if the current thread is the selector thread of this loop
+     */
+    val inEventLoop: Boolean
+        get() = Thread.currentThread() === thread
+
+    /*
+     * Run the given task on the selector thread
+     */
+    fun execute(task: Runnable) {
+        tasks.add(task)
+        if (!inEventLoop) {
+            selector.wakeup()
+        }
+    }
+
+    /*
+     * Run the given task on the selector thread after the given delay in milliseconds, the shared
+     * IDSCP2 scheduler only hands the task over to this loop
+     */
+    fun schedule(delay: Long, task: Runnable): ScheduledFuture<*> {
+        return Idscp2Executors.scheduler.schedule(Runnable { execute(task) }, delay, TimeUnit.MILLISECONDS)
+    }
+
+    /*
+     * Register a channel at the selector of this loop, the handler is notified via onRegistered()
+     */
+    internal fun register(channel: SelectableChannel, ops: Int, handler: NioChannelHandler) {
+        execute(Runnable {
+            try {
+                handler.onRegistered(channel.register(selector, ops, handler))
+            } catch (e: IOException) {
+                handler.onFailure(e)
+            }
+        })
+    }
+
+    override fun run() {
+        while (running) {
+            try {
+                // do not block in select() if there are pending tasks
+                if (tasks.isEmpty()) {
+                    selector.select()
+                } else {
+                    selector.selectNow()
+                }
+                val selectedKeys = selector.selectedKeys().iterator()
+                while (selectedKeys.hasNext()) {
+                    val key = selectedKeys.next()
+                    selectedKeys.remove()
+                    val handler = key.attachment() as NioChannelHandler
+                    try {
+                        if (key.isValid) {
+                            handler.onReady(key)
+                        }
+                    } catch (ignore: CancelledKeyException) {
+                        // channel has been closed concurrently
+                    } catch (e: Exception) {
+                        handler.onFailure(e)
+                    }
+                }
+                runTasks()
+            } catch (e: IOException) {
+                LOG.error("Error in selector loop", e)
+            }
+        }
+        for (key in selector.keys()) {
+            try {
+                key.channel().close()
+            } catch (ignore: IOException) {
+            }
+        }
+        try {
+            selector.close()
+        } catch (e: IOException) {
+            LOG.warn("Could not close selector", e)
+        }
+    }
+
+    private fun runTasks() {
+        while (true) {
+            val task = tasks.poll() ?: break
+            try {
+                task.run()
+            } catch (e: Exception) {
+                LOG.error("Error in selector task", e)
+            }
+        }
+    }
+
+    /*
+     * Stop the selector thread and close all channels that are still registered
+     */
+    fun shutdown() {
+        running = false
+        selector.wakeup()
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(NioSelectorLoop::class.java)
+    }
+
+    init {
+        thread.isDaemon = true
+        thread.start()
+    }
+}
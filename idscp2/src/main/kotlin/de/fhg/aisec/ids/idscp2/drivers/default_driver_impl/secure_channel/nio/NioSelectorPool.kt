@@ -0,0 +1,41 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A fixed set of selector threads, new channels are distributed round-robin among them
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class NioSelectorPool(size: Int, name: String) {
+    private val loops: Array<NioSelectorLoop>
+    private val nextLoop = AtomicInteger()
+
+    /*
+     * Get the selector loop a new channel should be assigned to
+     */
+    fun next(): NioSelectorLoop {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.size)]
+    }
+
+    /*
+     * Stop all selector threads of this pool
+     */
+    fun shutdown() {
+        loops.forEach { it.shutdown() }
+    }
+
+    companion object {
+        /*
+         * Process-wide default pool with one selector thread per available processor
+         */
+        val DEFAULT: NioSelectorPool by lazy {
+            NioSelectorPool(Runtime.getRuntime().availableProcessors(), "IDSCP2 NIO Selector")
+        }
+    }
+
+    init {
+        require(size > 0) { "Selector pool size must be positive" }
+        loops = Array(size) { NioSelectorLoop("$name-$it") }
+    }
+}
@@ -0,0 +1,547 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio
+
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSConstants
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSSessionVerificationHelper
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelEndpoint
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelListener
+import org.slf4j.LoggerFactory
+import java.io.EOFException
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
+import java.nio.channels.SelectionKey
+import java.nio.channels.SocketChannel
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import javax.net.ssl.SSLEngine
+import javax.net.ssl.SSLEngineResult.HandshakeStatus
+import javax.net.ssl.SSLEngineResult.Status
+import javax.net.ssl.SSLException
+import javax.net.ssl.SSLPeerUnverifiedException
+
+/**
+ * A non-blocking TLS channel endpoint on top of an SSLEngine. The channel frames IDSCP2 messages
+ * exactly like the blocking TLS driver (4 byte length prefix followed by the message) and is
+ * driven completely by the selector thread of its NioSelectorLoop. The handshake listener, which
+ * creates the IDSCP2 connection, runs on the IDSCP2 worker pool, such that slow listeners (e.g. DAPS
+ * requests) do not block the other channels of the loop.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+internal class NioTLSChannel(
+        private val loop: NioSelectorLoop,
+        private val socketChannel: SocketChannel,
+        private val engine: SSLEngine,
+        private val handshakeListener: HandshakeListener
+) : NioChannelHandler, SecureChannelEndpoint {
+    private val channelListenerPromise = CompletableFuture<SecureChannelListener>()
+    private val outbound = ConcurrentLinkedQueue<ByteBuffer>()
+    private val flushScheduled = AtomicBoolean(false)
+
+    // bytes of the frames in the outbound queue, the channel is not writable above MAX_OUTBOUND_BYTES
+    private val outboundBytes = AtomicLong()
+    @Volatile
+    private var writabilityCallback: Runnable? = null
+    private var key: SelectionKey? = null
+    private var connecting = false
+    private var unwrapping = false
+
+    // delegated tasks of the SSLEngine are running on the worker pool, the handshake is suspended
+    private var runningTasks = false
+    private var handshakeDone = false
+    private var handshakeStart = 0L
+    private var handshakeTimeout: ScheduledFuture<*>? = null
+
+    // buffers are in write mode, except netOut, which holds pending encrypted data in read mode
+    private var netIn = ByteBuffer.allocate(engine.session.packetBufferSize)
+    private var appIn = ByteBuffer.allocate(engine.session.applicationBufferSize)
+    private var netOut = ByteBuffer.allocate(engine.session.packetBufferSize)
+
+    @Volatile
+    private var closed = false
+
+    // close has been requested, close_notify is sent once all queued frames have been written
+    private var closing = false
+
+    /**
+     * Listener for the result of the TLS handshake and the TLS session verification,
+     * called on the IDSCP2 worker pool
+     */
+    interface HandshakeListener {
+        fun onHandshakeCompleted(secureChannel: SecureChannel)
+        fun onHandshakeFailed(t: Throwable)
+    }
+
+    /*
+     * Connect a client channel to the given address, the TLS handshake starts when connected
+     */
+    internal fun connect(address: InetSocketAddress) {
+        connecting = !socketChannel.connect(address)
+        loop.register(socketChannel, if (connecting) SelectionKey.OP_CONNECT else SelectionKey.OP_READ, this)
+    }
+
+    /*
+     * Start the TLS handshake on an already connected (accepted) channel
+     */
+    internal fun start() {
+        loop.register(socketChannel, SelectionKey.OP_READ, this)
+    }
+
+    override fun onRegistered(key: SelectionKey) {
+        this.key = key
+        // the deadline covers the TCP connect, the TLS handshake and the TLS session verification
+        handshakeTimeout = loop.schedule(TLSConstants.TLS_HANDSHAKE_TIMEOUT.toLong(), Runnable {
+            if (!handshakeDone && !closed) {
+                onFailure(SocketTimeoutException("TLS handshake timed out"))
+            }
+        })
+        if (!connecting) {
+            beginHandshake()
+        }
+    }
+
+    override fun onReady(key: SelectionKey) {
+        if (key.isConnectable) {
+            if (socketChannel.finishConnect()) {
+                connecting = false
+                key.interestOps(SelectionKey.OP_READ)
+                beginHandshake()
+            }
+            return
+        }
+        if (key.isReadable) {
+            read()
+        }
+        if (key.isValid && key.isWritable) {
+            flush()
+        }
+    }
+
+    override fun onFailure(t: Throwable) {
+        if (closed) {
+            return
+        }
+        closeNow()
+        if (handshakeDone) {
+            channelListenerPromise.thenAccept { listener: SecureChannelListener -> listener.onError(t) }
+        } else {
+            notifyHandshakeFailed(t)
+        }
+    }
+
+    private fun beginHandshake() {
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Start TLS Handshake")
+        }
+        handshakeStart = System.nanoTime()
+        engine.beginHandshake()
+        flush()
+    }
+
+    private fun read() {
+        val read = socketChannel.read(netIn)
+        if (read < 0) {
+            onEof()
+            return
+        }
+        unwrap()
+    }
+
+    private fun unwrap() {
+        if (unwrapping || runningTasks) {
+            return
+        }
+        unwrapping = true
+        netIn.flip()
+        try {
+            while (netIn.hasRemaining() && !closed) {
+                val result = engine.unwrap(netIn, appIn)
+                when (result.status) {
+                    Status.BUFFER_OVERFLOW -> {
+                        // make room for decrypted data, deliver complete frames first
+                        if (handshakeDone) {
+                            deliverFrames()
+                        }
+                        appIn = ensureRemaining(appIn, engine.session.applicationBufferSize)
+                        continue
+                    }
+                    Status.BUFFER_UNDERFLOW -> break
+                    Status.CLOSED -> {
+                        onEof()
+                        return
+                    }
+                    else -> {
+                    }
+                }
+                handleHandshakeStatus(result.handshakeStatus)
+                if (runningTasks) {
+                    // continued by the delegated tasks
+                    break
+                }
+                if (netOut.hasRemaining()) {
+                    // socket would block, continue when flushed
+                    break
+                }
+                if (result.bytesConsumed() == 0 && result.bytesProduced() == 0
+                        && result.handshakeStatus != HandshakeStatus.NEED_WRAP
+                        && result.handshakeStatus != HandshakeStatus.NEED_TASK) {
+                    break
+                }
+            }
+        } finally {
+            netIn.compact()
+            unwrapping = false
+        }
+        if (!netIn.hasRemaining()) {
+            // a single TLS record did not fit into the buffer
+            netIn = ensureRemaining(netIn, engine.session.packetBufferSize)
+        }
+        if (handshakeDone) {
+            deliverFrames()
+        }
+    }
+
+    private fun handleHandshakeStatus(handshakeStatus: HandshakeStatus) {
+        when (handshakeStatus) {
+            HandshakeStatus.FINISHED -> onHandshakeFinished()
+            HandshakeStatus.NEED_TASK -> runDelegatedTasks()
+            HandshakeStatus.NEED_WRAP -> flush()
+            else -> {
+            }
+        }
+    }
+
+    /*
+     * Run the delegated tasks (e.g. certificate validation) on the worker pool, such that the other
+     * channels of the selector thread are not blocked, and continue the handshake on the loop afterwards
+     */
+    private fun runDelegatedTasks() {
+        if (runningTasks) {
+            return
+        }
+        val tasks = generateSequence { engine.delegatedTask }.toList()
+        runningTasks = true
+        Idscp2Executors.worker.execute {
+            try {
+                tasks.forEach { it.run() }
+                loop.execute(Runnable {
+                    runningTasks = false
+                    try {
+                        flush()
+                        if (!closed && netIn.position() > 0) {
+                            unwrap()
+                        }
+                    } catch (e: Exception) {
+                        onFailure(e)
+                    }
+                })
+            } catch (e: Exception) {
+                loop.execute(Runnable { onFailure(e) })
+            }
+        }
+    }
+
+    /*
+     * Wrap and write handshake data and queued frames until the socket would block
+     */
+    private fun flush() {
+        if (closed) {
+            return
+        }
+        while (true) {
+            if (netOut.hasRemaining()) {
+                socketChannel.write(netOut)
+                if (netOut.hasRemaining()) {
+                    setWriteInterest(true)
+                    return
+                }
+            }
+            if (runningTasks) {
+                break
+            }
+            val source = if (handshakeDone) outbound.peek() else null
+            if (source == null && engine.handshakeStatus != HandshakeStatus.NEED_WRAP) {
+                break
+            }
+            netOut.clear()
+            val result = try {
+                engine.wrap(source ?: EMPTY_BUFFER, netOut)
+            } finally {
+                netOut.flip()
+            }
+            when (result.status) {
+                Status.BUFFER_OVERFLOW -> {
+                    netOut = ByteBuffer.allocate(engine.session.packetBufferSize)
+                    netOut.flip()
+                    continue
+                }
+                Status.CLOSED -> {
+                    if (netOut.hasRemaining()) {
+                        socketChannel.write(netOut)
+                    }
+                    closeNow()
+                    return
+                }
+                else -> {
+                }
+            }
+            if (source != null && !source.hasRemaining()) {
+                outbound.poll()
+                onFrameWritten(source)
+            }
+            when (result.handshakeStatus) {
+                HandshakeStatus.NEED_TASK -> runDelegatedTasks()
+                HandshakeStatus.FINISHED -> onHandshakeFinished()
+                else -> {
+                }
+            }
+        }
+        setWriteInterest(false)
+        if (closing) {
+            sendCloseNotify()
+            return
+        }
+        if (engine.handshakeStatus == HandshakeStatus.NEED_UNWRAP && netIn.position() > 0) {
+            // handshake data might already be buffered
+            unwrap()
+        }
+    }
+
+    /*
+     * Notify the upper layer when the outbound queue has been drained below MAX_OUTBOUND_BYTES
+     */
+    private fun onFrameWritten(frame: ByteBuffer) {
+        val size = frame.capacity().toLong()
+        val remaining = outboundBytes.addAndGet(-size)
+        if (remaining <= MAX_OUTBOUND_BYTES && remaining + size > MAX_OUTBOUND_BYTES) {
+            writabilityCallback?.run()
+        }
+    }
+
+    private fun setWriteInterest(enabled: Boolean) {
+        val selectionKey = key ?: return
+        if (!selectionKey.isValid) {
+            return
+        }
+        val ops = selectionKey.interestOps()
+        val newOps = if (enabled) ops or SelectionKey.OP_WRITE else ops and SelectionKey.OP_WRITE.inv()
+        if (ops != newOps) {
+            selectionKey.interestOps(newOps)
+        }
+    }
+
+    private fun onHandshakeFinished() {
+        if (handshakeDone) {
+            return
+        }
+        if (LOG.isDebugEnabled) {
+            LOG.debug("TLS Handshake was successful")
+        }
+
+        // verify tls session on application layer: hostname verification, certificate validity
+        try {
+            TLSSessionVerificationHelper.verifyTlsSession(engine.session)
+            LOG.debug("TLS session is valid")
+        } catch (e: SSLPeerUnverifiedException) {
+            if (LOG.isWarnEnabled) {
+                LOG.warn("TLS session is not valid. Close TLS connection", e)
+            }
+            closeNow()
+            notifyHandshakeFailed(e)
+            return
+        }
+        handshakeDone = true
+        handshakeTimeout?.cancel(false)
+
+        //provide secure channel to IDSCP2 and register secure channel as listener, frames received in
+        // the meantime are buffered by the secure channel until the connection has been created
+        val secureChannel = SecureChannel(this, System.nanoTime() - handshakeStart)
+        channelListenerPromise.complete(secureChannel)
+        Idscp2Executors.worker.execute { handshakeListener.onHandshakeCompleted(secureChannel) }
+    }
+
+    private fun notifyHandshakeFailed(t: Throwable) {
+        Idscp2Executors.worker.execute { handshakeListener.onHandshakeFailed(t) }
+    }
+
+    /*
+     * Extract all complete length-prefixed frames from the decrypted application data
+     */
+    private fun deliverFrames() {
+        appIn.flip()
+        var requiredCapacity = 0
+        try {
+            while (appIn.remaining() >= 4) {
+                val length = appIn.getInt(appIn.position())
+                if (length < 0 || length > TLSConstants.MAX_FRAME_SIZE) {
+                    // close before the application buffer is enlarged to the announced length
+                    throw IOException("Received frame with invalid length $length")
+                }
+                if (appIn.remaining() - 4 < length) {
+                    requiredCapacity = length + 4
+                    break
+                }
+                // deliver a view on the frame, which is only valid until the listener returns
+                val frameStart = appIn.position() + 4
+                appIn.position(frameStart)
+                val frame = appIn.slice()
+                frame.limit(length)
+                appIn.position(frameStart + length)
+                onMessage(frame)
+            }
+        } finally {
+            appIn.compact()
+        }
+        if (requiredCapacity > appIn.capacity()) {
+            appIn = ensureRemaining(appIn, requiredCapacity - appIn.position())
+        }
+    }
+
+    private fun onEof() {
+        try {
+            engine.closeInbound()
+        } catch (ignore: SSLException) {
+            // peer did not send close_notify
+        }
+        val wasHandshakeDone = handshakeDone
+        closeNow()
+        if (wasHandshakeDone) {
+            channelListenerPromise.thenAccept { obj: SecureChannelListener -> obj.onClose() }
+        } else {
+            notifyHandshakeFailed(EOFException("Connection closed during TLS handshake"))
+        }
+    }
+
+    private fun closeNow() {
+        closed = true
+        handshakeTimeout?.cancel(false)
+        key?.cancel()
+        try {
+            socketChannel.close()
+        } catch (ignore: IOException) {
+        }
+    }
+
+    /*
+     * Write all queued frames and pending TLS records before close_notify is sent. If the socket does
+     * not accept the remaining data within CLOSE_TIMEOUT, the channel is closed without close_notify.
+     */
+    private fun closeGracefully() {
+        if (closed || closing) {
+            return
+        }
+        if (!handshakeDone) {
+            // queued frames cannot be sent before the handshake has completed
+            sendCloseNotify()
+            return
+        }
+        closing = true
+        loop.schedule(CLOSE_TIMEOUT, Runnable {
+            if (!closed) {
+                LOG.warn("Pending data could not be sent within {} ms, close TLS connection", CLOSE_TIMEOUT)
+                closeNow()
+            }
+        })
+        try {
+            // sends close_notify as soon as outbound and netOut have been drained
+            flush()
+        } catch (e: IOException) {
+            closeNow()
+        }
+    }
+
+    private fun sendCloseNotify() {
+        engine.closeOutbound()
+        try {
+            // try to send close_notify, but do not wait for the socket
+            netOut.clear()
+            engine.wrap(EMPTY_BUFFER, netOut)
+            netOut.flip()
+            socketChannel.write(netOut)
+        } catch (ignore: IOException) {
+        }
+        closeNow()
+    }
+
+    override fun close() {
+        loop.execute(Runnable { closeGracefully() })
+    }
+
+    override fun onMessage(bytes: ByteArray) {
+        channelListenerPromise.thenAccept { listener: SecureChannelListener -> listener.onMessage(bytes) }
+    }
+
+    private fun onMessage(buffer: ByteBuffer) {
+        val listener: SecureChannelListener? = channelListenerPromise.getNow(null)
+        if (listener != null) {
+            listener.onMessage(buffer)
+        } else {
+            // the application buffer is reused, copy the frame for deferred processing
+            val bytes = ByteArray(buffer.remaining())
+            buffer.get(bytes)
+            onMessage(bytes)
+        }
+    }
+
+    override fun send(bytes: ByteArray): Boolean {
+        if (!isConnected) {
+            LOG.error("Cannot send data because channel is not connected")
+            return false
+        }
+        val frame = ByteBuffer.allocate(bytes.size + 4)
+        frame.putInt(bytes.size)
+        frame.put(bytes)
+        frame.flip()
+        // the frame is accepted in any case, senders that respect isWritable keep the queue bounded
+        outboundBytes.addAndGet(frame.capacity().toLong())
+        outbound.add(frame)
+        if (flushScheduled.compareAndSet(false, true)) {
+            loop.execute(Runnable {
+                flushScheduled.set(false)
+                try {
+                    flush()
+                } catch (e: IOException) {
+                    onFailure(e)
+                }
+            })
+        }
+        return true
+    }
+
+    override val isWritable: Boolean
+        get() = closed || outboundBytes.get() <= MAX_OUTBOUND_BYTES
+
+    override fun setWritabilityCallback(callback: Runnable) {
+        writabilityCallback = callback
+    }
+
+    override val isConnected: Boolean
+        get() = !closed && socketChannel.isConnected
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(NioTLSChannel::class.java)
+        private val EMPTY_BUFFER = ByteBuffer.allocate(0)
+        private const val MAX_OUTBOUND_BYTES = 1024 * 1024L
+        private const val CLOSE_TIMEOUT = 5000L
+
+        private fun ensureRemaining(buffer: ByteBuffer, remaining: Int): ByteBuffer {
+            if (buffer.remaining() >= remaining) {
+                return buffer
+            }
+            val enlarged = ByteBuffer.allocate(buffer.position() + remaining)
+            buffer.flip()
+            enlarged.put(buffer)
+            return enlarged
+        }
+    }
+
+    init {
+        netOut.flip()
+    }
+}
@@ -0,0 +1,118 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.nio
+
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSConstants
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureServer
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.SecureChannelInitListener
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel
+import de.fhg.aisec.ids.idscp2.idscp_core.server.ServerConnectionListener
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.net.InetSocketAddress
+import java.net.StandardSocketOptions
+import java.nio.channels.SelectionKey
+import java.nio.channels.ServerSocketChannel
+import java.nio.channels.SocketChannel
+import java.util.concurrent.CompletableFuture
+import javax.net.ssl.SSLContext
+
+/**
+ * A non-blocking TLS Server that accepts connections on a selector thread and distributes
+ * the accepted channels among the selector threads of the NioSelectorPool
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+internal class NioTLSServer<CC : Idscp2Connection>(
+        serverSettings: Idscp2Settings,
+        private val sslContext: SSLContext,
+        private val selectorPool: NioSelectorPool,
+        private val secureChannelInitListener: SecureChannelInitListener<CC>,
+        private val serverListenerPromise: CompletableFuture<ServerConnectionListener<CC>>
+) : NioChannelHandler, SecureServer {
+    @Volatile
+    override var isRunning = false
+        private set
+    private val serverChannel: ServerSocketChannel = ServerSocketChannel.open()
+    private val acceptLoop = selectorPool.next()
+
+    override fun onRegistered(key: SelectionKey) {
+        LOG.debug("NIO TLS server started, accepting connections...")
+    }
+
+    override fun onReady(key: SelectionKey) {
+        if (!key.isAcceptable) {
+            return
+        }
+        while (true) {
+            val socketChannel = serverChannel.accept() ?: break
+            try {
+                LOG.debug("New TLS client has connected. Creating new NIO TLS channel...")
+                accept(socketChannel)
+            } catch (e: Exception) {
+                LOG.error("Error whilst creating NIO TLS channel", e)
+                try {
+                    socketChannel.close()
+                } catch (ignore: IOException) {
+                }
+            }
+        }
+    }
+
+    private fun accept(socketChannel: SocketChannel) {
+        socketChannel.configureBlocking(false)
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true)
+        val remoteAddress = socketChannel.remoteAddress as InetSocketAddress
+        val engine = sslContext.createSSLEngine(remoteAddress.address.hostAddress, remoteAddress.port)
+        engine.useClientMode = false
+
+        // Set TLS constraints
+        val sslParameters = engine.sslParameters
+        sslParameters.useCipherSuitesOrder = true //server determines priority-order of algorithms in CipherSuite
+        sslParameters.needClientAuth = true //client must authenticate
+        sslParameters.protocols = TLSConstants.TLS_ENABLED_PROTOCOLS //only TLSv1.3
+        sslParameters.cipherSuites = TLSConstants.TLS_ENABLED_CIPHERS //only allow strong cipher suite
+        engine.sslParameters = sslParameters
+
+        val channel = NioTLSChannel(selectorPool.next(), socketChannel, engine,
+                object : NioTLSChannel.HandshakeListener {
+                    override fun onHandshakeCompleted(secureChannel: SecureChannel) {
+                        secureChannelInitListener.onSecureChannel(secureChannel, serverListenerPromise)
+                    }
+
+                    override fun onHandshakeFailed(t: Throwable) {
+                        LOG.warn("TLS handshake with {} failed", remoteAddress, t)
+                    }
+                })
+        channel.start()
+    }
+
+    override fun onFailure(t: Throwable) {
+        LOG.error("Error during NIO TLS server accept, notifying error handlers...")
+        secureChannelInitListener.onError(t)
+        safeStop()
+    }
+
+    override fun safeStop() {
+        LOG.debug("Stopping NIO tls server")
+        isRunning = false
+        acceptLoop.execute(Runnable {
+            try {
+                serverChannel.close()
+            } catch (e: IOException) {
+                LOG.warn("Could not close NIO TLS server channel", e)
+            }
+        })
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(NioTLSServer::class.java)
+    }
+
+    init {
+        serverChannel.configureBlocking(false)
+        serverChannel.bind(InetSocketAddress(serverSettings.serverPort))
+        isRunning = true
+        acceptLoop.register(serverChannel, SelectionKey.OP_ACCEPT, this)
+    }
+}
@@ -1,6 +1,6 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.server
 
-import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.keystores.PreConfiguration
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.SecureChannelThreads
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSConstants
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.SecureServer
 import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection
@@ -11,7 +11,6 @@ import org.slf4j.LoggerFactory
 import java.io.IOException
 import java.net.ServerSocket
 import java.net.SocketException
-import java.net.SocketTimeoutException
 import java.util.concurrent.CompletableFuture
 import javax.net.ssl.SSLContext
 import javax.net.ssl.SSLServerSocket
@@ -23,7 +22,8 @@ import javax.net.ssl.SSLSocket
  *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
-class TLSServer<CC: Idscp2Connection>(serverSettings: Idscp2Settings,
+class TLSServer<CC: Idscp2Connection>(private val serverSettings: Idscp2Settings,
+                sslContext: SSLContext,
                 private val secureChannelInitListener: SecureChannelInitListener<CC>,
                 private val serverListenerPromise: CompletableFuture<ServerConnectionListener<CC>>):
         Runnable, SecureServer {
@@ -45,17 +45,13 @@ class TLSServer<CC: Idscp2Connection>(serverSettings: Idscp2Settings,
                 try {
                     // Start new server thread
                     LOG.debug("New TLS client has connected. Creating new server thread...")
-                    val serverThread = TLSServerThread<CC>(sslSocket, secureChannelInitListener, serverListenerPromise)
+                    val serverThread = TLSServerThread<CC>(sslSocket, serverSettings,
+                            secureChannelInitListener, serverListenerPromise)
                     sslSocket.addHandshakeCompletedListener(serverThread)
-                    serverThread.start()
+                    serverThread.start(serverSettings.useVirtualThreads)
                 } catch (serverThreadException: Exception) {
                     LOG.error("Error whilst creating/starting TLSServerThread", serverThreadException)
                 }
-            } catch (e: SocketTimeoutException) {
-                //timeout on serverSocket blocking functions was reached
-                //in this way we can catch safeStop() function, that makes isRunning false
-                //without closing the serverSocket, so we can stop and restart the server
-                //alternative: close serverSocket. But then we cannot reuse it
             } catch (e: SocketException) {
                 LOG.debug("Server socket has been closed.")
                 isRunning = false
@@ -77,11 +73,13 @@ class TLSServer<CC: Idscp2Connection>(serverSettings: Idscp2Settings,
     override fun safeStop() {
         LOG.debug("Stopping tls server")
         isRunning = false
-        //        try {
-//            serverSocket.close();
-//        } catch (IOException e) {
-//            LOG.warn("Trying to close server socket failed!", e);
-//        }
+        // closing the server socket unblocks accept(), interrupting a virtual thread has the same effect
+        try {
+            serverSocket.close()
+        } catch (e: IOException) {
+            LOG.warn("Trying to close server socket failed!", e)
+        }
+        serverThread.interrupt()
         try {
             serverThread.join()
         } catch (e: InterruptedException) {
@@ -98,32 +96,10 @@ class TLSServer<CC: Idscp2Connection>(serverSettings: Idscp2Settings,
 
         /* init server for TCP/TLS communication */
 
-        // Get array of TrustManagers, that contains only one instance of X509ExtendedTrustManager,
-        // which enables host verification and algorithm constraints
-        LOG.debug("Creating trust manager for TLS server...")
-        val myTrustManager = PreConfiguration.getX509ExtTrustManager(
-                serverSettings.trustStorePath,
-                serverSettings.trustStorePassword
-        )
-
-        // Get array of KeyManagers, that contains only one instance of X509ExtendedKeyManager,
-        // which enables connection specific key selection via key alias
-        LOG.debug("Creating key manager for TLS server...")
-        val myKeyManager = PreConfiguration.getX509ExtKeyManager(
-                serverSettings.keyPassword,
-                serverSettings.keyStorePath,
-                serverSettings.keyStorePassword,
-                serverSettings.certificateAlias,
-                serverSettings.keyStoreKeyType
-        )
         LOG.debug("Setting TLS security attributes and creating TLS server socket...")
-        // Create TLS context based on keyManager and trustManager
-        val sslContext = SSLContext.getInstance(TLSConstants.TLS_INSTANCE)
-        sslContext.init(myKeyManager, myTrustManager, null)
+        // The shared TLS context holds the server session cache used for session resumption
         val socketFactory = sslContext.serverSocketFactory
         serverSocket = socketFactory.createServerSocket(serverSettings.serverPort)
-        // Set timeout for serverSocket.accept()
-        serverSocket.soTimeout = 5000
         val sslServerSocket = serverSocket as SSLServerSocket
 
         // Set TLS constraints
@@ -134,8 +110,8 @@ class TLSServer<CC: Idscp2Connection>(serverSettings: Idscp2Settings,
         sslParameters.cipherSuites = TLSConstants.TLS_ENABLED_CIPHERS //only allow strong cipher suite
         sslServerSocket.sslParameters = sslParameters
         LOG.debug("Starting TLS server...")
-        serverThread = Thread(this, "TLS Server Thread "
-                + serverSettings.host + ":" + serverSettings.serverPort)
+        serverThread = SecureChannelThreads.newThread(this, "TLS Server Thread "
+                + serverSettings.host + ":" + serverSettings.serverPort, serverSettings.useVirtualThreads)
         serverThread.start()
     }
 }
\ No newline at end of file
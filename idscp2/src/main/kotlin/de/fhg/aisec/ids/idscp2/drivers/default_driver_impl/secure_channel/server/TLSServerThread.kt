@@ -1,8 +1,13 @@
 package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.server
 
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.BufferedFrameSender
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.ReceiveBufferPool
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.SecureChannelThreads
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSConstants
 import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.TLSSessionVerificationHelper
 import de.fhg.aisec.ids.idscp2.idscp_core.FastLatch
 import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection
+import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings
 import de.fhg.aisec.ids.idscp2.idscp_core.configuration.SecureChannelInitListener
 import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel
 import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelEndpoint
@@ -10,7 +15,7 @@ import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelListener
 import de.fhg.aisec.ids.idscp2.idscp_core.server.ServerConnectionListener
 import org.slf4j.LoggerFactory
 import java.io.*
-import java.net.SocketTimeoutException
+import java.nio.ByteBuffer
 import java.util.concurrent.CompletableFuture
 import javax.net.ssl.HandshakeCompletedEvent
 import javax.net.ssl.HandshakeCompletedListener
@@ -28,24 +33,33 @@ import javax.net.ssl.SSLSocket
  */
 class TLSServerThread<CC : Idscp2Connection> internal constructor(
         private val sslSocket: SSLSocket,
+        settings: Idscp2Settings,
         private val configCallback: SecureChannelInitListener<CC>,
         private val serverListenerPromise: CompletableFuture<ServerConnectionListener<CC>>) :
-        Thread(), HandshakeCompletedListener, SecureChannelEndpoint, Closeable
+        Runnable, HandshakeCompletedListener, SecureChannelEndpoint, Closeable
 {
     @Volatile
     private var running = true
+    @Volatile
+    private var thread: Thread? = null
     private val `in`: DataInputStream
-    private val out: DataOutputStream
+    private val sender: BufferedFrameSender
     private val channelListenerPromise = CompletableFuture<SecureChannelListener>()
     private val tlsVerificationLatch = FastLatch()
+    private val buffers = ReceiveBufferPool.DEFAULT.connectionBuffers()
+    @Volatile
+    private var handshakeStart = 0L
     override fun run() {
         // first run the tls handshake to enforce catching every error occurred during the handshake
         // before reading from buffer. Else if there exists any non-catched exception during handshake
         // the thread would wait forever in onError() until handshakeCompleteListener is called
         try {
+            handshakeStart = System.nanoTime()
             sslSocket.startHandshake()
             // Wait for TLS session verification
             tlsVerificationLatch.await()
+            // the handshake is done, reads block without timeout until the socket is closed
+            sslSocket.soTimeout = 0
         } catch (e: Exception) {
             LOG.error("Exception occurred during SSL handshake. Quiting server thread...", e)
             onError(e)
@@ -53,29 +67,40 @@ class TLSServerThread<CC : Idscp2Connection> internal constructor(
         }
 
         //wait for new data while running
-        var buf: ByteArray
         while (running) {
             try {
                 val len = `in`.readInt()
-                buf = ByteArray(len)
-                `in`.readFully(buf, 0, len)
-                onMessage(buf)
-            } catch (ignore: SocketTimeoutException) {
-                // Timeout catches safeStop() call and allows to send server_goodbye
+                if (len < 0 || len > TLSConstants.MAX_FRAME_SIZE) {
+                    // close before a buffer of the announced length is allocated
+                    throw IOException("Received frame with invalid length $len")
+                }
+                // read into a pooled buffer, which is reused after the listener returned
+                val buf = buffers.acquire(len)
+                try {
+                    `in`.readFully(buf, 0, len)
+                    onMessage(ByteBuffer.wrap(buf, 0, len))
+                } finally {
+                    buffers.release(buf)
+                }
             } catch (e: EOFException) {
-                onClose()
+                if (running) {
+                    onClose()
+                }
                 running = false
             } catch (e: IOException) {
-                onError(e)
+                // socket has been closed by safeStop(), no error
+                if (running) {
+                    onError(e)
+                }
                 running = false
             }
         }
+        buffers.close()
         closeSockets()
     }
 
     private fun closeSockets() {
         try {
-            out.close()
             `in`.close()
             sslSocket.close()
         } catch (ignore: IOException) {
@@ -89,9 +114,7 @@ class TLSServerThread<CC : Idscp2Connection> internal constructor(
             false
         } else {
             try {
-                out.writeInt(bytes.size)
-                out.write(bytes)
-                out.flush()
+                sender.send(bytes)
                 true
             } catch (e: IOException) {
                 LOG.error("Server could not send data", e)
@@ -117,8 +140,42 @@ class TLSServerThread<CC : Idscp2Connection> internal constructor(
         channelListenerPromise.thenAccept { listener: SecureChannelListener -> listener.onMessage(bytes) }
     }
 
+    private fun onMessage(buffer: ByteBuffer) {
+        val listener: SecureChannelListener? = channelListenerPromise.getNow(null)
+        if (listener != null) {
+            listener.onMessage(buffer)
+        } else {
+            // the buffer is reused by the reader, copy it for deferred processing
+            val bytes = ByteArray(buffer.remaining())
+            buffer.get(bytes)
+            onMessage(bytes)
+        }
+    }
+
+    /*
+     * Start the server thread, optionally as virtual thread
+     */
+    fun start(useVirtualThreads: Boolean) {
+        val serverThread = SecureChannelThreads.newThread(this, "TLS Server Thread "
+                + sslSocket.inetAddress.hostAddress + ":" + sslSocket.port, useVirtualThreads)
+        thread = serverThread
+        serverThread.start()
+    }
+
     private fun safeStop() {
         running = false
+        // write messages that are still buffered, e.g. the IDSCP2 close message
+        try {
+            sender.flush()
+        } catch (e: IOException) {
+            LOG.debug("Could not flush buffered messages", e)
+        }
+        // closing the socket unblocks the pending read, interrupting a virtual thread has the same effect
+        val serverThread = thread
+        if (serverThread != null && Thread.currentThread() !== serverThread) {
+            serverThread.interrupt()
+        }
+        closeSockets()
     }
 
     override val isConnected: Boolean
@@ -144,7 +201,7 @@ class TLSServerThread<CC : Idscp2Connection> internal constructor(
         }
 
         //provide secure channel to IDSCP2 Config and register secure channel as listener
-        val secureChannel = SecureChannel(this)
+        val secureChannel = SecureChannel(this, System.nanoTime() - handshakeStart)
         channelListenerPromise.complete(secureChannel)
         configCallback.onSecureChannel(secureChannel, serverListenerPromise)
     }
@@ -154,9 +211,11 @@ class TLSServerThread<CC : Idscp2Connection> internal constructor(
     }
 
     init {
-        // Set timeout for blocking read
-        sslSocket.soTimeout = 5000
+        sslSocket.soTimeout = TLSConstants.TLS_HANDSHAKE_TIMEOUT
         `in` = DataInputStream(sslSocket.inputStream)
-        out = DataOutputStream(sslSocket.outputStream)
+        sender = BufferedFrameSender(sslSocket.outputStream, settings) { e ->
+            LOG.error("Server could not send data", e)
+            closeSockets()
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,96 @@
+package de.fhg.aisec.ids.idscp2.drivers.interfaces
+
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
+import de.fhg.aisec.ids.idscp2.idscp_core.SerialExecutor
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
+/**
+ * The common base of RatProverDriver and RatVerifierDriver
+ *
+ * RAT drivers do not own a thread. All work of a driver runs as tasks on the shared, bounded
+ * RAT pool (Idscp2Executors.rat) and the tasks of one driver are executed one after another, hence
+ * driver implementations do not need to synchronize their state.
+ *
+ * start() and delegate() are called by the fsm while it holds its lock, so they must neither block
+ * nor call the RatListener directly. Instead, they submit tasks via execute() or schedule(), which
+ * may block (e.g. for I/O) and report their results to the RatListener.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+abstract class RatDriver {
+    private val executor = SerialExecutor(Idscp2Executors.rat)
+    private val scheduledTasks = ConcurrentLinkedQueue<Future<*>>()
+
+    /*
+     * False after the driver has been terminated, tasks are not executed anymore then
+     */
+    @Volatile
+    protected var running = true
+        private set
+
+    /*
+     * Start the driver, called once by the driver registry
+     */
+    abstract fun start()
+
+    /*
+     * Delegate an IDSCP2 message from the peer driver to this driver
+     */
+    open fun delegate(message: ByteArray) {}
+
+    /*
+     * Terminate and cancel the driver, pending tasks are dropped
+     */
+    fun terminate() {
+        running = false
+        scheduledTasks.forEach { it.cancel(false) }
+        scheduledTasks.clear()
+        onTerminate()
+    }
+
+    /*
+     * Called on termination, e.g. to close sockets that a running task blocks on
+     */
+    protected open fun onTerminate() {}
+
+    open fun setConfig(config: Any) {
+        LOG.warn("Method 'setConfig' for {} is not implemented", javaClass.simpleName)
+    }
+
+    /*
+     * Run the task on the RAT pool after all previously submitted tasks of this driver
+     */
+    protected fun execute(task: () -> Unit) {
+        if (!running) {
+            return
+        }
+        executor.execute {
+            if (running) {
+                task()
+            }
+        }
+    }
+
+    /*
+     * Run the task on the RAT pool after the given delay in milliseconds, see execute()
+     */
+    protected fun schedule(delay: Long, task: () -> Unit) {
+        if (!running) {
+            return
+        }
+        scheduledTasks.removeIf { it.isDone }
+        val future = Idscp2Executors.scheduler.schedule(Runnable { execute(task) }, delay, TimeUnit.MILLISECONDS)
+        scheduledTasks.add(future)
+        // terminate() might have missed the new task
+        if (!running) {
+            future.cancel(false)
+        }
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(RatDriver::class.java)
+    }
+}
@@ -1,35 +1,14 @@
 package de.fhg.aisec.ids.idscp2.drivers.interfaces
 
-import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FsmListener
-import org.slf4j.LoggerFactory
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.RatListener
 
 /**
- * An abstract RatProverDriver class that creates a rat prover driver thread and proves itself to
- * the peer connector using remote attestation
+ * An abstract RatProverDriver class that proves the identity of this connector to the peer
+ * connector using remote attestation, see RatDriver for the execution model
+ *
+ * The fsmListener is bound to this driver instance, such that results of terminated drivers are
+ * ignored by the fsm.
  *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
-abstract class RatProverDriver(protected val fsmListener: FsmListener) : Thread() {
-    protected var running = true
-
-    /*
-     * Delegate an IDSCP2 message to the RatProver driver
-     */
-    open fun delegate(message: ByteArray) {}
-
-    /*
-     * Terminate and cancel the RatProver driver
-     */
-    fun terminate() {
-        running = false
-        interrupt()
-    }
-
-    open fun setConfig(config: Any) {
-        LOG.warn("Method 'setConfig' for RatProverDriver is not implemented")
-    }
-
-    companion object {
-        private val LOG = LoggerFactory.getLogger(RatProverDriver::class.java)
-    }
-}
\ No newline at end of file
+abstract class RatProverDriver(protected val fsmListener: RatListener) : RatDriver()
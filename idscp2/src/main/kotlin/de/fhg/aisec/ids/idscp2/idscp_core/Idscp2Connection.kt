@@ -1,5 +1,8 @@
 package de.fhg.aisec.ids.idscp2.idscp_core
 
+import de.fhg.aisec.ids.idscp2.idscp_core.metrics.HandshakeTimings
+import java.util.concurrent.CompletableFuture
+
 /**
  * The IDSCP2 Connection class holds connections between connectors
  *
@@ -9,6 +12,9 @@ package de.fhg.aisec.ids.idscp2.idscp_core
 interface Idscp2Connection {
     val id: String
 
+    /**
+     * Start delivering received messages to the message listeners, messages received before are queued
+     */
     fun unlockMessaging()
 
     /**
@@ -21,6 +27,20 @@ interface Idscp2Connection {
      */
     fun send(msg: ByteArray)
 
+    /**
+     * Queue data for sending to the peer IDSCP2 connector without blocking the caller
+     *
+     * The returned future is completed when the data has been passed to the secure channel, or
+     * completed exceptionally if the send queue is full, the connection is not established or closed.
+     * Messages sent via sendAsync() are delivered in order.
+     */
+    fun sendAsync(msg: ByteArray): CompletableFuture<Void?>
+
+    /**
+     * Check if the send queue is below its high watermark, producers should pause sendAsync() otherwise
+     */
+    val isWritable: Boolean
+
     fun onMessage(msg: ByteArray)
 
     fun onError(t: Throwable)
@@ -34,6 +54,11 @@ interface Idscp2Connection {
      */
     val isConnected: Boolean
 
+    /**
+     * Durations of the handshake phases of this connection, see HandshakePhase
+     */
+    val handshakeTimings: HandshakeTimings
+
     fun addConnectionListener(listener: Idscp2ConnectionListener)
 
     fun removeConnectionListener(listener: Idscp2ConnectionListener): Boolean
@@ -41,4 +66,8 @@ interface Idscp2Connection {
     fun addMessageListener(listener: Idscp2MessageListener)
 
     fun removeMessageListener(listener: Idscp2MessageListener): Boolean
+
+    fun addWritabilityListener(listener: Idscp2WritabilityListener)
+
+    fun removeWritabilityListener(listener: Idscp2WritabilityListener): Boolean
 }
\ No newline at end of file
@@ -1,8 +1,11 @@
 package de.fhg.aisec.ids.idscp2.idscp_core
 
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception
 import de.fhg.aisec.ids.idscp2.idscp_core.configuration.Idscp2Settings
 import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FSM
+import de.fhg.aisec.ids.idscp2.idscp_core.metrics.HandshakePhase
+import de.fhg.aisec.ids.idscp2.idscp_core.metrics.HandshakeTimings
 import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel
 import org.slf4j.LoggerFactory
 import java.util.*
@@ -25,13 +28,30 @@ class Idscp2ConnectionImpl(secureChannel: SecureChannel,
             dapsDriver,
             settings.supportedAttestation.ratMechanisms,
             settings.expectedAttestation.ratMechanisms,
-            settings.ratTimeoutDelay)
+            settings.ratTimeoutDelay,
+            settings.supportedCompression,
+            settings.compressionThreshold,
+            settings.ratTimeoutJitter,
+            settings.maxConcurrentReRats)
     override val id: String = UUID.randomUUID().toString()
     private val connectionListeners = Collections.synchronizedSet(HashSet<Idscp2ConnectionListener>())
     private val messageListeners = Collections.synchronizedSet(HashSet<Idscp2MessageListener>())
-    private val messageLatch = FastLatch()
+    private val writabilityListeners = Collections.synchronizedSet(HashSet<Idscp2WritabilityListener>())
+    private val sendQueue = Idscp2SendQueue(
+            settings.sendQueueCapacity,
+            settings.sendQueueHighWatermark,
+            settings.sendQueueLowWatermark,
+            Idscp2Executors.worker,
+            { msg -> fsm.send(msg) },
+            { secureChannel.isWritable },
+            { writable -> notifyWritabilityListeners(writable) })
+    private val receiveQueue = Idscp2ReceiveQueue(
+            settings.receiveQueueCapacity,
+            settings.messageDeliveryExecutor,
+            { msg -> notifyMessageListeners(msg) },
+            { onReceiveQueueOverflow() })
     override fun unlockMessaging() {
-        messageLatch.unlock()
+        receiveQueue.start()
     }
 
     /**
@@ -57,13 +77,53 @@ class Idscp2ConnectionImpl(secureChannel: SecureChannel,
         fsm.send(msg)
     }
 
+    override fun sendAsync(msg: ByteArray): CompletableFuture<Void?> {
+        if (LOG.isTraceEnabled) {
+            LOG.trace("Queueing data for connection {}...", id)
+        }
+        return sendQueue.send(msg)
+    }
+
+    override val isWritable: Boolean
+        get() = sendQueue.isWritable
+
+    private fun notifyWritabilityListeners(writable: Boolean) {
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Connection {} is {}", id, if (writable) "writable" else "not writable")
+        }
+        // copy, because listeners may remove themselves
+        val listeners = synchronized(writabilityListeners) { ArrayList(writabilityListeners) }
+        listeners.forEach { it.onWritabilityChanged(this, writable) }
+    }
+
+    /**
+     * Queue a received message for the message listeners, which are notified in order on the delivery
+     * executor after unlockMessaging() has been called. Never blocks the calling FSM.
+     */
     override fun onMessage(msg: ByteArray) {
-        // When unlock is called, although not synchronized, this will eventually stop blocking.
-        messageLatch.await()
         if (LOG.isTraceEnabled) {
             LOG.trace("Received new IDSCP Message")
         }
-        messageListeners.forEach(Consumer { l: Idscp2MessageListener -> l.onMessage(this, msg) })
+        receiveQueue.add(msg)
+    }
+
+    /*
+     * The message listeners do not keep up with the peer. Reading is never paused, such that control
+     * messages are processed promptly, hence the connection is closed instead
+     */
+    private fun onReceiveQueueOverflow() {
+        LOG.warn("Message listeners of connection {} are too slow, closing connection", id)
+        // called by the FSM while it holds its lock, close from another thread
+        Idscp2Executors.worker.execute {
+            onError(Idscp2Exception("Receive queue of connection $id exceeded its capacity"))
+            close()
+        }
+    }
+
+    private fun notifyMessageListeners(msg: ByteArray) {
+        // copy, because listeners may remove themselves
+        val listeners = synchronized(messageListeners) { ArrayList(messageListeners) }
+        listeners.forEach { it.onMessage(this, msg) }
     }
 
     override fun onError(t: Throwable) {
@@ -72,6 +132,7 @@ class Idscp2ConnectionImpl(secureChannel: SecureChannel,
 
     override fun onClose() {
         LOG.debug("Connection with id {} is closing, notify listeners...", id)
+        sendQueue.close(Idscp2Exception("Connection $id has been closed"))
         connectionListeners.forEach(Consumer { l: Idscp2ConnectionListener -> l.onClose() })
     }
 
@@ -83,6 +144,9 @@ class Idscp2ConnectionImpl(secureChannel: SecureChannel,
     override val isConnected: Boolean
         get() = fsm.isConnected
 
+    override val handshakeTimings: HandshakeTimings
+        get() = fsm.handshakeTimings
+
     override fun addConnectionListener(listener: Idscp2ConnectionListener) {
         connectionListeners.add(listener)
     }
@@ -99,12 +163,24 @@ class Idscp2ConnectionImpl(secureChannel: SecureChannel,
         return messageListeners.remove(listener)
     }
 
+    override fun addWritabilityListener(listener: Idscp2WritabilityListener) {
+        writabilityListeners.add(listener)
+    }
+
+    override fun removeWritabilityListener(listener: Idscp2WritabilityListener): Boolean {
+        return writabilityListeners.remove(listener)
+    }
+
     companion object {
         private val LOG = LoggerFactory.getLogger(Idscp2ConnectionImpl::class.java)
     }
 
     init {
+        if (secureChannel.tlsHandshakeDuration >= 0) {
+            fsm.handshakeTimings.record(HandshakePhase.TLS_HANDSHAKE, secureChannel.tlsHandshakeDuration)
+        }
         secureChannel.setFsm(fsm)
+        secureChannel.setWritabilityCallback(Runnable { sendQueue.resume() })
         if (LOG.isDebugEnabled) {
             LOG.debug("A new IDSCP2 connection with id {} was created, starting handshake...", id)
         }
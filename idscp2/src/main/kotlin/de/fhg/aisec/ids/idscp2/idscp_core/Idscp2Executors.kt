@@ -0,0 +1,67 @@
+package de.fhg.aisec.ids.idscp2.idscp_core
+
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Process-wide executors shared by all IDSCP2 connections, such that per-connection work does not
+ * require dedicated threads. All threads are daemon threads.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+object Idscp2Executors {
+    /*
+     * Scheduler for short, non-blocking delayed tasks
+     */
+    val scheduler: ScheduledExecutorService by lazy {
+        val executor = ScheduledThreadPoolExecutor(1, daemonThreadFactory("IDSCP2 Scheduler"))
+        executor.removeOnCancelPolicy = true
+        executor
+    }
+
+    /*
+     * Elastic pool for connection tasks that may block, idle threads are terminated after one minute
+     */
+    val worker: ExecutorService by lazy {
+        ThreadPoolExecutor(0, Int.MAX_VALUE, 60L, TimeUnit.SECONDS, SynchronousQueue(),
+                daemonThreadFactory("IDSCP2 Worker"))
+    }
+
+    /*
+     * Bounded pool for the tasks of all RAT drivers, such that handshake and re-attestation storms do
+     * not create a thread per driver. The size can be set via the system property idscp2.rat.threads
+     */
+    val rat: ExecutorService by lazy {
+        val threads = Integer.getInteger("idscp2.rat.threads",
+                maxOf(4, 2 * Runtime.getRuntime().availableProcessors()))
+        val executor = ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, LinkedBlockingQueue(),
+                daemonThreadFactory("IDSCP2 RAT"))
+        executor.allowCoreThreadTimeOut(true)
+        executor
+    }
+
+    /*
+     * Bounded pool for running expired FSM timeouts, which wait for the lock of a busy FSM. The size can be
+     * set via the system property idscp2.timeout.threads
+     */
+    val timeouts: ExecutorService by lazy {
+        val threads = Integer.getInteger("idscp2.timeout.threads",
+                maxOf(2, Runtime.getRuntime().availableProcessors()))
+        val executor = ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, LinkedBlockingQueue(),
+                daemonThreadFactory("IDSCP2 Timeout"))
+        executor.allowCoreThreadTimeOut(true)
+        executor
+    }
+
+    /*
+     * Create a thread factory for daemon threads with the given name prefix
+     */
+    fun daemonThreadFactory(name: String): ThreadFactory {
+        val counter = AtomicInteger()
+        return ThreadFactory { runnable ->
+            val thread = Thread(runnable, name + "-" + counter.incrementAndGet())
+            thread.isDaemon = true
+            thread
+        }
+    }
+}
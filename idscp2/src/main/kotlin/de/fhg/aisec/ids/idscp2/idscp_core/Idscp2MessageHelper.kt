@@ -10,7 +10,8 @@ import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpClose.CloseCause
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
 object Idscp2MessageHelper {
-    fun createIdscpHelloMessage(dat: ByteArray, supportedRatSuite: Array<String>, expectedRatSuite: Array<String>): IdscpMessage {
+    fun createIdscpHelloMessage(dat: ByteArray, supportedRatSuite: Array<String>, expectedRatSuite: Array<String>,
+                                supportedCompression: Array<String> = emptyArray()): IdscpMessage {
         val idscpDat = IdscpDat.newBuilder()
                 .setToken(ByteString.copyFrom(dat))
                 .build()
@@ -19,6 +20,7 @@ object Idscp2MessageHelper {
                 .setDynamicAttributeToken(idscpDat)
                 .addAllExpectedRatSuite(listOf(*expectedRatSuite))
                 .addAllSupportedRatSuite(listOf(*supportedRatSuite))
+                .addAllSupportedCompression(listOf(*supportedCompression))
                 .build()
         return IdscpMessage.newBuilder()
                 .setIdscpHello(idscpHello)
@@ -59,9 +61,10 @@ object Idscp2MessageHelper {
                 .build()
     }
 
-    fun createIdscpDataMessage(data: ByteArray?): IdscpMessage {
+    fun createIdscpDataMessage(data: ByteArray?, compression: String = ""): IdscpMessage {
         val idscpData = IdscpData.newBuilder()
                 .setData(ByteString.copyFrom(data))
+                .setCompression(compression)
         return IdscpMessage.newBuilder()
                 .setIdscpData(idscpData)
                 .build()
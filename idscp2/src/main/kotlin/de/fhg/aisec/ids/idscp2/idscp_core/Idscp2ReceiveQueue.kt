@@ -0,0 +1,104 @@
+package de.fhg.aisec.ids.idscp2.idscp_core
+
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.Executor
+
+/**
+ * A bounded inbound queue of a single IDSCP2 connection, which decouples the message listeners from
+ * the FSM and the reader of the secure channel.
+ *
+ * Messages are delivered in order by at most one task on the given executor, delivery starts when
+ * the queue is started via Idscp2Connection.unlockMessaging(). Reading from the peer is never paused,
+ * such that control messages of the FSM are always processed promptly. When more than capacity bytes
+ * of data are queued, the queue discards its messages and calls the overflow handler once, which
+ * closes the connection.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+internal class Idscp2ReceiveQueue(
+        private val capacity: Int,
+        private val executor: Executor,
+        private val deliver: (ByteArray) -> Unit,
+        private val overflowHandler: () -> Unit
+) {
+    private val queue = ArrayDeque<ByteArray>()
+    private var queuedBytes = 0L
+    private var started = false
+    private var draining = false
+    private var overflowed = false
+
+    /*
+     * Queue a received message, never blocks
+     */
+    fun add(msg: ByteArray) {
+        synchronized(this) {
+            if (overflowed) {
+                return
+            }
+            if (queuedBytes + msg.size <= capacity) {
+                queue.add(msg)
+                queuedBytes += msg.size
+                scheduleDrain()
+                return
+            }
+            // the listeners cannot keep up, queued messages are discarded since the connection is closed
+            overflowed = true
+            queue.clear()
+            queuedBytes = 0
+        }
+        LOG.warn("Receive queue exceeded its capacity of {} bytes", capacity)
+        overflowHandler()
+    }
+
+    /*
+     * Start the delivery of queued and further messages
+     */
+    fun start() {
+        synchronized(this) {
+            started = true
+            scheduleDrain()
+        }
+    }
+
+    private fun scheduleDrain() {
+        if (started && !draining && !queue.isEmpty()) {
+            draining = true
+            executor.execute { drain() }
+        }
+    }
+
+    private fun drain() {
+        var delivered = 0
+        while (true) {
+            val next = synchronized(this) {
+                if (delivered >= MAX_BATCH_SIZE) {
+                    // yield the thread to other connections that share the executor
+                    draining = false
+                    scheduleDrain()
+                    return
+                }
+                queue.poll() ?: run {
+                    draining = false
+                    return
+                }
+            }
+            try {
+                deliver(next)
+            } catch (t: Throwable) {
+                LOG.error("Error in message listener", t)
+            }
+            delivered++
+            synchronized(this) {
+                if (!overflowed) {
+                    queuedBytes -= next.size
+                }
+            }
+        }
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(Idscp2ReceiveQueue::class.java)
+        private const val MAX_BATCH_SIZE = 64
+    }
+}
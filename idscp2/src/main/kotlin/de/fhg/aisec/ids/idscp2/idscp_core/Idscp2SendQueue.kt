@@ -0,0 +1,162 @@
+package de.fhg.aisec.ids.idscp2.idscp_core
+
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception
+import org.slf4j.LoggerFactory
+import java.util.*
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.Executor
+
+/**
+ * A bounded outbound queue of a single IDSCP2 connection, used by Idscp2Connection.sendAsync().
+ *
+ * Messages are drained in order by at most one task on the given executor. The queue is bounded by
+ * capacity bytes, the writability of the connection changes when the queued bytes exceed the high
+ * watermark and when they have been drained to the low watermark again.
+ *
+ * Draining stops while the secure channel is not writable, e.g. when a non-blocking channel cannot
+ * write to a slow peer, and continues when resume() is called.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+internal class Idscp2SendQueue(
+        private val capacity: Int,
+        private val highWatermark: Int,
+        lowWatermark: Int,
+        private val executor: Executor,
+        private val sender: (ByteArray) -> Boolean,
+        private val channelWritable: () -> Boolean,
+        private val writabilityHandler: (Boolean) -> Unit
+) {
+    private val lowWatermark = minOf(lowWatermark, highWatermark)
+    private val queue = ArrayDeque<PendingSend>()
+    private var queuedBytes = 0L
+    private var draining = false
+    private var closeCause: Throwable? = null
+
+    /*
+     * The writability that has been passed to the writabilityHandler, guarded by notificationLock
+     */
+    private val notificationLock = Any()
+    private var notifiedWritable = true
+
+    @Volatile
+    var isWritable = true
+        private set
+
+    /*
+     * Queue a message, the future is completed when the message has been passed to the secure channel
+     */
+    fun send(msg: ByteArray): CompletableFuture<Void?> {
+        val future = CompletableFuture<Void?>()
+        synchronized(this) {
+            closeCause?.let {
+                future.completeExceptionally(it)
+                return future
+            }
+            if (queuedBytes + msg.size > capacity) {
+                future.completeExceptionally(Idscp2Exception("Send queue is full, $queuedBytes bytes are queued"))
+                return future
+            }
+            queue.add(PendingSend(msg, future))
+            queuedBytes += msg.size
+            if (isWritable && queuedBytes > highWatermark) {
+                isWritable = false
+            }
+            if (!draining) {
+                draining = true
+                executor.execute { drain() }
+            }
+        }
+        notifyWritability()
+        return future
+    }
+
+    /*
+     * Continue draining after the secure channel has become writable again
+     */
+    fun resume() {
+        synchronized(this) {
+            if (draining || queue.isEmpty() || closeCause != null) {
+                return
+            }
+            draining = true
+            executor.execute { drain() }
+        }
+    }
+
+    /*
+     * Fail all queued and further messages with the given cause
+     */
+    fun close(cause: Throwable) {
+        val pending = synchronized(this) {
+            if (closeCause != null) {
+                return
+            }
+            closeCause = cause
+            val pending = ArrayList(queue)
+            queue.clear()
+            queuedBytes = 0
+            pending
+        }
+        pending.forEach { it.future.completeExceptionally(cause) }
+    }
+
+    private fun drain() {
+        while (true) {
+            val next = synchronized(this) {
+                // resume() restarts draining once the channel is writable again
+                if (queue.isEmpty() || !channelWritable()) {
+                    draining = false
+                    return
+                }
+                queue.poll()
+            }
+            // messages that have been cancelled by the producer are skipped
+            if (!next.future.isCancelled) {
+                try {
+                    if (sender(next.msg)) {
+                        next.future.complete(null)
+                    } else {
+                        next.future.completeExceptionally(Idscp2Exception("Message could not be sent"))
+                    }
+                } catch (t: Throwable) {
+                    LOG.warn("Error while sending queued message", t)
+                    next.future.completeExceptionally(t)
+                }
+            }
+            synchronized(this) {
+                if (closeCause == null) {
+                    queuedBytes -= next.msg.size
+                    if (!isWritable && queuedBytes <= lowWatermark) {
+                        isWritable = true
+                    }
+                }
+            }
+            notifyWritability()
+        }
+    }
+
+    /*
+     * Pass the current writability to the writabilityHandler if it has changed since the last call.
+     *
+     * Transitions happen under the queue lock, but the handler is called outside of it. The current
+     * state is read again under the notification lock, such that concurrent transitions of producers
+     * and the drain task cannot be delivered out of order and the last notification always matches
+     * isWritable
+     */
+    private fun notifyWritability() {
+        synchronized(notificationLock) {
+            val writable = isWritable
+            if (writable != notifiedWritable) {
+                notifiedWritable = writable
+                writabilityHandler(writable)
+            }
+        }
+    }
+
+    private class PendingSend(val msg: ByteArray, val future: CompletableFuture<Void?>)
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(Idscp2SendQueue::class.java)
+    }
+}
@@ -0,0 +1,12 @@
+package de.fhg.aisec.ids.idscp2.idscp_core
+
+/**
+ * An interface for listeners that are notified when the send queue of a connection crosses its
+ * high or low watermark, such that producers can stop and resume sending
+ */
+fun interface Idscp2WritabilityListener {
+    /*
+     * notify the listener about a changed writability, called from the sending or draining thread
+     */
+    fun onWritabilityChanged(connection: Idscp2Connection, writable: Boolean)
+}
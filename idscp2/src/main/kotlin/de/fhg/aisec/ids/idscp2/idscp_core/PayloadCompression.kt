@@ -0,0 +1,96 @@
+package de.fhg.aisec.ids.idscp2.idscp_core
+
+import com.google.protobuf.ByteString
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception
+import java.io.ByteArrayOutputStream
+import java.io.IOException
+import java.util.zip.Deflater
+import java.util.zip.InflaterInputStream
+
+/**
+ * Payload compression codecs for IDSCP_DATA messages
+ *
+ * The supported codecs are advertised in IDSCP_HELLO, both peers agree on the first codec of
+ * CODEC_PRIORITY that is supported by both sides, such that negotiation is deterministic.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+object PayloadCompression {
+    const val DEFLATE = "deflate"
+    const val DEFLATE_FAST = "deflate-fast"
+
+    /*
+     * All supported codecs in the order of preference
+     */
+    val CODEC_PRIORITY = arrayOf(DEFLATE_FAST, DEFLATE)
+
+    /*
+     * Upper bound for decompressed payloads, protects against decompression bombs
+     */
+    const val MAX_DECOMPRESSED_SIZE = 64 * 1024 * 1024
+
+    /*
+     * Get the codec that is supported by both peers, or null if no compression should be used
+     */
+    fun negotiate(localCodecs: Array<String>, remoteCodecs: List<String>): String? {
+        return CODEC_PRIORITY.firstOrNull { localCodecs.contains(it) && remoteCodecs.contains(it) }
+    }
+
+    /*
+     * Compress the data with the given codec, returns null if compression does not reduce the size
+     */
+    fun compress(codec: String, data: ByteArray): ByteArray? {
+        val deflater = Deflater(when (codec) {
+            DEFLATE -> Deflater.DEFAULT_COMPRESSION
+            DEFLATE_FAST -> Deflater.BEST_SPEED
+            else -> throw Idscp2Exception("Unsupported compression codec $codec")
+        })
+        try {
+            deflater.setInput(data)
+            deflater.finish()
+            val out = ByteArrayOutputStream(data.size / 2 + 64)
+            val buffer = ByteArray(BUFFER_SIZE)
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer))
+                if (out.size() >= data.size) {
+                    return null
+                }
+            }
+            return out.toByteArray()
+        } finally {
+            deflater.end()
+        }
+    }
+
+    /*
+     * Decompress the data with the given codec
+     *
+     * throws Idscp2Exception if the codec is not supported, the data is corrupted or too large
+     */
+    fun decompress(codec: String, data: ByteString): ByteArray {
+        if (codec != DEFLATE && codec != DEFLATE_FAST) {
+            throw Idscp2Exception("Unsupported compression codec $codec")
+        }
+        try {
+            InflaterInputStream(data.newInput()).use { input ->
+                val out = ByteArrayOutputStream(minOf(data.size().toLong() * 4, BUFFER_SIZE * 128L).toInt())
+                val buffer = ByteArray(BUFFER_SIZE)
+                while (true) {
+                    val len = input.read(buffer)
+                    if (len < 0) {
+                        break
+                    }
+                    if (out.size() + len > MAX_DECOMPRESSED_SIZE) {
+                        throw Idscp2Exception("Decompressed payload exceeds $MAX_DECOMPRESSED_SIZE bytes")
+                    }
+                    out.write(buffer, 0, len)
+                }
+                return out.toByteArray()
+            }
+        } catch (e: IOException) {
+            throw Idscp2Exception("Cannot decompress payload", e)
+        }
+    }
+
+    private const val BUFFER_SIZE = 8192
+}
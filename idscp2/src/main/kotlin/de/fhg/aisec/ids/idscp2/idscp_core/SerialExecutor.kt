@@ -0,0 +1,54 @@
+package de.fhg.aisec.ids.idscp2.idscp_core
+
+import org.slf4j.LoggerFactory
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * An executor that runs its tasks one after another in submission order on the given executor.
+ *
+ * Many serial executors can share one thread pool without blocking each other, since at most one
+ * task of each serial executor is running at a time. After a batch of tasks the executor yields
+ * its thread to other serial executors.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class SerialExecutor(private val executor: Executor) : Executor {
+    private val tasks = ConcurrentLinkedQueue<Runnable>()
+    private val scheduled = AtomicBoolean(false)
+
+    override fun execute(task: Runnable) {
+        tasks.add(task)
+        schedule()
+    }
+
+    private fun schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute { runTasks() }
+        }
+    }
+
+    private fun runTasks() {
+        var executed = 0
+        while (executed < MAX_BATCH_SIZE) {
+            val task = tasks.poll() ?: break
+            try {
+                task.run()
+            } catch (t: Throwable) {
+                LOG.error("Error in serially executed task", t)
+            }
+            executed++
+        }
+        scheduled.set(false)
+        // tasks may have been added after the last poll, before scheduled has been reset
+        if (!tasks.isEmpty()) {
+            schedule()
+        }
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(SerialExecutor::class.java)
+        private const val MAX_BATCH_SIZE = 64
+    }
+}
@@ -1,8 +1,10 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.configuration
 
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
 import java.nio.file.Path
 import java.nio.file.Paths
 import java.util.*
+import java.util.concurrent.Executor
 
 /**
  * IDSCP2 configuration class, contains information about keyStore and TrustStores,
@@ -37,6 +39,32 @@ class Idscp2Settings {
         private set
     var ratTimeoutDelay = DEFAULT_RAT_TIMEOUT_DELAY.toInt().toLong()
         private set
+    var ratTimeoutJitter = DEFAULT_RAT_TIMEOUT_JITTER
+        private set
+    var maxConcurrentReRats = DEFAULT_MAX_CONCURRENT_RE_RATS
+        private set
+    var useVirtualThreads = false
+        private set
+    var sendFlushPolicy = SendFlushPolicy.IMMEDIATE
+        private set
+    var sendFlushDelay = DEFAULT_SEND_FLUSH_DELAY
+        private set
+    var sendBatchSize = DEFAULT_SEND_BATCH_SIZE
+        private set
+    var sendQueueCapacity = DEFAULT_SEND_QUEUE_CAPACITY
+        private set
+    var sendQueueHighWatermark = DEFAULT_SEND_QUEUE_HIGH_WATERMARK
+        private set
+    var sendQueueLowWatermark = DEFAULT_SEND_QUEUE_LOW_WATERMARK
+        private set
+    var supportedCompression: Array<String> = emptyArray()
+        private set
+    var compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD
+        private set
+    var receiveQueueCapacity = DEFAULT_RECEIVE_QUEUE_CAPACITY
+        private set
+    var messageDeliveryExecutor: Executor = Idscp2Executors.worker
+        private set
 
     class Builder {
         private val settings = Idscp2Settings()
@@ -105,6 +133,116 @@ class Idscp2Settings {
             return this
         }
 
+        /*
+         * Fraction (0.0 - 1.0) of the RAT timeout delay by which each re-attestation is shifted
+         * randomly, such that connections that have been established together do not re-attest
+         * at the same time. Disabled by default
+         */
+        fun setRatTimeoutJitter(jitter: Double): Builder {
+            settings.ratTimeoutJitter = jitter
+            return this
+        }
+
+        /*
+         * Maximum number of re-attestations that are triggered concurrently by the RAT timers of all
+         * connections with the same limit, further re-attestations are delayed. Zero disables the limit
+         */
+        fun setMaxConcurrentReRats(maxConcurrentReRats: Int): Builder {
+            settings.maxConcurrentReRats = maxConcurrentReRats
+            return this
+        }
+
+        /*
+         * Run the accept loop and the connection readers of the secure channel on virtual threads,
+         * if supported by the Java runtime
+         */
+        fun setUseVirtualThreads(useVirtualThreads: Boolean): Builder {
+            settings.useVirtualThreads = useVirtualThreads
+            return this
+        }
+
+        fun setSendFlushPolicy(policy: SendFlushPolicy): Builder {
+            settings.sendFlushPolicy = policy
+            return this
+        }
+
+        /*
+         * Maximum time in milliseconds a message may be buffered by the DELAYED and BATCH flush policies
+         */
+        fun setSendFlushDelay(delay: Long): Builder {
+            settings.sendFlushDelay = delay
+            return this
+        }
+
+        /*
+         * Number of messages that are coalesced by the BATCH flush policy
+         */
+        fun setSendBatchSize(batchSize: Int): Builder {
+            settings.sendBatchSize = batchSize
+            return this
+        }
+
+        /*
+         * Maximum number of bytes queued by Idscp2Connection.sendAsync(), further sends are rejected
+         */
+        fun setSendQueueCapacity(capacity: Int): Builder {
+            settings.sendQueueCapacity = capacity
+            return this
+        }
+
+        /*
+         * The connection becomes unwritable when more than the given number of bytes are queued
+         */
+        fun setSendQueueHighWatermark(watermark: Int): Builder {
+            settings.sendQueueHighWatermark = watermark
+            return this
+        }
+
+        /*
+         * An unwritable connection becomes writable again when the queue has been drained to the given number of bytes
+         */
+        fun setSendQueueLowWatermark(watermark: Int): Builder {
+            settings.sendQueueLowWatermark = watermark
+            return this
+        }
+
+        /*
+         * Compression codecs advertised to the peer, see PayloadCompression.CODEC_PRIORITY. Compression is
+         * disabled by default: if attacker-controlled data is sent together with secrets over the same
+         * connection, the compressed sizes can reveal the secrets (CRIME/BREACH), so only enable it for
+         * payloads that do not mix both
+         */
+        fun setSupportedCompression(codecs: Array<String>): Builder {
+            settings.supportedCompression = codecs
+            return this
+        }
+
+        /*
+         * Minimum payload size in bytes for compressing IDSCP_DATA messages
+         */
+        fun setCompressionThreshold(threshold: Int): Builder {
+            settings.compressionThreshold = threshold
+            return this
+        }
+
+        /*
+         * Number of received bytes that may be queued for the message listeners. Reading from the
+         * peer is never paused, the connection is closed with an error if the capacity is exceeded
+         */
+        fun setReceiveQueueCapacity(capacity: Int): Builder {
+            settings.receiveQueueCapacity = capacity
+            return this
+        }
+
+        /*
+         * Executor for notifying the message listeners, messages of a single connection are always
+         * delivered one after another in order
+         */
+        fun setMessageDeliveryExecutor(executor: Executor): Builder {
+            settings.messageDeliveryExecutor = executor
+            return this
+        }
+
         fun build(): Idscp2Settings {
             return settings
         }
@@ -115,6 +253,8 @@ class Idscp2Settings {
         if (other == null || javaClass != other.javaClass) return false
         val that = other as Idscp2Settings
         return serverPort == that.serverPort && ratTimeoutDelay == that.ratTimeoutDelay &&
+                ratTimeoutJitter == that.ratTimeoutJitter &&
+                maxConcurrentReRats == that.maxConcurrentReRats &&
                 host == that.host &&
                 trustStorePath == that.trustStorePath &&
                 trustStorePassword.contentEquals(that.trustStorePassword) &&
@@ -124,17 +264,40 @@ class Idscp2Settings {
                 dapsKeyAlias == that.dapsKeyAlias &&
                 keyStoreKeyType == that.keyStoreKeyType &&
                 supportedAttestation == that.supportedAttestation &&
-                expectedAttestation == that.expectedAttestation
+                expectedAttestation == that.expectedAttestation &&
+                useVirtualThreads == that.useVirtualThreads &&
+                sendFlushPolicy == that.sendFlushPolicy &&
+                sendFlushDelay == that.sendFlushDelay &&
+                sendBatchSize == that.sendBatchSize &&
+                sendQueueCapacity == that.sendQueueCapacity &&
+                sendQueueHighWatermark == that.sendQueueHighWatermark &&
+                sendQueueLowWatermark == that.sendQueueLowWatermark &&
+                supportedCompression.contentEquals(that.supportedCompression) &&
+                compressionThreshold == that.compressionThreshold &&
+                receiveQueueCapacity == that.receiveQueueCapacity &&
+                messageDeliveryExecutor == that.messageDeliveryExecutor
     }
 
     override fun hashCode(): Int {
         return Objects.hash(serverPort, host, trustStorePath, trustStorePassword, keyStorePath,
                 keyStorePassword, certificateAlias, dapsKeyAlias, keyStoreKeyType, supportedAttestation,
-                expectedAttestation, ratTimeoutDelay)
+                expectedAttestation, ratTimeoutDelay, ratTimeoutJitter, maxConcurrentReRats, useVirtualThreads,
+                sendFlushPolicy, sendFlushDelay, sendBatchSize, sendQueueCapacity, sendQueueHighWatermark,
+                sendQueueLowWatermark, supportedCompression.contentHashCode(), compressionThreshold,
+                receiveQueueCapacity, messageDeliveryExecutor)
     }
 
     companion object {
         const val DEFAULT_SERVER_PORT = 29292
         const val DEFAULT_RAT_TIMEOUT_DELAY = "600"
+        const val DEFAULT_RAT_TIMEOUT_JITTER = 0.0
+        val DEFAULT_MAX_CONCURRENT_RE_RATS = maxOf(4, Runtime.getRuntime().availableProcessors())
+        const val DEFAULT_SEND_FLUSH_DELAY = 5L
+        const val DEFAULT_SEND_BATCH_SIZE = 16
+        const val DEFAULT_SEND_QUEUE_CAPACITY = 16 * 1024 * 1024
+        const val DEFAULT_SEND_QUEUE_HIGH_WATERMARK = 1024 * 1024
+        const val DEFAULT_SEND_QUEUE_LOW_WATERMARK = 256 * 1024
+        const val DEFAULT_COMPRESSION_THRESHOLD = 1024
+        const val DEFAULT_RECEIVE_QUEUE_CAPACITY = 16 * 1024 * 1024
     }
 }
\ No newline at end of file
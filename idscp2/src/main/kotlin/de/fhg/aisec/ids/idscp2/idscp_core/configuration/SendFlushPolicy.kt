@@ -0,0 +1,23 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.configuration
+
+/**
+ * Flush policy of the buffered sender of a secure channel
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+enum class SendFlushPolicy {
+    /*
+     * Each message is written as one record and flushed immediately
+     */
+    IMMEDIATE,
+
+    /*
+     * Messages are coalesced and flushed after the send flush delay (Nagle-like)
+     */
+    DELAYED,
+
+    /*
+     * Messages are coalesced until the send batch size is reached, or the send flush delay has expired
+     */
+    BATCH
+}
@@ -1,20 +1,31 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.fsm
 
 import com.google.protobuf.InvalidProtocolBufferException
+import com.google.protobuf.UnsafeByteOperations
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatProverDriver
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatVerifierDriver
 import de.fhg.aisec.ids.idscp2.error.Idscp2Exception
 import de.fhg.aisec.ids.idscp2.idscp_core.FastLatch
 import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
 import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper
+import de.fhg.aisec.ids.idscp2.idscp_core.PayloadCompression
+import de.fhg.aisec.ids.idscp2.idscp_core.metrics.HandshakePhase
+import de.fhg.aisec.ids.idscp2.idscp_core.metrics.HandshakeTimings
 import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatProverDriverRegistry
 import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatVerifierDriverRegistry
 import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpData
 import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage
 import org.slf4j.LoggerFactory
+import java.nio.ByteBuffer
 import java.util.*
-import java.util.concurrent.locks.ReentrantLock
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantReadWriteLock
+import java.util.function.Supplier
 
 /**
  * The finite state machine FSM of the IDSCP2 protocol
@@ -27,16 +38,23 @@ import java.util.concurrent.locks.ReentrantLock
  *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
-class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver: DapsDriver,
-          localSupportedRatSuite: Array<String>, localExpectedRatSuite: Array<String>, ratTimeout: Long) : FsmListener {
+class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, private val dapsDriver: DapsDriver,
+          localSupportedRatSuite: Array<String>, localExpectedRatSuite: Array<String>,
+          private val ratTimeout: Long,
+          localSupportedCompression: Array<String> = emptyArray(),
+          private val compressionThreshold: Int = Int.MAX_VALUE,
+          ratTimeoutJitter: Double = 0.0,
+          maxConcurrentReRats: Int = 0) : FsmListener {
     /*  -----------   IDSCP2 Protocol States   ---------- */
     private val states = HashMap<FsmState, State>()
 
     enum class FsmState {
-        STATE_CLOSED, STATE_WAIT_FOR_HELLO, STATE_WAIT_FOR_RAT, STATE_WAIT_FOR_RAT_VERIFIER, STATE_WAIT_FOR_RAT_PROVER, STATE_WAIT_FOR_DAT_AND_RAT_VERIFIER, STATE_WAIT_FOR_DAT_AND_RAT, STATE_ESTABLISHED
+        STATE_CLOSED, STATE_WAIT_FOR_HELLO, STATE_WAIT_FOR_RAT, STATE_WAIT_FOR_RAT_VERIFIER, STATE_WAIT_FOR_RAT_PROVER, STATE_WAIT_FOR_DAT_AND_RAT_VERIFIER, STATE_WAIT_FOR_DAT_AND_RAT, STATE_WAIT_FOR_DAT_VERIFICATION, STATE_ESTABLISHED
     }
 
+    @Volatile
     private var currentState: State?
+    private val stateEstablished: State
 
     /*  ----------------   end of states   --------------- */
     private val connection: Idscp2Connection
@@ -47,15 +65,13 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
         private set
 
     /**
-     * RAT Driver Thread ID to identify the driver threads and check if messages are provided by
+     * Listeners that are bound to the active RAT drivers, to check if messages are provided by
      * the current active driver or by any old driver, whose lifetime is already over
      *
      * Only one driver can be valid at a time
      */
-    private var currentRatProverId //avoid messages from old prover drivers
-            : String? = null
-    private var currentRatVerifierId //avoid messages from old verifier drivers
-            : String? = null
+    private var ratProverListener: RatDriverListener? = null //avoid messages from old prover drivers
+    private var ratVerifierListener: RatDriverListener? = null //avoid messages from old verifier drivers
 
     /**
      * RAT Mechanisms, calculated during handshake in WAIT_FOR_HELLO_STATE
@@ -64,9 +80,54 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
     private var verifierMechanism: String? = null //RAT Verifier mechanism
 
     /**
-     * A FIFO-fair synchronization lock for the finite state machine
+     * The DAT of the peer is verified asynchronously during the handshake, concurrently to the RAT.
+     * Results of old verifications are identified by their id and ignored
      */
-    private val fsmIsBusy = ReentrantLock(true)
+    private var datVerificationPending = false
+    private var datVerificationId = 0
+
+    /**
+     * IDSCP_DATA of a peer that is already established, received before the DAT of the peer has been
+     * verified. It is delivered when entering STATE_ESTABLISHED, even if the handshake state has been
+     * left for a re-attestation in the meantime, and dropped when the connection is closed
+     */
+    private val earlyData = ArrayList<ByteArray>()
+
+    /**
+     * Fraction of the RAT timeout by which the re-attestations are randomly shifted, such that
+     * connections that have been established together do not re-attest at the same time
+     */
+    private val ratTimeoutJitter = ratTimeoutJitter.coerceIn(0.0, 1.0)
+
+    /**
+     * Limits the re-attestations triggered by the RAT timer, shared with the other connections
+     */
+    private val reRatLimiter = ReRatLimiter.forLimit(maxConcurrentReRats)
+
+    /**
+     * True while this fsm runs a re-attestation that has been admitted by the ReRatLimiter
+     */
+    private var holdsReRatPermit = false
+
+    /**
+     * Durations of the handshake phases of this connection
+     */
+    val handshakeTimings = HandshakeTimings()
+
+    /**
+     * Payload compression codec, calculated during handshake in WAIT_FOR_HELLO_STATE
+     */
+    @Volatile
+    private var compression: String? = null
+
+    /**
+     * A FIFO-fair read-write lock for the finite state machine
+     *
+     * The write lock (fsmIsBusy) serializes all events and state transitions, the read lock is only
+     * used by the data plane in STATE_ESTABLISHED, such that concurrent senders do not block each other
+     */
+    private val fsmLock = ReentrantReadWriteLock(true)
+    private val fsmIsBusy = fsmLock.writeLock()
 
     /**
      * A condition to ensure no idscp messages can be provided by the secure channel to the fsm
@@ -112,7 +173,8 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
         // So our fsm would be broken and the behaviour is undefined and could leak security
         // vulnerabilities
         //
-        if (fsmIsBusy.isHeldByCurrentThread) {
+        // a thread that holds the read lock would block forever when acquiring the write lock
+        if (fsmIsBusy.isHeldByCurrentThread || fsmLock.readHoldCount > 0) {
             val e = RuntimeException("The current thread holds the fsm lock already. "
                     + "A circle might occur that could lead to undefined behaviour within the fsm")
             // Log exception before throwing, since some threads swallow the exception without any notification
@@ -128,6 +190,10 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
      * driver implementations
      */
     override fun onMessage(data: ByteArray) {
+        onMessage(ByteBuffer.wrap(data))
+    }
+
+    override fun onMessage(data: ByteBuffer) {
 
         //check for incorrect usage
         checkForFsmCycles()
@@ -135,11 +201,19 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
         //parse message and create new IDSCP Message event, then pass it to current state and
         // update new state
         val message: IdscpMessage = try {
-            IdscpMessage.parseFrom(data)
+            // parse with aliasing: bytes fields reference the buffer instead of being copied,
+            // they are copied once when handed over to the upper layers
+            val codedInput = UnsafeByteOperations.unsafeWrap(data).newCodedInput()
+            codedInput.enableAliasing(true)
+            IdscpMessage.parseFrom(codedInput)
         } catch (e: InvalidProtocolBufferException) {
             LOG.warn("Cannot parse raw data into IdscpMessage {}", data)
             return
         }
+        // IDSCP_DATA is passed to the connection without the generic event dispatching when established
+        if (message.messageCase == IdscpMessage.MessageCase.IDSCPDATA && onIdscpData(message.idscpData)) {
+            return
+        }
         val event = Event(message)
         //must wait when fsm is in state STATE_CLOSED --> wait() will be notified when fsm is
         // leaving STATE_CLOSED
@@ -161,6 +235,38 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
         }
     }
 
+    /**
+     * Fast path for IDSCP_DATA in STATE_ESTABLISHED, which is nearly all traffic of an established
+     * connection. The payload is passed to the connection under the read lock, without creating an
+     * event and without looking up the transition.
+     *
+     * Returns false if the message has to be processed by the current state instead, e.g. when the
+     * connection is not established or the payload is invalid
+     */
+    private fun onIdscpData(data: IdscpData): Boolean {
+        if (currentState !== stateEstablished) {
+            return false
+        }
+        val payload = try {
+            getIdscpDataPayload(data)
+        } catch (e: Idscp2Exception) {
+            // STATE_ESTABLISHED closes the connection
+            return false
+        }
+        val readLock = fsmLock.readLock()
+        readLock.lock()
+        try {
+            // the state might have changed in the meantime, then the message is dispatched as event
+            if (currentState !== stateEstablished) {
+                return false
+            }
+            notifyIdscpMsgListener(payload)
+            return true
+        } finally {
+            readLock.unlock()
+        }
+    }
+
     /**
      * An internal control message (ICM) occurred, provide it to the fsm as an event
      */
@@ -175,14 +281,6 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
         }
     }
 
-    override fun onRatProverMessage(controlMessage: InternalControlMessage, ratMessage: ByteArray) {
-        processRatProverEvent(Event(controlMessage, Idscp2MessageHelper.createIdscpRatProverMessage(ratMessage)))
-    }
-
-    override fun onRatProverMessage(controlMessage: InternalControlMessage) {
-        processRatProverEvent(Event(controlMessage))
-    }
-
     /**
      * API for RatProver to provide Prover Messages to the fsm
      *
@@ -191,33 +289,28 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
      *
      * Afterwards the fsm lock is requested
      *
-     * When the RatProverThread does not match the active prover tread id, the event will be
+     * When the listener does not belong to the active prover driver, the event will be
      * ignored, else the event is provided to the fsm
      */
-    private fun processRatProverEvent(e: Event) {
+    private fun processRatProverEvent(listener: RatDriverListener, e: Event) {
         //check for incorrect usage
         checkForFsmCycles()
 
         fsmIsBusy.lock()
         try {
-            if (Thread.currentThread().id.toString() == currentRatProverId) {
+            if (listener === ratProverListener) {
+                if (e.key == InternalControlMessage.RAT_PROVER_OK.value) {
+                    handshakeTimings.end(HandshakePhase.RAT_PROVER)
+                }
                 feedEvent(e)
-            } else {
-                LOG.error("An old or unknown Thread (${Thread.currentThread().id}) calls onRatProverMessage()")
+            } else if (LOG.isDebugEnabled) {
+                LOG.debug("Ignore {} of a terminated RAT prover driver", e.key)
             }
         } finally {
             fsmIsBusy.unlock()
         }
     }
 
-    override fun onRatVerifierMessage(controlMessage: InternalControlMessage, ratMessage: ByteArray) {
-        processRatVerifierEvent(Event(controlMessage, Idscp2MessageHelper.createIdscpRatVerifierMessage(ratMessage)))
-    }
-
-    override fun onRatVerifierMessage(controlMessage: InternalControlMessage) {
-        processRatVerifierEvent(Event(controlMessage))
-    }
-
     /**
      * API for RatVerifier to provide Verifier Messages to the fsm
      *
@@ -226,25 +319,55 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
      *
      * Afterwards the fsm lock is requested
      *
-     * When the RatVerifierDriver does not match the active verifier thread id, the event will be
+     * When the listener does not belong to the active verifier driver, the event will be
      * ignored, else the event is provided to the fsm
      */
-    private fun processRatVerifierEvent(e: Event) {
+    private fun processRatVerifierEvent(listener: RatDriverListener, e: Event) {
         //check for incorrect usage
         checkForFsmCycles()
 
         fsmIsBusy.lock()
         try {
-            if (Thread.currentThread().id.toString() == currentRatVerifierId) {
+            if (listener === ratVerifierListener) {
+                if (e.key == InternalControlMessage.RAT_VERIFIER_OK.value) {
+                    handshakeTimings.end(HandshakePhase.RAT_VERIFIER)
+                }
                 feedEvent(e)
-            } else {
-                LOG.error("An old or unknown Thread (${Thread.currentThread().id}) calls onRatVerifierMessage()")
+            } else if (LOG.isDebugEnabled) {
+                LOG.debug("Ignore {} of a terminated RAT verifier driver", e.key)
             }
         } finally {
             fsmIsBusy.unlock()
         }
     }
 
+    /**
+     * The RatListener that is passed to a single RAT driver instance
+     *
+     * RAT drivers run on a shared pool, hence they are identified by their listener instead of a
+     * thread. Once the driver has been stopped or restarted, its listener is not active anymore and
+     * all of its events are ignored.
+     */
+    private inner class RatDriverListener : RatListener {
+        override fun onRatProverMessage(controlMessage: InternalControlMessage) {
+            processRatProverEvent(this, Event(controlMessage))
+        }
+
+        override fun onRatProverMessage(controlMessage: InternalControlMessage, ratMessage: ByteArray) {
+            processRatProverEvent(this,
+                    Event(controlMessage, Idscp2MessageHelper.createIdscpRatProverMessage(ratMessage)))
+        }
+
+        override fun onRatVerifierMessage(controlMessage: InternalControlMessage) {
+            processRatVerifierEvent(this, Event(controlMessage))
+        }
+
+        override fun onRatVerifierMessage(controlMessage: InternalControlMessage, ratMessage: ByteArray) {
+            processRatVerifierEvent(this,
+                    Event(controlMessage, Idscp2MessageHelper.createIdscpRatVerifierMessage(ratMessage)))
+        }
+    }
+
     /**
      * Feed the event to the current state and execute the runEntry method if the state has changed
      */
@@ -287,6 +410,7 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
                 }
 
                 // trigger handshake init
+                handshakeTimings.start(HandshakePhase.IDSCP_HANDSHAKE)
                 onControlMessage(InternalControlMessage.START_IDSCP_HANDSHAKE)
 
                 // wait until handshake was successful or failed
@@ -344,26 +468,140 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
 
     /**
      * Send idscp message from the User via the secure channel
+     *
+     * @return true if the message has been passed to the secure channel
      */
-    fun send(msg: ByteArray?) {
+    fun send(msg: ByteArray?): Boolean {
         // Send messages from user only when idscp connection is established
         idscpHandshakeCompletedLatch.await()
+        // compress and serialize outside of the fsm lock
+        val bytes = createIdscpDataMessage(msg).toByteArray()
+        // the read lock prevents state transitions during the send, but allows concurrent senders
+        val readLock = fsmLock.readLock()
+        readLock.lock()
+        val sent = try {
+            if (!isConnected) {
+                LOG.error("Cannot send IDSCP_DATA because connection is not established")
+                return false
+            }
+            secureChannel.send(bytes)
+        } finally {
+            readLock.unlock()
+        }
+        if (!sent) {
+            // the error event requires the write lock, which cannot be acquired while holding the read lock
+            LOG.error("Cannot send IDSCP_DATA via secure channel")
+            onControlMessage(InternalControlMessage.ERROR)
+        }
+        return sent
+    }
+
+    private fun createIdscpDataMessage(msg: ByteArray?): IdscpMessage {
+        val codec = compression
+        if (codec != null && msg != null && msg.size >= compressionThreshold) {
+            PayloadCompression.compress(codec, msg)?.let {
+                return Idscp2MessageHelper.createIdscpDataMessage(it, codec)
+            }
+        }
+        return Idscp2MessageHelper.createIdscpDataMessage(msg)
+    }
+
+    /**
+     * Get the payload of an IDSCP_DATA message, decompressed if necessary
+     *
+     * throws Idscp2Exception if the payload is compressed with another codec than the one agreed on
+     * during the handshake or if it cannot be decompressed
+     */
+    fun getIdscpDataPayload(data: IdscpData): ByteArray {
+        if (data.compression.isEmpty()) {
+            return data.data.toByteArray()
+        }
+        if (data.compression != compression) {
+            throw Idscp2Exception("IDSCP_DATA compressed with codec '${data.compression}', which has not " +
+                    "been agreed on (agreed: ${compression ?: "none"})")
+        }
+        return PayloadCompression.decompress(data.compression, data.data)
+    }
+
+    /**
+     * Start the verification of the DAT of the peer on the worker pool, such that the RAT drivers
+     * can run concurrently. The result is provided to the fsm via the ICMs DAT_VERIFICATION_OK
+     * and DAT_VERIFICATION_FAILED, the connection cannot be established before the DAT is valid.
+     *
+     * Must be called within a transition
+     */
+    fun startDatVerification(dat: ByteArray) {
+        val verificationId = ++datVerificationId
+        datVerificationPending = true
+        handshakeTimings.start(HandshakePhase.DAT_VERIFICATION)
+        CompletableFuture.supplyAsync(Supplier { dapsDriver.verifyToken(dat, null) }, Idscp2Executors.worker)
+                .whenComplete { validityPeriod: Long?, t: Throwable? ->
+                    if (t != null) {
+                        LOG.error("DAT verification failed with an exception", t)
+                    }
+                    onDatVerificationResult(verificationId, validityPeriod ?: -1)
+                }
+    }
+
+    private fun onDatVerificationResult(verificationId: Int, validityPeriod: Long) {
         fsmIsBusy.lock()
         try {
-            if (isConnected) {
-                val idscpMessage = Idscp2MessageHelper.createIdscpDataMessage(msg)
-                if (!secureChannel.send(idscpMessage.toByteArray())) {
-                    LOG.error("Cannot send IDSCP_DATA via secure channel")
-                    onControlMessage(InternalControlMessage.ERROR)
-                }
+            if (verificationId != datVerificationId || !datVerificationPending
+                    || currentState == states[FsmState.STATE_CLOSED]) {
+                return
+            }
+            datVerificationPending = false
+            if (validityPeriod < 0) {
+                feedEvent(Event(InternalControlMessage.DAT_VERIFICATION_FAILED))
             } else {
-                LOG.error("Cannot send IDSCP_DATA because connection is not established")
+                handshakeTimings.end(HandshakePhase.DAT_VERIFICATION)
+                LOG.debug("Remote DAT is valid. Set dat timeout to its validity period")
+                datTimer.resetTimeout(validityPeriod)
+                feedEvent(Event(InternalControlMessage.DAT_VERIFICATION_OK))
             }
         } finally {
             fsmIsBusy.unlock()
         }
     }
 
+    /**
+     * Buffer IDSCP_DATA that has been received before the DAT of the peer has been verified
+     *
+     * @return false if too much data has been buffered already
+     */
+    fun bufferEarlyData(data: ByteArray): Boolean {
+        if (earlyData.size >= MAX_EARLY_DATA) {
+            return false
+        }
+        earlyData.add(data)
+        return true
+    }
+
+    /**
+     * Deliver the buffered IDSCP_DATA to the connection, called when entering STATE_ESTABLISHED
+     */
+    fun deliverEarlyData() {
+        if (earlyData.isEmpty()) {
+            return
+        }
+        LOG.debug("Deliver {} messages that have been received before the DAT was verified", earlyData.size)
+        earlyData.forEach { notifyIdscpMsgListener(it) }
+        earlyData.clear()
+    }
+
+    /**
+     * Get the state after the RAT prover and verifier have succeeded, which is STATE_ESTABLISHED
+     * or STATE_WAIT_FOR_DAT_VERIFICATION while the DAT of the peer is still verified
+     */
+    fun getStateAfterRat(): State? {
+        if (datVerificationPending) {
+            LOG.debug("RAT done, wait for DAT verification")
+            handshakeTimer.resetTimeout(5)
+            return states[FsmState.STATE_WAIT_FOR_DAT_VERIFICATION]
+        }
+        return stateEstablished
+    }
+
     /**
      * Check if FSM is in STATE ESTABLISHED
      */
@@ -413,14 +651,15 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
     fun restartRatVerifierDriver(): Boolean {
         //assume verifier mechanism is set
         stopRatVerifierDriver()
-        ratVerifierDriver = RatVerifierDriverRegistry.startRatVerifierDriver(verifierMechanism, this)
+        val listener = RatDriverListener()
+        ratVerifierListener = listener
+        ratVerifierDriver = RatVerifierDriverRegistry.startRatVerifierDriver(verifierMechanism, listener)
         return if (ratVerifierDriver == null) {
             LOG.error("Cannot create instance of RAT_VERIFIER_DRIVER")
-            currentRatVerifierId = ""
+            ratVerifierListener = null
             false
         } else {
-            //safe the thread ID
-            currentRatVerifierId = ratVerifierDriver!!.id.toString()
+            handshakeTimings.start(HandshakePhase.RAT_VERIFIER)
             LOG.debug("Start verifier_handshake timeout")
             verifierHandshakeTimer.resetTimeout(5)
             true
@@ -432,12 +671,8 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
      */
     fun stopRatVerifierDriver() {
         verifierHandshakeTimer.cancelTimeout()
-        ratVerifierDriver?.let {
-            if (it.isAlive) {
-                it.interrupt()
-                it.terminate()
-            }
-        }
+        ratVerifierListener = null
+        ratVerifierDriver?.terminate()
     }
 
     /**
@@ -449,29 +684,64 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
     fun restartRatProverDriver(): Boolean {
         //assume prover mechanism is set
         stopRatProverDriver()
-        ratProverDriver = RatProverDriverRegistry.startRatProverDriver(proverMechanism, this)
+        val listener = RatDriverListener()
+        ratProverListener = listener
+        ratProverDriver = RatProverDriverRegistry.startRatProverDriver(proverMechanism, listener)
         return if (ratProverDriver == null) {
             LOG.error("Cannot create instance of RAT_PROVER_DRIVER")
-            currentRatProverId = ""
+            ratProverListener = null
             false
         } else {
-            //safe the thread ID
-            currentRatProverId = ratProverDriver!!.id.toString()
+            handshakeTimings.start(HandshakePhase.RAT_PROVER)
             LOG.debug("Start prover_handshake timeout")
             proverHandshakeTimer.resetTimeout(5)
             true
         }
     }
 
+    /**
+     * Start the RAT timer with the RAT timeout, shifted randomly by up to ratTimeoutJitter in
+     * both directions
+     */
+    fun resetRatTimer() {
+        val delay = TimeUnit.SECONDS.toMillis(ratTimeout)
+        ratTimer.resetTimeout(jitter(delay, ratTimeoutJitter), TimeUnit.MILLISECONDS)
+    }
+
+    /*
+     * Called by the RAT timer, the re-attestation is delayed if too many re-attestations are
+     * running in this process
+     */
+    private fun onRatTimeout() {
+        if (holdsReRatPermit || reRatLimiter.tryAcquire()) {
+            holdsReRatPermit = true
+            onControlMessage(InternalControlMessage.REPEAT_RAT)
+        } else {
+            if (LOG.isDebugEnabled) {
+                LOG.debug("Too many concurrent re-attestations, delay RAT of connection {}", connection.id)
+            }
+            ratTimer.resetTimeout(jitter(RE_RAT_RETRY_DELAY, 0.5), TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /**
+     * Finish a re-attestation that has been admitted by the ReRatLimiter, called when the
+     * connection is established again or closed
+     */
+    fun releaseReRatPermit() {
+        if (holdsReRatPermit) {
+            holdsReRatPermit = false
+            reRatLimiter.release()
+        }
+    }
+
     /**
      * Terminate the RatProverDriver
      */
     fun stopRatProverDriver() {
         proverHandshakeTimer.cancelTimeout()
-        if (ratProverDriver != null && ratProverDriver!!.isAlive) {
-            ratProverDriver!!.interrupt()
-            ratProverDriver!!.terminate()
-        }
+        ratProverListener = null
+        ratProverDriver?.terminate()
     }
 
     /**
@@ -501,6 +771,8 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
         stopRatProverDriver()
         // Cancels verifierHandshakeTimer
         stopRatVerifierDriver()
+        releaseReRatPermit()
+        earlyData.clear()
         if (LOG.isTraceEnabled) {
             LOG.trace("Mark FSM as terminated...")
         }
@@ -516,7 +788,8 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
     }
 
     /**
-     * Provide IDSCP2 message to the message listener
+     * Provide IDSCP2 message to the message listener, the connection only queues the message such
+     * that slow listeners do not block the fsm
      */
     fun notifyIdscpMsgListener(data: ByteArray) {
         connection.onMessage(data)
@@ -537,8 +810,28 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
         this.verifierMechanism = verifierMechanism
     }
 
+    fun setCompression(compression: String?) {
+        if (LOG.isDebugEnabled) {
+            LOG.debug("Payload compression of connection {}: {}", connection.id, compression ?: "none")
+        }
+        this.compression = compression
+    }
+
     companion object {
         private val LOG = LoggerFactory.getLogger(FSM::class.java)
+        private const val RE_RAT_RETRY_DELAY = 1000L
+        private const val MAX_EARLY_DATA = 1024
+
+        /*
+         * Shift the delay randomly by up to the given fraction in both directions
+         */
+        private fun jitter(delay: Long, fraction: Double): Long {
+            if (fraction <= 0.0 || delay <= 0) {
+                return delay
+            }
+            val shift = (delay * fraction).toLong()
+            return delay - shift + ThreadLocalRandom.current().nextLong(2 * shift + 1)
+        }
     }
 
     init {
@@ -552,7 +845,7 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
         }
         val ratTimeoutHandler = Runnable {
             LOG.debug("RAT_TIMER_EXPIRED")
-            onControlMessage(InternalControlMessage.REPEAT_RAT)
+            onRatTimeout()
         }
         val proverTimeoutHandler = Runnable {
             LOG.debug("RAT_PROVER_HANDSHAKE_TIMER_EXPIRED")
@@ -570,21 +863,23 @@ class FSM(connection: Idscp2Connection, secureChannel: SecureChannel, dapsDriver
 
         /* ------------- FSM STATE Initialization -------------*/
         states[FsmState.STATE_CLOSED] = StateClosed(
-                this, dapsDriver, onMessageBlock, localSupportedRatSuite, localExpectedRatSuite)
+                this, dapsDriver, onMessageBlock, localSupportedRatSuite, localExpectedRatSuite, localSupportedCompression)
         states[FsmState.STATE_WAIT_FOR_HELLO] = StateWaitForHello(
-                this, handshakeTimer, datTimer, dapsDriver, localSupportedRatSuite, localExpectedRatSuite)
+                this, handshakeTimer, localSupportedRatSuite, localExpectedRatSuite, localSupportedCompression)
         states[FsmState.STATE_WAIT_FOR_RAT] = StateWaitForRat(
-                this, handshakeTimer, verifierHandshakeTimer, proverHandshakeTimer, ratTimer, ratTimeout, dapsDriver)
+                this, handshakeTimer, verifierHandshakeTimer, proverHandshakeTimer, dapsDriver)
         states[FsmState.STATE_WAIT_FOR_RAT_PROVER] = StateWaitForRatProver(
                 this, ratTimer, handshakeTimer, proverHandshakeTimer, dapsDriver)
         states[FsmState.STATE_WAIT_FOR_RAT_VERIFIER] = StateWaitForRatVerifier(
-                this, dapsDriver, ratTimer, handshakeTimer, verifierHandshakeTimer, ratTimeout)
+                this, dapsDriver, handshakeTimer, verifierHandshakeTimer)
         states[FsmState.STATE_WAIT_FOR_DAT_AND_RAT] = StateWaitForDatAndRat(
                 this, handshakeTimer, proverHandshakeTimer, datTimer, dapsDriver)
         states[FsmState.STATE_WAIT_FOR_DAT_AND_RAT_VERIFIER] = StateWaitForDatAndRatVerifier(
                 this, handshakeTimer, datTimer, dapsDriver)
-        states[FsmState.STATE_ESTABLISHED] = StateEstablished(
-                this, dapsDriver, ratTimer, handshakeTimer)
+        states[FsmState.STATE_WAIT_FOR_DAT_VERIFICATION] = StateWaitForDatVerification(
+                this, handshakeTimer, ratTimer, dapsDriver)
+        stateEstablished = StateEstablished(this, dapsDriver, ratTimer, handshakeTimer)
+        states[FsmState.STATE_ESTABLISHED] = stateEstablished
 
         // Set initial state
         currentState = states[FsmState.STATE_CLOSED]
@@ -1,8 +1,10 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.fsm
 
+import java.nio.ByteBuffer
+
 /**
- * An FSM Listener Interface implemented by the FSM to restrict FSM API to the drivers and the
- * secure channel class of the IDSCP2
+ * An FSM Listener Interface implemented by the FSM to restrict FSM API to the secure channel class
+ * of the IDSCP2, RAT drivers report to the FSM via the RatListener
  *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
@@ -13,17 +15,10 @@ interface FsmListener {
     fun onMessage(data: ByteArray)
 
     /*
-     * A method for providing RatProver messages from the RatProverDriver implementation to the FSM
-     */
-    fun onRatProverMessage(controlMessage: InternalControlMessage)
-    fun onRatProverMessage(controlMessage: InternalControlMessage, ratMessage: ByteArray)
-
-    /*
-     * A method for providing RatVerifier messages from the RatVerifierDriver implementation to the
-     * FSM
+     * Same as onMessage(ByteArray), but the buffer is only valid until the call returns
+     * and might be reused by the secure channel afterwards
      */
-    fun onRatVerifierMessage(controlMessage: InternalControlMessage)
-    fun onRatVerifierMessage(controlMessage: InternalControlMessage, ratMessage: ByteArray)
+    fun onMessage(data: ByteBuffer)
 
     /*
      * A method for providing internal errors to the fsm
@@ -20,6 +20,8 @@ enum class InternalControlMessage(
     RAT_PROVER_FAILED("ICM_RAT_P_FAILED"),
     RAT_PROVER_MSG("ICM_RAT_PROVER_MSG"),
     RAT_VERIFIER_MSG("ICM_RAT_VERIFIER_MSG"),
+    DAT_VERIFICATION_OK("ICM_DAT_V_OK"),
+    DAT_VERIFICATION_FAILED("ICM_DAT_V_FAILED"),
     ERROR("ICM_ERROR"),
     TIMEOUT("ICM_TIMEOUT");
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.fsm
+
+/**
+ * A Listener Interface that is passed by the FSM to a single RAT driver instance, to provide the
+ * results of the RatProverDriver and RatVerifierDriver implementations to the FSM
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+interface RatListener {
+    /*
+     * A method for providing RatProver messages from the RatProverDriver implementation to the FSM
+     */
+    fun onRatProverMessage(controlMessage: InternalControlMessage)
+    fun onRatProverMessage(controlMessage: InternalControlMessage, ratMessage: ByteArray)
+
+    /*
+     * A method for providing RatVerifier messages from the RatVerifierDriver implementation to the
+     * FSM
+     */
+    fun onRatVerifierMessage(controlMessage: InternalControlMessage)
+    fun onRatVerifierMessage(controlMessage: InternalControlMessage, ratMessage: ByteArray)
+}
@@ -0,0 +1,46 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.fsm
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Semaphore
+
+/**
+ * Limits the number of re-attestations that are triggered concurrently by the RAT timers of all
+ * IDSCP2 connections of this process, such that connections that have been established together
+ * do not overload the TPM daemon and the peers when their RAT timers expire
+ *
+ * The limit is configured via Idscp2Settings.Builder.setMaxConcurrentReRats(), connections with the
+ * same limit share one limiter. A value of zero or less disables the limit. Re-attestations
+ * requested by the peer are not limited.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class ReRatLimiter private constructor(private val maxConcurrentReRats: Int) {
+    private val permits = Semaphore(maxOf(maxConcurrentReRats, 0))
+
+    /*
+     * Try to start a re-attestation, returns false if the limit is reached
+     */
+    fun tryAcquire(): Boolean {
+        return maxConcurrentReRats <= 0 || permits.tryAcquire()
+    }
+
+    /*
+     * Finish a re-attestation that was started via tryAcquire()
+     */
+    fun release() {
+        if (maxConcurrentReRats > 0) {
+            permits.release()
+        }
+    }
+
+    companion object {
+        private val limiters = ConcurrentHashMap<Int, ReRatLimiter>()
+
+        /*
+         * Get the shared limiter for the given maximum number of concurrent re-attestations
+         */
+        fun forLimit(maxConcurrentReRats: Int): ReRatLimiter {
+            return limiters.computeIfAbsent(maxOf(maxConcurrentReRats, 0)) { ReRatLimiter(it) }
+        }
+    }
+}
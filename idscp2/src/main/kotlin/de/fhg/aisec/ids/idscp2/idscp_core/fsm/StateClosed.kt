@@ -3,6 +3,7 @@ package de.fhg.aisec.ids.idscp2.idscp_core.fsm
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
 import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper
 import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FSM.FsmState
+import de.fhg.aisec.ids.idscp2.idscp_core.metrics.HandshakePhase
 import org.slf4j.LoggerFactory
 import java.util.*
 import java.util.concurrent.locks.Condition
@@ -25,7 +26,8 @@ internal class StateClosed(fsm: FSM,
                            dapsDriver: DapsDriver,
                            onMessageLock: Condition,
                            localSupportedRatSuite: Array<String>,
-                           localExpectedRatSuite: Array<String>) : State() {
+                           localExpectedRatSuite: Array<String>,
+                           localSupportedCompression: Array<String>) : State() {
     private fun runExitCode(onMessageLock: Condition) {
         //State Closed exit code
         onMessageLock.signalAll() //enables fsm.onMessage()
@@ -52,15 +54,19 @@ internal class StateClosed(fsm: FSM,
          * --------------------------------------------------- */
         addTransition(InternalControlMessage.START_IDSCP_HANDSHAKE.value, Transition(Function {
             LOG.debug("Get DAT Token vom DAT_DRIVER")
+            fsm.handshakeTimings.start(HandshakePhase.DAT_REQUEST)
             val dat = dapsDriver.token
+            fsm.handshakeTimings.end(HandshakePhase.DAT_REQUEST)
             LOG.debug("Send IDSCP_HELLO")
-            val idscpHello = Idscp2MessageHelper.createIdscpHelloMessage(dat, localSupportedRatSuite, localExpectedRatSuite)
+            val idscpHello = Idscp2MessageHelper.createIdscpHelloMessage(dat, localSupportedRatSuite,
+                    localExpectedRatSuite, localSupportedCompression)
             if (!fsm.sendFromFSM(idscpHello)) {
                 LOG.error("Cannot send IdscpHello. Close connection")
                 runEntryCode(fsm)
                 onMessageLock.signalAll()
                 return@Function fsm.getState(FsmState.STATE_CLOSED)
             }
+            fsm.handshakeTimings.start(HandshakePhase.IDSCP_HELLO)
             runExitCode(onMessageLock)
             fsm.getState(FsmState.STATE_WAIT_FOR_HELLO)
         }))
@@ -1,6 +1,7 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.fsm
 
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception
 import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper
 import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FSM.FsmState
 import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpClose.CloseCause
@@ -20,6 +21,9 @@ class StateEstablished(fsm: FSM,
                        handshakeTimer: Timer) : State() {
     override fun runEntryCode(fsm: FSM) {
         LOG.debug("Switched to state STATE_ESTABLISHED")
+        fsm.handshakeTimings.complete()
+        fsm.releaseReRatPermit()
+        fsm.deliverEarlyData()
         fsm.notifyHandshakeCompleteLock()
     }
 
@@ -38,7 +42,8 @@ class StateEstablished(fsm: FSM,
          * onICM: re_rat ---> {send IDSCP_RE_RAT, start RAT_VERIFIER} ---> STATE_WAIT_FOR_RAT_VERIFIER
          * //onICM: send_data ---> {send IDS_DATA} ---> STATE_ESTABLISHED
          * onICM: dat_timeout ---> {send IDSCP_DAT_EXPIRED} ---> STATE_WAIT_FOR_DAT_AND_RAT_VERIFIER
-         * onMessage: IDSCP_DATA ---> {delegate to connection} ---> STATE_ESTABLISHED
+         * onMessage: IDSCP_DATA ---> {decompress, delegate to connection} ---> STATE_ESTABLISHED
+         * onMessage: IDSCP_DATA (invalid compression) ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
          * onMessage: IDSCP_RERAT ---> {start RAT_PROVER} ---> STATE_WAIT_FOR_RAT_PROVER
          * onMessage: IDSCP_DAT_EXPIRED ---> {send IDSCP_DAT, start RAT_PROVER} ---> STATE_WAIT_FOR_RAT_PROVER
          * onMessage: IDSCP_CLOSE ---> {timeouts.cancel()} ---> STATE_CLOSED
@@ -106,11 +111,20 @@ class StateEstablished(fsm: FSM,
                     fsm.getState(FsmState.STATE_WAIT_FOR_RAT_PROVER)
                 }
         ))
-        addTransition(IdscpMessage.IDSCPDATA_FIELD_NUMBER, Transition { event: Event ->
-            val data = event.idscpMessage.idscpData
-            fsm.notifyIdscpMsgListener(data.data.toByteArray())
-            this
-        })
+        addTransition(IdscpMessage.IDSCPDATA_FIELD_NUMBER, Transition(
+                Function { event: Event ->
+                    val payload = try {
+                        fsm.getIdscpDataPayload(event.idscpMessage.idscpData)
+                    } catch (e: Idscp2Exception) {
+                        LOG.error("Received invalid IDSCP_DATA, close idscp connection", e)
+                        fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("Invalid IDSCP_DATA",
+                                CloseCause.ERROR))
+                        return@Function fsm.getState(FsmState.STATE_CLOSED)
+                    }
+                    fsm.notifyIdscpMsgListener(payload)
+                    this
+                }
+        ))
         addTransition(IdscpMessage.IDSCPCLOSE_FIELD_NUMBER, Transition {
             LOG.debug("Receive IDSCP_CLOSED")
             fsm.getState(FsmState.STATE_CLOSED)
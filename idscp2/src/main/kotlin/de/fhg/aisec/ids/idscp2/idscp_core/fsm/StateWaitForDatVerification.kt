@@ -0,0 +1,146 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.fsm
+
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FSM.FsmState
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpClose.CloseCause
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage
+import org.slf4j.LoggerFactory
+import java.util.function.Function
+
+/**
+ * The Wait_For_Dat_Verification State of the FSM of the IDSCP2 protocol.
+ * The RAT prover and verifier have succeeded, but the DAT of the peer, which is verified
+ * concurrently to the RAT, is not yet verified.
+ *
+ * The peer might already be established, IDSCP_DATA is buffered by the fsm until the DAT has been
+ * verified and delivered when entering STATE_ESTABLISHED
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class StateWaitForDatVerification(fsm: FSM,
+                                  handshakeTimer: Timer,
+                                  ratTimer: Timer,
+                                  dapsDriver: DapsDriver) : State() {
+    override fun runEntryCode(fsm: FSM) {
+        LOG.debug("Switched to state STATE_WAIT_FOR_DAT_VERIFICATION")
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(StateWaitForDatVerification::class.java)
+    }
+
+    init {
+
+
+        /*---------------------------------------------------
+         * STATE_WAIT_FOR_DAT_VERIFICATION - Transition Description
+         * ---------------------------------------------------
+         * onICM: stop ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
+         * onICM: error ---> {} ---> STATE_CLOSED
+         * onICM: timeout ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
+         * onICM: dat_verification_ok ---> {} ---> STATE_ESTABLISHED
+         * onICM: dat_verification_failed ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
+         * onICM: repeat_rat ---> {send IDSCP_RE_RAT, start RAT_VERIFIER} ---> STATE_WAIT_FOR_RAT_VERIFIER
+         * onMessage: IDSCP_CLOSE ---> {} ---> STATE_CLOSED
+         * onMessage: IDSCP_DATA ---> {buffer data} ---> STATE_WAIT_FOR_DAT_VERIFICATION
+         * onMessage: IDSCP_DAT_EXPIRED ---> {send IDSCP_DAT, start RAT_PROVER} ---> STATE_WAIT_FOR_RAT_PROVER
+         * onMessage: IDSCP_RE_RAT ---> {start RAT_PROVER} ---> STATE_WAIT_FOR_RAT_PROVER
+         * ALL_OTHER_MESSAGES ---> {} ---> STATE_WAIT_FOR_DAT_VERIFICATION
+         * --------------------------------------------------- */
+        addTransition(InternalControlMessage.IDSCP_STOP.value, Transition {
+            LOG.debug("Send IDSC_CLOSE")
+            fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("User close", CloseCause.USER_SHUTDOWN))
+            fsm.getState(FsmState.STATE_CLOSED)
+        })
+        addTransition(InternalControlMessage.ERROR.value, Transition {
+            LOG.debug("An internal control error occurred")
+            fsm.getState(FsmState.STATE_CLOSED)
+        })
+        addTransition(InternalControlMessage.TIMEOUT.value, Transition {
+            LOG.debug("Handshake timeout occurred. Send IDSCP_CLOSE")
+            fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("Handshake timeout",
+                    CloseCause.TIMEOUT))
+            fsm.getState(FsmState.STATE_CLOSED)
+        })
+        addTransition(InternalControlMessage.DAT_VERIFICATION_OK.value, Transition {
+            LOG.debug("Remote DAT is valid")
+            handshakeTimer.cancelTimeout()
+            fsm.getState(FsmState.STATE_ESTABLISHED)
+        })
+        addTransition(InternalControlMessage.DAT_VERIFICATION_FAILED.value, Transition {
+            LOG.debug("No valid remote DAT is available. Send IDSCP_CLOSE")
+            fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("No valid DAT",
+                    CloseCause.NO_VALID_DAT))
+            fsm.getState(FsmState.STATE_CLOSED)
+        })
+        addTransition(InternalControlMessage.REPEAT_RAT.value, Transition(
+                Function {
+                    LOG.debug("Request RAT repeat. Send IDSCP_RE_RAT, start RAT_VERIFIER")
+                    ratTimer.cancelTimeout()
+                    if (!fsm.sendFromFSM(Idscp2MessageHelper.createIdscpReRatMessage(""))) {
+                        LOG.error("Cannot send ReRat message")
+                        return@Function fsm.getState(FsmState.STATE_CLOSED)
+                    }
+                    if (!fsm.restartRatVerifierDriver()) {
+                        LOG.error("Cannot run Rat verifier, close idscp connection")
+                        return@Function fsm.getState(FsmState.STATE_CLOSED)
+                    }
+                    fsm.getState(FsmState.STATE_WAIT_FOR_RAT_VERIFIER)
+                }
+        ))
+        addTransition(IdscpMessage.IDSCPCLOSE_FIELD_NUMBER, Transition {
+            LOG.debug("Received IDSCP_CLOSE")
+            fsm.getState(FsmState.STATE_CLOSED)
+        })
+        addTransition(IdscpMessage.IDSCPDATA_FIELD_NUMBER, Transition(
+                Function { event: Event ->
+                    val payload = try {
+                        fsm.getIdscpDataPayload(event.idscpMessage.idscpData)
+                    } catch (e: Idscp2Exception) {
+                        LOG.error("Received invalid IDSCP_DATA, close idscp connection", e)
+                        fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("Invalid IDSCP_DATA",
+                                CloseCause.ERROR))
+                        return@Function fsm.getState(FsmState.STATE_CLOSED)
+                    }
+                    if (!fsm.bufferEarlyData(payload)) {
+                        LOG.error("Too much IDSCP_DATA before DAT verification, close idscp connection")
+                        fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("Handshake not completed",
+                                CloseCause.ERROR))
+                        return@Function fsm.getState(FsmState.STATE_CLOSED)
+                    }
+                    this
+                }
+        ))
+        addTransition(IdscpMessage.IDSCPDATEXPIRED_FIELD_NUMBER, Transition(
+                Function {
+                    LOG.debug("DAT expired. Send new DAT and repeat RAT")
+                    if (!fsm.sendFromFSM(Idscp2MessageHelper.createIdscpDatMessage(dapsDriver.token))) {
+                        LOG.error("Cannot send Dat message")
+                        return@Function fsm.getState(FsmState.STATE_CLOSED)
+                    }
+                    if (!fsm.restartRatProverDriver()) {
+                        LOG.error("Cannot run Rat prover, close idscp connection")
+                        return@Function fsm.getState(FsmState.STATE_CLOSED)
+                    }
+                    fsm.getState(FsmState.STATE_WAIT_FOR_RAT_PROVER)
+                }
+        ))
+        addTransition(IdscpMessage.IDSCPRERAT_FIELD_NUMBER, Transition(
+                Function {
+                    LOG.debug("Received IDSCP_RERAT. Start RAT_PROVER")
+                    if (!fsm.restartRatProverDriver()) {
+                        LOG.error("Cannot run Rat prover, close idscp connection")
+                        return@Function fsm.getState(FsmState.STATE_CLOSED)
+                    }
+                    fsm.getState(FsmState.STATE_WAIT_FOR_RAT_PROVER)
+                }
+        ))
+        setNoTransitionHandler { event: Event? ->
+            LOG.debug("No transition available for given event " + event.toString())
+            LOG.debug("Stay in state STATE_WAIT_FOR_DAT_VERIFICATION")
+            this
+        }
+    }
+}
@@ -1,8 +1,9 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.fsm
 
-import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
 import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper
+import de.fhg.aisec.ids.idscp2.idscp_core.PayloadCompression
 import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FSM.FsmState
+import de.fhg.aisec.ids.idscp2.idscp_core.metrics.HandshakePhase
 import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpClose.CloseCause
 import de.fhg.aisec.ids.idscp2.messages.IDSCP2.IdscpMessage
 import org.slf4j.LoggerFactory
@@ -14,16 +15,16 @@ import java.util.function.Function
  * expected remote attestation cipher suites and the dynamic attribute token (DAT) of the peer.
  *
  *
- * Goes into the WAIT_FOR_RAT State when valid Rat mechanisms were found and the DAT is valid
+ * Goes into the WAIT_FOR_RAT State when valid Rat mechanisms were found and a DAT is available, the DAT
+ * is verified concurrently to the RAT
  *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
 class StateWaitForHello(fsm: FSM,
                         private val handshakeTimer: Timer,
-                        datTimer: Timer,
-                        dapsDriver: DapsDriver,
                         localSupportedRatSuite: Array<String>,
-                        localExpectedRatSuite: Array<String>) : State() {
+                        localExpectedRatSuite: Array<String>,
+                        localSupportedCompression: Array<String>) : State() {
     override fun runEntryCode(fsm: FSM) {
         LOG.debug("Switched to state STATE_WAIT_FOR_HELLO")
         LOG.debug("Set handshake timeout to 5 seconds")
@@ -44,9 +45,9 @@ class StateWaitForHello(fsm: FSM,
          * onICM: timeout --> {send IDSCP_CLOSE} ---> STATE_CLOSED
          * onMessage: IDSCP_CLOSE---> {} ---> STATE_CLOSED
          * onMessage: IDSCP_HELLO (no rat match) ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
-         * onMessage: IDSCP_HELLO (invalid DAT) ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
-         * onMessage: IDSCP_HELLO (SUCCESS) ---> {verify DAT, match RAT, set DAT Timeout, start RAT P&V,
-         *                                        set handshake_timeout} ---> STATE_WAIT_FOR_RAT
+         * onMessage: IDSCP_HELLO (no DAT) ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
+         * onMessage: IDSCP_HELLO (SUCCESS) ---> {match RAT, agree on compression, start DAT verification,
+         *                                        start RAT P&V, set handshake_timeout} ---> STATE_WAIT_FOR_RAT
          * ALL_OTHER_MESSAGES ---> {} ---> STATE_WAIT_FOR_HELLO
          * --------------------------------------------------- */
         addTransition(InternalControlMessage.ERROR.value, Transition {
@@ -74,25 +75,24 @@ class StateWaitForHello(fsm: FSM,
                     handshakeTimer.cancelTimeout()
                     val idscpHello = event.idscpMessage.idscpHello
                     LOG.debug("Received IDSCP_HELLO")
+                    fsm.handshakeTimings.end(HandshakePhase.IDSCP_HELLO)
                     LOG.debug("Calculate Rat mechanisms")
                     val proverMechanism = fsm.getRatProverMechanism(localSupportedRatSuite,
                             idscpHello.expectedRatSuiteList.toTypedArray())
                     val verifierMechanism = fsm.getRatVerifierMechanism(localExpectedRatSuite,
                             idscpHello.supportedRatSuiteList.toTypedArray())
-                    LOG.debug("Verify received DAT")
-                    //check if Dat is available and verify dat
-                    var datValidityPeriod: Long = 0
-                    if (!idscpHello.hasDynamicAttributeToken() || 0 > dapsDriver
-                                    .verifyToken(idscpHello.dynamicAttributeToken.token.toByteArray(), null)
-                                    .also { datValidityPeriod = it }) {
-                        LOG.debug("No valid remote DAT is available. Send IDSCP_CLOSE")
+                    //check if Dat is available, it is verified concurrently to the RAT
+                    if (!idscpHello.hasDynamicAttributeToken()) {
+                        LOG.debug("No remote DAT is available. Send IDSCP_CLOSE")
                         fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("No valid DAT",
                                 CloseCause.NO_VALID_DAT))
                         return@Function fsm.getState(FsmState.STATE_CLOSED)
                     }
-                    LOG.debug("Remote DAT is valid. Set dat timeout to its validity period")
-                    datTimer.resetTimeout(datValidityPeriod)
+                    LOG.debug("Start verification of received DAT")
+                    fsm.startDatVerification(idscpHello.dynamicAttributeToken.token.toByteArray())
                     fsm.setRatMechanisms(proverMechanism, verifierMechanism)
+                    fsm.setCompression(PayloadCompression.negotiate(localSupportedCompression,
+                            idscpHello.supportedCompressionList))
                     LOG.debug("Start RAT Prover and Verifier")
                     if (!fsm.restartRatVerifierDriver()) {
                         LOG.error("Cannot run Rat verifier, close idscp connection")
@@ -20,8 +20,6 @@ class StateWaitForRat(fsm: FSM,
                       handshakeTimer: Timer,
                       verifierHandshakeTimer: Timer,
                       proverHandshakeTimer: Timer,
-                      ratTimer: Timer,
-                      ratTimerDelay: Long,
                       dapsDriver: DapsDriver) : State() {
     override fun runEntryCode(fsm: FSM) {
         LOG.debug("Switch to state STATE_WAIT_FOR_RAT")
@@ -47,6 +45,8 @@ class StateWaitForRat(fsm: FSM,
          * onICM: rat_verifier_msg ---> {send IDSCP_RAT_VERIFIER} ---> STATE_WAIT_FOR_RAT
          * onICM: dat_timeout ---> {send DAT_EXPIRED, ratV.cancel()} ---> STATE_WAIT_FOR_DAT_AND_RAT
          * onICM: handshake_timeout ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
+         * onICM: dat_verification_ok ---> {} ---> STATE_WAIT_FOR_RAT
+         * onICM: dat_verification_failed ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
          * onMessage: IDSCP_RAT_VERIFIER ---> {delegate to RAT_PROVER} ---> STATE_WAIT_FOR_RAT
          * onMessage: IDSCP_RAT_PROVER ---> {delegate to RAT_VERIFIER} ---> STATE_WAIT_FOR_RAT
          * onMessage: IDSCP_DAT_EXPIRED ---> {send DAT, ratP.restart()} ---> STATE_WAIT_FOR_RAT
@@ -71,7 +71,7 @@ class StateWaitForRat(fsm: FSM,
         addTransition(InternalControlMessage.RAT_VERIFIER_OK.value, Transition {
             LOG.debug("Received RAT_VERIFIER OK")
             verifierHandshakeTimer.cancelTimeout()
-            ratTimer.resetTimeout(ratTimerDelay)
+            fsm.resetRatTimer()
             fsm.getState(FsmState.STATE_WAIT_FOR_RAT_PROVER)
         })
         addTransition(InternalControlMessage.RAT_PROVER_FAILED.value, Transition {
@@ -127,6 +127,16 @@ class StateWaitForRat(fsm: FSM,
                     CloseCause.TIMEOUT))
             fsm.getState(FsmState.STATE_CLOSED)
         })
+        addTransition(InternalControlMessage.DAT_VERIFICATION_OK.value, Transition {
+            LOG.debug("Remote DAT is valid, wait for RAT")
+            this
+        })
+        addTransition(InternalControlMessage.DAT_VERIFICATION_FAILED.value, Transition {
+            LOG.debug("No valid remote DAT is available. Send IDSCP_CLOSE")
+            fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("No valid DAT",
+                    CloseCause.NO_VALID_DAT))
+            fsm.getState(FsmState.STATE_CLOSED)
+        })
         addTransition(IdscpMessage.IDSCPRATVERIFIER_FIELD_NUMBER, Transition { event: Event ->
             LOG.debug("Delegate received IDSCP_RAT_VERIFIER to RAT_PROVER")
             assert(event.idscpMessage.hasIdscpRatVerifier())
@@ -37,8 +37,10 @@ class StateWaitForRatProver(fsm: FSM,
          * onICM: stop ---> {send IDSCP_CLOSE, stop RAT_PROVER, timeouts.terminate()} ---> STATE_CLOSED
          * onICM: error ---> {stop RAT_PROVER} ---> STATE_CLOSED
          * onICM: timeout ---> {send IDSCP_CLOSE, stop RAT_PROVER} ---> STATE_CLOSED
+         * onICM: dat_verification_ok ---> {} ---> STATE_WAIT_FOR_RAT_PROVER
+         * onICM: dat_verification_failed ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
          * onICM: dat_timeout ---> {send IDSCP_DAT_EXPIRED} ---> STATE_WAIT_FOR_DAT_AND_RAT
-         * onICM: rat_prover_ok ---> {} ---> STATE_ESTABLISHED
+         * onICM: rat_prover_ok ---> {} ---> STATE_ESTABLISHED or STATE_WAIT_FOR_DAT_VERIFICATION
          * onICM: rat_prover_failed ---> {send IDSCP_CLOSE, terminate ratP, cancel timeouts} ---> STATE_CLOSED
          * onICM: rat_prover_msg ---> {send IDSCP_RAT_PROVER} ---> STATE_WAIT_FOR_RAT_PROVER
          * onICM: repeat_rat ---> {send IDSCP_RE_RAT, start RAT_VERIFIER} ---> STATE_WAIT_FOR_RAT
@@ -63,6 +65,16 @@ class StateWaitForRatProver(fsm: FSM,
                     CloseCause.TIMEOUT))
             fsm.getState(FsmState.STATE_CLOSED)
         })
+        addTransition(InternalControlMessage.DAT_VERIFICATION_OK.value, Transition {
+            LOG.debug("Remote DAT is valid, wait for RAT")
+            this
+        })
+        addTransition(InternalControlMessage.DAT_VERIFICATION_FAILED.value, Transition {
+            LOG.debug("No valid remote DAT is available. Send IDSCP_CLOSE")
+            fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("No valid DAT",
+                    CloseCause.NO_VALID_DAT))
+            fsm.getState(FsmState.STATE_CLOSED)
+        })
         addTransition(InternalControlMessage.DAT_TIMER_EXPIRED.value, Transition(
                 Function {
                     LOG.debug("DAT timeout occurred. Send IDSCP_DAT_EXPIRED")
@@ -79,7 +91,7 @@ class StateWaitForRatProver(fsm: FSM,
         addTransition(InternalControlMessage.RAT_PROVER_OK.value, Transition {
             LOG.debug("Received RAT_PROVER OK")
             proverHandshakeTimer.cancelTimeout()
-            fsm.getState(FsmState.STATE_ESTABLISHED)
+            fsm.getStateAfterRat()
         })
         addTransition(InternalControlMessage.RAT_PROVER_FAILED.value, Transition {
             LOG.error("RAT_PROVER failed")
@@ -17,10 +17,8 @@ import java.util.function.Function
  */
 class StateWaitForRatVerifier(fsm: FSM,
                               dapsDriver: DapsDriver,
-                              ratTimer: Timer,
                               handshakeTimer: Timer,
-                              verifierHandshakeTimer: Timer,
-                              ratTimeoutDelay: Long) : State() {
+                              verifierHandshakeTimer: Timer) : State() {
     override fun runEntryCode(fsm: FSM) {
         LOG.debug("Switched to state STATE_WAIT_FOR_RAT_VERIFIER")
     }
@@ -38,7 +36,9 @@ class StateWaitForRatVerifier(fsm: FSM,
          * onICM: close ---> {send IDSCP_CLOSE, stop RAT_VERIFIER} ---> STATE_CLOSED
          * onICM: dat_timeout ---> {send IDSCP_DAT_EXPIRED, cancel ratV} ---> STATE_WAIT_FOR_DAT_AND_RAT_VERIFIER
          * onICM: timeout ---> {send IDSCP_CLOSE, stop RAT_VERIFIER} ---> STATE_CLOSED
-         * onICM: rat_verifier_ok ---> {set rat timeout} ---> STATE_ESTABLISHED
+         * onICM: dat_verification_ok ---> {} ---> STATE_WAIT_FOR_RAT_VERIFIER
+         * onICM: dat_verification_failed ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
+         * onICM: rat_verifier_ok ---> {set rat timeout} ---> STATE_ESTABLISHED or STATE_WAIT_FOR_DAT_VERIFICATION
          * onICM: rat_verifier_failed ---> {send IDSCP_CLOSE} ---> STATE_CLOSED
          * onICM: rat_verifier_msg ---> {send IDSCP_RAT_VERIFIER} ---> STATE_WAIT_FOR_RAT_VERIFIER
          * onMessage: IDSCP_DAT_EXPIRED ---> {send IDSCP_DAT, start RAT_PROVER} ---> STATE_WAIT_FOR_RAT
@@ -62,6 +62,16 @@ class StateWaitForRatVerifier(fsm: FSM,
             fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("Handshake timeout", CloseCause.TIMEOUT))
             fsm.getState(FsmState.STATE_CLOSED)
         })
+        addTransition(InternalControlMessage.DAT_VERIFICATION_OK.value, Transition {
+            LOG.debug("Remote DAT is valid, wait for RAT")
+            this
+        })
+        addTransition(InternalControlMessage.DAT_VERIFICATION_FAILED.value, Transition {
+            LOG.debug("No valid remote DAT is available. Send IDSCP_CLOSE")
+            fsm.sendFromFSM(Idscp2MessageHelper.createIdscpCloseMessage("No valid DAT",
+                    CloseCause.NO_VALID_DAT))
+            fsm.getState(FsmState.STATE_CLOSED)
+        })
         addTransition(InternalControlMessage.DAT_TIMER_EXPIRED.value, Transition(
                 Function {
                     LOG.debug("DAT timeout occurred. Send IDSCP_DAT_EXPIRED and stop RAT_VERIFIER")
@@ -79,8 +89,8 @@ class StateWaitForRatVerifier(fsm: FSM,
             LOG.debug("Received RAT_VERIFIER OK")
             verifierHandshakeTimer.cancelTimeout()
             LOG.debug("Start RAT Timer")
-            ratTimer.resetTimeout(ratTimeoutDelay)
-            fsm.getState(FsmState.STATE_ESTABLISHED)
+            fsm.resetRatTimer()
+            fsm.getStateAfterRat()
         })
         addTransition(InternalControlMessage.RAT_VERIFIER_FAILED.value, Transition {
             LOG.error("RAT_VERIFIER failed")
@@ -1,40 +1,102 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.fsm
 
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.Lock
 import java.util.concurrent.locks.ReentrantLock
 
 /**
- * A Timer class that provides an API to the FSN to start and cancel timeout threads
+ * A Timer class that provides an API to the FSN to start and cancel timeouts
  * The timer ensures that no canceled timer is able to trigger a timeout transitions
  *
+ * Timeouts are scheduled on the shared IDSCP2 scheduler and run on the bounded timeout pool, where
+ * an expired timeout waits for the fair fsm lock, such that it fires even under a steady stream of events
+ *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
-class Timer internal constructor(private val fsmIsBusy: ReentrantLock, private val timeoutHandler: Runnable) {
-    private var thread: TimerThread? = null
+class Timer internal constructor(private val fsmIsBusy: Lock, private val timeoutHandler: Runnable) {
+    private var timeout: Timeout? = null
     private val mutex = ReentrantLock(true)
     fun resetTimeout(delay: Long) {
+        resetTimeout(delay, TimeUnit.SECONDS)
+    }
+
+    fun resetTimeout(delay: Long, unit: TimeUnit) {
         cancelTimeout()
-        start(delay)
+        start(delay, unit)
     }
 
     /*
-     * Start a timer thread that triggers the timeout handler routine after a given timout delay
+     * Start a timeout that triggers the timeout handler routine after a given timeout delay in seconds
      */
     fun start(delay: Long) {
+        start(delay, TimeUnit.SECONDS)
+    }
+
+    /*
+     * Start a timeout that triggers the timeout handler routine after a given timeout delay
+     */
+    fun start(delay: Long, unit: TimeUnit) {
         mutex.lock()
-        thread = TimerThread(delay, timeoutHandler, fsmIsBusy)
-        thread!!.start()
-        mutex.unlock()
+        try {
+            val t = Timeout()
+            t.future = Idscp2Executors.scheduler.schedule(
+                    Runnable { Idscp2Executors.timeouts.execute(t) }, delay, unit)
+            timeout = t
+        } finally {
+            mutex.unlock()
+        }
     }
 
     /*
-     * Cancel the current timer thread
+     * Cancel the current timeout
      */
     fun cancelTimeout() {
         mutex.lock()
-        if (thread != null) {
-            thread!!.safeStop()
-            thread = null
+        try {
+            timeout?.cancel()
+            timeout = null
+        } finally {
+            mutex.unlock()
+        }
+    }
+
+    /**
+     * A single timeout, it will only trigger the fsm if it has the fsm lock and the timeout
+     * was not canceled before
+     */
+    private inner class Timeout : Runnable {
+        @Volatile
+        private var canceled = false
+
+        @Volatile
+        var future: ScheduledFuture<*>? = null
+
+        /*
+         * Wait for the fsm lock, the scheduler thread is never blocked, since the timeout runs on the
+         * timeout pool. Check once again, if the timeout was canceled by another transition during
+         * this process to avoid triggering timeout transitions for canceled timers.
+         * If the timeout was not canceled so far, call the timeout handler routine, that triggers
+         * the timeout transition in the fsm
+         */
+        override fun run() {
+            if (canceled) {
+                return
+            }
+            fsmIsBusy.lock()
+            try {
+                if (!canceled) {
+                    timeoutHandler.run()
+                }
+            } finally {
+                fsmIsBusy.unlock()
+            }
+        }
+
+        fun cancel() {
+            canceled = true
+            future?.cancel(false)
         }
-        mutex.unlock()
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,68 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.metrics
+
+import java.util.*
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.LongAdder
+
+/**
+ * A simple in-memory Idscp2MetricsRecorder, which aggregates the handshake phase durations of all
+ * connections into one latency histogram per phase. Can be used directly or as a template for
+ * exporting the metrics to a monitoring system.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class HandshakeHistogramRecorder : Idscp2MetricsRecorder {
+    private val histograms = EnumMap<HandshakePhase, Histogram>(HandshakePhase::class.java)
+
+    override fun recordHandshakePhase(phase: HandshakePhase, duration: Long) {
+        histograms[phase]!!.record(duration)
+    }
+
+    fun getHistogram(phase: HandshakePhase): Histogram {
+        return histograms[phase]!!
+    }
+
+    /**
+     * A latency histogram with fixed bucket bounds in milliseconds, see BUCKET_BOUNDS
+     */
+    class Histogram internal constructor() {
+        private val buckets = AtomicLongArray(BUCKET_BOUNDS.size + 1)
+        private val sum = LongAdder()
+
+        internal fun record(duration: Long) {
+            val millis = duration / 1_000_000
+            var bucket = Arrays.binarySearch(BUCKET_BOUNDS, millis)
+            if (bucket < 0) {
+                bucket = -bucket - 1
+            }
+            buckets.incrementAndGet(bucket)
+            sum.add(duration)
+        }
+
+        /*
+         * Number of recorded durations per bucket, the last bucket counts durations above the last bound
+         */
+        val bucketCounts: LongArray
+            get() = LongArray(buckets.length()) { buckets.get(it) }
+
+        val count: Long
+            get() = bucketCounts.sum()
+
+        /*
+         * Sum of all recorded durations in nanoseconds
+         */
+        val sumNanos: Long
+            get() = sum.sum()
+    }
+
+    companion object {
+        /*
+         * Upper bounds (inclusive) of the histogram buckets in milliseconds
+         */
+        val BUCKET_BOUNDS = longArrayOf(1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000)
+    }
+
+    init {
+        HandshakePhase.values().forEach { histograms[it] = Histogram() }
+    }
+}
@@ -0,0 +1,43 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.metrics
+
+/**
+ * The phases of the IDSCP2 connection setup, which are measured by HandshakeTimings
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+enum class HandshakePhase {
+    /*
+     * TLS handshake of the secure channel, including the TLS session verification
+     */
+    TLS_HANDSHAKE,
+
+    /*
+     * Requesting the own DAT from the DAPS driver
+     */
+    DAT_REQUEST,
+
+    /*
+     * From sending the own IDSCP_HELLO until the IDSCP_HELLO of the peer has been received
+     */
+    IDSCP_HELLO,
+
+    /*
+     * Verification of the DAT of the peer by the DAPS driver
+     */
+    DAT_VERIFICATION,
+
+    /*
+     * From starting the RAT prover driver until it reported RAT_PROVER_OK
+     */
+    RAT_PROVER,
+
+    /*
+     * From starting the RAT verifier driver until it reported RAT_VERIFIER_OK
+     */
+    RAT_VERIFIER,
+
+    /*
+     * The complete IDSCP2 handshake, from starting the handshake until the connection is established
+     */
+    IDSCP_HANDSHAKE
+}
@@ -0,0 +1,81 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.metrics
+
+import java.util.*
+
+/**
+ * The durations of the handshake phases of a single IDSCP2 connection, see HandshakePhase
+ *
+ * Only the initial handshake is measured, re-attestation and DAT renewal do not change the timings
+ * after the connection has been established. Every completed phase is reported to Idscp2Metrics.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class HandshakeTimings {
+    private val starts = EnumMap<HandshakePhase, Long>(HandshakePhase::class.java)
+    private val durations = EnumMap<HandshakePhase, Long>(HandshakePhase::class.java)
+
+    /**
+     * Set when the connection has been established for the first time
+     */
+    @Volatile
+    var isComplete = false
+        private set
+
+    /*
+     * Get the duration of the given phase in nanoseconds, or null if the phase has not been completed
+     */
+    @Synchronized
+    fun getDuration(phase: HandshakePhase): Long? {
+        return durations[phase]
+    }
+
+    /*
+     * Get the durations of all completed phases in nanoseconds
+     */
+    @Synchronized
+    fun getDurations(): Map<HandshakePhase, Long> {
+        return EnumMap(durations)
+    }
+
+    @Synchronized
+    internal fun start(phase: HandshakePhase) {
+        if (!isComplete && !starts.containsKey(phase)) {
+            starts[phase] = System.nanoTime()
+        }
+    }
+
+    internal fun end(phase: HandshakePhase) {
+        val duration = synchronized(this) {
+            val start = starts[phase]
+            if (isComplete || start == null || durations.containsKey(phase)) {
+                return
+            }
+            System.nanoTime() - start
+        }
+        record(phase, duration)
+    }
+
+    /*
+     * Record a phase that has been measured outside of the fsm, e.g. the TLS handshake
+     */
+    internal fun record(phase: HandshakePhase, duration: Long) {
+        synchronized(this) {
+            if (isComplete || durations.containsKey(phase)) {
+                return
+            }
+            durations[phase] = duration
+        }
+        Idscp2Metrics.recordHandshakePhase(phase, duration)
+    }
+
+    internal fun complete() {
+        end(HandshakePhase.IDSCP_HANDSHAKE)
+        isComplete = true
+    }
+
+    override fun toString(): String {
+        return getDurations().entries.joinToString(", ", "HandshakeTimings{", "}") {
+            "${it.key}=${it.value / 1_000_000.0}ms"
+        }
+    }
+}
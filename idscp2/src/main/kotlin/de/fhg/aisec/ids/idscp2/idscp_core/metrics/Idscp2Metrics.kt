@@ -0,0 +1,36 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.metrics
+
+import org.slf4j.LoggerFactory
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Registry for Idscp2MetricsRecorder implementations, which receive the metrics of all IDSCP2
+ * connections of this process
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+object Idscp2Metrics {
+    private val LOG = LoggerFactory.getLogger(Idscp2Metrics::class.java)
+    private val recorders = CopyOnWriteArrayList<Idscp2MetricsRecorder>()
+
+    fun registerRecorder(recorder: Idscp2MetricsRecorder) {
+        recorders.addIfAbsent(recorder)
+    }
+
+    fun unregisterRecorder(recorder: Idscp2MetricsRecorder): Boolean {
+        return recorders.remove(recorder)
+    }
+
+    internal fun recordHandshakePhase(phase: HandshakePhase, duration: Long) {
+        if (LOG.isTraceEnabled) {
+            LOG.trace("Handshake phase {} took {} ns", phase, duration)
+        }
+        for (recorder in recorders) {
+            try {
+                recorder.recordHandshakePhase(phase, duration)
+            } catch (e: Exception) {
+                LOG.warn("Error in metrics recorder", e)
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package de.fhg.aisec.ids.idscp2.idscp_core.metrics
+
+/**
+ * Service provider interface for metrics backends, registered at Idscp2Metrics
+ *
+ * Implementations are called synchronously from the IDSCP2 connections and must not block.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+fun interface Idscp2MetricsRecorder {
+    /*
+     * A handshake phase of a connection has been completed within the given duration in nanoseconds
+     */
+    fun recordHandshakePhase(phase: HandshakePhase, duration: Long)
+}
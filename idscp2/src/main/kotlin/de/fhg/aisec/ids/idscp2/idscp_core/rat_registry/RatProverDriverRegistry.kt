@@ -1,7 +1,7 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.rat_registry
 
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatProverDriver
-import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FsmListener
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.RatListener
 import org.slf4j.LoggerFactory
 import java.util.concurrent.ConcurrentHashMap
 
@@ -22,7 +22,7 @@ object RatProverDriverRegistry {
      * An inner static wrapper class, that wraps driver config and driver class
      */
     private class DriverWrapper(
-            val driverFactory: (FsmListener) -> RatProverDriver,
+            val driverFactory: (RatListener) -> RatProverDriver,
             val driverConfig: Any?
     )
 
@@ -33,7 +33,7 @@ object RatProverDriverRegistry {
      */
     fun registerDriver(
             instance: String,
-            driverFactory: (FsmListener) -> RatProverDriver,
+            driverFactory: (RatListener) -> RatProverDriver,
             driverConfig: Any?
     ) {
         drivers[instance] = DriverWrapper(driverFactory, driverConfig)
@@ -55,7 +55,7 @@ object RatProverDriverRegistry {
      * The finite state machine is registered as the communication partner for the RatProver.
      * The RatProver will be initialized with a configuration, if present. Then it is started.
      */
-    fun startRatProverDriver(instance: String?, listener: FsmListener): RatProverDriver? {
+    fun startRatProverDriver(instance: String?, listener: RatListener): RatProverDriver? {
         val driverWrapper = drivers[instance]
         return try {
             val driver = driverWrapper!!.driverFactory(listener)
@@ -1,7 +1,7 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.rat_registry
 
 import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatVerifierDriver
-import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FsmListener
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.RatListener
 import org.slf4j.LoggerFactory
 import java.util.concurrent.ConcurrentHashMap
 
@@ -22,7 +22,7 @@ object RatVerifierDriverRegistry {
      * An inner static wrapper class, that wraps driver config and driver class
      */
     private class DriverWrapper(
-            val driverFactory: (FsmListener) -> RatVerifierDriver,
+            val driverFactory: (RatListener) -> RatVerifierDriver,
             val driverConfig: Any?
     )
     private val drivers = ConcurrentHashMap<String, DriverWrapper>()
@@ -32,7 +32,7 @@ object RatVerifierDriverRegistry {
      */
     fun registerDriver(
             mechanism: String,
-            driverFactory: (FsmListener) -> RatVerifierDriver,
+            driverFactory: (RatListener) -> RatVerifierDriver,
             driverConfig: Any?
     ) {
         drivers[mechanism] = DriverWrapper(driverFactory, driverConfig)
@@ -55,7 +55,7 @@ object RatVerifierDriverRegistry {
      * The finite state machine is registered as the communication partner for the RatVerifier.
      * The RatVerifier will be initialized with a configuration, if present. Then it is started.
      */
-    fun startRatVerifierDriver(mechanism: String?, listener: FsmListener): RatVerifierDriver? {
+    fun startRatVerifierDriver(mechanism: String?, listener: RatListener): RatVerifierDriver? {
         val driverWrapper = drivers[mechanism]
         return try {
             val driver = driverWrapper!!.driverFactory(listener)
@@ -2,15 +2,22 @@ package de.fhg.aisec.ids.idscp2.idscp_core.secure_channel
 
 import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FsmListener
 import org.slf4j.LoggerFactory
+import java.nio.ByteBuffer
 import java.util.concurrent.CompletableFuture
 
 /**
  * A secureChannel which is the secure underlying basis of the IDSCP2 protocol,
  * that implements a secureChannelListener
  *
+ * The duration of the TLS handshake in nanoseconds can be provided by the endpoint for the
+ * handshake metrics of the connection, -1 if unknown
+ *
  * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
  */
-class SecureChannel(private val endpoint: SecureChannelEndpoint) : SecureChannelListener {
+class SecureChannel @JvmOverloads constructor(
+        private val endpoint: SecureChannelEndpoint,
+        val tlsHandshakeDuration: Long = -1
+) : SecureChannelListener {
     private val fsmPromise = CompletableFuture<FsmListener>()
 
     /*
@@ -32,6 +39,19 @@ class SecureChannel(private val endpoint: SecureChannelEndpoint) : SecureChannel
         return endpoint.send(msg)
     }
 
+    /*
+     * Check if the endpoint can take further data without buffering it, see SecureChannelEndpoint.isWritable
+     */
+    val isWritable: Boolean
+        get() = endpoint.isWritable
+
+    /*
+     * Set the callback that is called when the endpoint has become writable again
+     */
+    fun setWritabilityCallback(callback: Runnable) {
+        endpoint.setWritabilityCallback(callback)
+    }
+
     override fun onMessage(data: ByteArray) {
         if (LOG.isTraceEnabled) {
             LOG.trace("New raw data has been received via the secure channel")
@@ -39,6 +59,21 @@ class SecureChannel(private val endpoint: SecureChannelEndpoint) : SecureChannel
         fsmPromise.thenAccept { fsmListener: FsmListener -> fsmListener.onMessage(data) }
     }
 
+    override fun onMessage(data: ByteBuffer) {
+        if (LOG.isTraceEnabled) {
+            LOG.trace("New raw data has been received via the secure channel")
+        }
+        val fsmListener: FsmListener? = fsmPromise.getNow(null)
+        if (fsmListener != null) {
+            fsmListener.onMessage(data)
+        } else {
+            // the buffer is reused by the endpoint, copy it for deferred processing
+            val bytes = ByteArray(data.remaining())
+            data.get(bytes)
+            onMessage(bytes)
+        }
+    }
+
     override fun onError(t: Throwable) {
         // Tell fsm an error occurred in secure channel
         fsmPromise.thenAccept { fsmListener: FsmListener -> fsmListener.onError(t) }
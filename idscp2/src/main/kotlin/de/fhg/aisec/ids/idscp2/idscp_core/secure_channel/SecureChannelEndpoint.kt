@@ -24,6 +24,18 @@ interface SecureChannelEndpoint {
      */
     fun send(bytes: ByteArray): Boolean
 
+    /*
+     * Check if the endpoint can take further data without buffering it, endpoints that write
+     * synchronously to the socket are always writable. Data that is sent anyway is still accepted
+     */
+    val isWritable: Boolean
+        get() = true
+
+    /*
+     * Set the callback that is called when the endpoint has become writable again
+     */
+    fun setWritabilityCallback(callback: Runnable) {}
+
     /*
      * check if the endpoint is connected
      */
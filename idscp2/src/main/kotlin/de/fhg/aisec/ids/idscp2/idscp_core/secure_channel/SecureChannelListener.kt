@@ -1,5 +1,7 @@
 package de.fhg.aisec.ids.idscp2.idscp_core.secure_channel
 
+import java.nio.ByteBuffer
+
 /**
  * An interface for a secure channel listener, implemented by the secure channel
  */
@@ -9,6 +11,12 @@ interface SecureChannelListener {
      */
     fun onMessage(data: ByteArray)
 
+    /*
+     * Delegate data from secure channel endpoint to the secure channel, the buffer is
+     * only valid until the call returns
+     */
+    fun onMessage(data: ByteBuffer)
+
     /*
      * Delegate an error from an secure channel endpoint to the secure channel
      */
@@ -19,7 +19,9 @@ class Idscp2Server<CC: Idscp2Connection>(private val secureServer: SecureServer)
      */
     fun terminate() {
         LOG.info("Terminating IDSCP2 server {}", this.toString())
-        for (connection in connections) {
+        // closed connections remove themselves, hence iterate over a copy
+        val openConnections = synchronized(connections) { ArrayList(connections) }
+        for (connection in openConnections) {
             connection.close()
             LOG.debug("Idscp connection with id {} has been closed", connection.id)
             connections.remove(connection)
@@ -0,0 +1,88 @@
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.DapsEmulator;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.DefaultDapsDriver;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.DefaultDapsDriverConfig;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps.SecurityRequirements;
+import de.fhg.aisec.ids.idscp2.error.DatException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class DapsEmulatorTest {
+    private DapsEmulator emulator;
+
+    @Before
+    public void startEmulator() {
+        emulator = new DapsEmulator().start();
+    }
+
+    @After
+    public void stopEmulator() {
+        emulator.close();
+    }
+
+    private DefaultDapsDriver createDriver() {
+        DefaultDapsDriverConfig config =
+                new DefaultDapsDriverConfig.Builder()
+                        .setKeyStorePath(Paths.get(DapsEmulatorTest.class.getClassLoader().
+                                getResource("ssl/aisecconnector1-keystore.p12").getPath()))
+                        .setTrustStorePath(Paths.get(DapsEmulatorTest.class.getClassLoader().
+                                getResource("ssl/client-truststore_new.p12").getPath()))
+                        .setKeyStorePassword("password".toCharArray())
+                        .setTrustStorePassword("password".toCharArray())
+                        .setKeyAlias("1")
+                        .setKeyPassword("password".toCharArray())
+                        .setDapsUrl(emulator.getUrl())
+                        .build();
+        return new DefaultDapsDriver(config);
+    }
+
+    private static SecurityRequirements requirements(String securityLevel) {
+        return new SecurityRequirements.Builder()
+                .setRequiredSecurityLevel(securityLevel)
+                .build();
+    }
+
+    @Test
+    public void testTokenIsCached() {
+        DefaultDapsDriver dapsDriver = createDriver();
+        byte[] token = dapsDriver.getToken();
+        assertArrayEquals(token, dapsDriver.getToken());
+        assertEquals(1, emulator.getTokenRequests());
+        assertTrue(dapsDriver.verifyToken(token, null) > 0);
+    }
+
+    @Test
+    public void testVerificationAfterKeyRotation() {
+        DefaultDapsDriver dapsDriver = createDriver();
+        SecurityRequirements requirements = requirements("idsc:BASE_CONNECTOR_SECURITY_PROFILE");
+
+        byte[] token = emulator.issueToken("peer").getBytes(StandardCharsets.UTF_8);
+        assertTrue(dapsDriver.verifyToken(token, requirements) > 0);
+        assertTrue(dapsDriver.verifyToken(token, requirements) > 0);
+        assertEquals(1, emulator.getJwksRequests());
+
+        // the unknown key id of the new key triggers a refresh of the cached JWKS
+        emulator.rotateKey();
+        byte[] rotatedToken = emulator.issueToken("peer").getBytes(StandardCharsets.UTF_8);
+        assertTrue(dapsDriver.verifyToken(rotatedToken, requirements) > 0);
+        assertEquals(2, emulator.getJwksRequests());
+    }
+
+    @Test(expected = DatException.class)
+    public void testInsufficientSecurityProfile() {
+        DefaultDapsDriver dapsDriver = createDriver();
+        byte[] token = emulator.issueToken("peer").getBytes(StandardCharsets.UTF_8);
+        dapsDriver.verifyToken(token, requirements("idsc:TRUSTED_CONNECTOR_PLUS_SECURITY_PROFILE"));
+    }
+
+    @Test(expected = DatException.class)
+    public void testTokenRequestFailure() {
+        emulator.failNextTokenRequests(1);
+        createDriver().getToken();
+    }
+}
@@ -0,0 +1,169 @@
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver;
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatProverDriver;
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatVerifierDriver;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper;
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FSM;
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.InternalControlMessage;
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.RatListener;
+import de.fhg.aisec.ids.idscp2.idscp_core.metrics.HandshakePhase;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatProverDriverRegistry;
+import de.fhg.aisec.ids.idscp2.idscp_core.rat_registry.RatVerifierDriverRegistry;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelEndpoint;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Handshakes in which the DAT of the peer is verified after the RAT drivers have succeeded
+ */
+public class FsmDatVerificationTest {
+  private static final String RAT_SUITE = "FsmDatVerificationTest";
+  private static final byte[] EARLY_DATA = "early".getBytes(StandardCharsets.UTF_8);
+
+  private static final List<ControlledProver> provers = new CopyOnWriteArrayList<>();
+  private static final List<ControlledVerifier> verifiers = new CopyOnWriteArrayList<>();
+
+  private final CountDownLatch datVerificationLatch = new CountDownLatch(1);
+  private Idscp2Connection connection;
+  private FSM fsm;
+
+  @Before
+  public void setUp() {
+    provers.clear();
+    verifiers.clear();
+    RatProverDriverRegistry.INSTANCE.registerDriver(RAT_SUITE, ControlledProver::new, null);
+    RatVerifierDriverRegistry.INSTANCE.registerDriver(RAT_SUITE, ControlledVerifier::new, null);
+
+    DapsDriver dapsDriver = new DapsDriver() {
+      @Override
+      public byte[] getToken() {
+        return "token".getBytes(StandardCharsets.UTF_8);
+      }
+
+      @Override
+      public long verifyToken(byte[] dat, Object securityRequirements) {
+        try {
+          return datVerificationLatch.await(10, TimeUnit.SECONDS) ? 3600 : -1;
+        } catch (InterruptedException e) {
+          return -1;
+        }
+      }
+    };
+    SecureChannelEndpoint endpoint = mock(SecureChannelEndpoint.class);
+    when(endpoint.send(any())).thenReturn(true);
+    connection = mock(Idscp2Connection.class);
+    String[] ratSuite = {RAT_SUITE};
+    fsm = new FSM(connection, new SecureChannel(endpoint), dapsDriver, ratSuite, ratSuite, 3600,
+        new String[0], Integer.MAX_VALUE, 0.0);
+  }
+
+  @After
+  public void tearDown() {
+    datVerificationLatch.countDown();
+    fsm.closeConnection();
+    RatProverDriverRegistry.INSTANCE.unregisterDriver(RAT_SUITE);
+    RatVerifierDriverRegistry.INSTANCE.unregisterDriver(RAT_SUITE);
+  }
+
+  @Test(timeout = 10000)
+  public void testEarlyDataIsDeliveredAfterReRatDuringDatVerification() throws Exception {
+    Thread handshake = startHandshake();
+    fsm.onMessage(Idscp2MessageHelper.INSTANCE.createIdscpHelloMessage(
+        "peer".getBytes(StandardCharsets.UTF_8), new String[] {RAT_SUITE}, new String[] {RAT_SUITE},
+        new String[0]).toByteArray());
+
+    // RAT succeeds while the DAT is verified, the established peer already sends data
+    provers.get(0).succeed();
+    verifiers.get(0).succeed();
+    fsm.onMessage(Idscp2MessageHelper.INSTANCE.createIdscpDataMessage(EARLY_DATA, "").toByteArray());
+
+    // the peer requests a re-attestation, the DAT verification completes before the new RAT
+    fsm.onMessage(Idscp2MessageHelper.INSTANCE.createIdscpReRatMessage("").toByteArray());
+    assertEquals(2, provers.size());
+    datVerificationLatch.countDown();
+    while (fsm.getHandshakeTimings().getDuration(HandshakePhase.DAT_VERIFICATION) == null) {
+      Thread.sleep(10);
+    }
+    assertFalse(fsm.isConnected());
+    verify(connection, never()).onMessage(any());
+
+    provers.get(1).succeed();
+    handshake.join();
+    assertTrue(fsm.isConnected());
+    verify(connection, times(1)).onMessage(aryEq(EARLY_DATA));
+  }
+
+  @Test(timeout = 10000)
+  public void testEarlyDataIsDroppedOnClose() throws Exception {
+    Thread handshake = startHandshake();
+    fsm.onMessage(Idscp2MessageHelper.INSTANCE.createIdscpHelloMessage(
+        "peer".getBytes(StandardCharsets.UTF_8), new String[] {RAT_SUITE}, new String[] {RAT_SUITE},
+        new String[0]).toByteArray());
+    provers.get(0).succeed();
+    verifiers.get(0).succeed();
+    fsm.onMessage(Idscp2MessageHelper.INSTANCE.createIdscpDataMessage(EARLY_DATA, "").toByteArray());
+
+    fsm.closeConnection();
+    handshake.join();
+    datVerificationLatch.countDown();
+    assertFalse(fsm.isConnected());
+    verify(connection, never()).onMessage(any());
+  }
+
+  private Thread startHandshake() {
+    Thread handshake = new Thread(() -> {
+      try {
+        fsm.startIdscpHandshake();
+      } catch (Exception e) {
+        // checked via isConnected
+      }
+    });
+    handshake.start();
+    return handshake;
+  }
+
+  /** A RAT prover that succeeds when the test calls succeed() */
+  public static class ControlledProver extends RatProverDriver {
+    public ControlledProver(RatListener fsmListener) {
+      super(fsmListener);
+    }
+
+    @Override
+    public void start() {
+      provers.add(this);
+    }
+
+    void succeed() {
+      getFsmListener().onRatProverMessage(InternalControlMessage.RAT_PROVER_OK);
+    }
+  }
+
+  /** A RAT verifier that succeeds when the test calls succeed() */
+  public static class ControlledVerifier extends RatVerifierDriver {
+    public ControlledVerifier(RatListener fsmListener) {
+      super(fsmListener);
+    }
+
+    @Override
+    public void start() {
+      verifiers.add(this);
+    }
+
+    void succeed() {
+      getFsmListener().onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_OK);
+    }
+  }
+}
@@ -0,0 +1,97 @@
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2ReceiveQueue;
+import kotlin.Unit;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the bounded inbound queue between the FSM and the message listeners, the delivery tasks
+ * are run manually, such that all state changes are deterministic
+ */
+public class Idscp2ReceiveQueueTest {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<byte[]> delivered = new ArrayList<>();
+    private final AtomicInteger overflows = new AtomicInteger();
+    private Idscp2ReceiveQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new Idscp2ReceiveQueue(100, tasks::add,
+                msg -> {
+                    delivered.add(msg);
+                    return Unit.INSTANCE;
+                },
+                () -> {
+                    overflows.incrementAndGet();
+                    return Unit.INSTANCE;
+                });
+    }
+
+    @Test
+    public void testDeliveryStartsWhenStarted() {
+        byte[] first = new byte[1];
+        byte[] second = new byte[2];
+        queue.add(first);
+        queue.add(second);
+        runTasks();
+        assertTrue(delivered.isEmpty());
+
+        queue.start();
+        runTasks();
+        assertEquals(2, delivered.size());
+        assertSame(first, delivered.get(0));
+        assertSame(second, delivered.get(1));
+    }
+
+    @Test
+    public void testConsumedMessagesFreeCapacity() {
+        queue.start();
+        for (int i = 0; i < 10; i++) {
+            queue.add(new byte[60]);
+            runTasks();
+        }
+        assertEquals(10, delivered.size());
+        assertEquals(0, overflows.get());
+    }
+
+    @Test
+    public void testOverflowDiscardsMessagesAndIsReportedOnce() {
+        queue.add(new byte[60]);
+        queue.add(new byte[40]);
+        assertEquals(0, overflows.get());
+        queue.add(new byte[1]);
+        assertEquals(1, overflows.get());
+        queue.add(new byte[1]);
+        assertEquals(1, overflows.get());
+
+        queue.start();
+        runTasks();
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void testListenerErrorsDoNotStopDelivery() {
+        Idscp2ReceiveQueue failingQueue = new Idscp2ReceiveQueue(100, tasks::add,
+                msg -> {
+                    delivered.add(msg);
+                    throw new IllegalStateException("listener error");
+                },
+                () -> Unit.INSTANCE);
+        failingQueue.start();
+        failingQueue.add(new byte[1]);
+        failingQueue.add(new byte[1]);
+        runTasks();
+        assertEquals(2, delivered.size());
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+}
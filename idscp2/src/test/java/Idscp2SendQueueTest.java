@@ -0,0 +1,133 @@
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2SendQueue;
+import kotlin.Unit;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests of the bounded send queue behind Idscp2Connection.sendAsync(), the drain tasks are run
+ * manually, such that all state changes are deterministic
+ */
+public class Idscp2SendQueueTest {
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<byte[]> sent = new ArrayList<>();
+    private final List<Boolean> writabilityChanges = new ArrayList<>();
+    private final AtomicBoolean channelWritable = new AtomicBoolean(true);
+    private final AtomicBoolean sendSucceeds = new AtomicBoolean(true);
+    private Idscp2SendQueue queue;
+
+    @Before
+    public void setUp() {
+        queue = new Idscp2SendQueue(100, 50, 20, tasks::add,
+                msg -> {
+                    sent.add(msg);
+                    return sendSucceeds.get();
+                },
+                channelWritable::get,
+                writable -> {
+                    writabilityChanges.add(writable);
+                    return Unit.INSTANCE;
+                });
+    }
+
+    @Test
+    public void testWatermarksChangeWritability() throws Exception {
+        CompletableFuture<Void> first = queue.send(new byte[30]);
+        assertTrue(queue.isWritable());
+        CompletableFuture<Void> second = queue.send(new byte[30]);
+        assertFalse(queue.isWritable());
+
+        runTasks();
+        assertTrue(queue.isWritable());
+        assertEquals(List.of(false, true), writabilityChanges);
+        assertEquals(2, sent.size());
+        first.get();
+        second.get();
+    }
+
+    @Test
+    public void testFullQueueRejectsMessages() {
+        queue.send(new byte[60]);
+        CompletableFuture<Void> rejected = queue.send(new byte[60]);
+        assertFailedWith(rejected, Idscp2Exception.class);
+
+        runTasks();
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void testDrainPausesWhileChannelIsNotWritable() throws Exception {
+        channelWritable.set(false);
+        CompletableFuture<Void> future = queue.send(new byte[10]);
+        runTasks();
+        assertTrue(sent.isEmpty());
+        assertFalse(future.isDone());
+
+        // draining stops again as long as the channel is not writable
+        queue.resume();
+        runTasks();
+        assertTrue(sent.isEmpty());
+
+        channelWritable.set(true);
+        queue.resume();
+        runTasks();
+        assertEquals(1, sent.size());
+        future.get();
+    }
+
+    @Test
+    public void testCloseFailsPendingSends() {
+        channelWritable.set(false);
+        CompletableFuture<Void> first = queue.send(new byte[10]);
+        CompletableFuture<Void> second = queue.send(new byte[10]);
+        Idscp2Exception cause = new Idscp2Exception("closed");
+        queue.close(cause);
+
+        assertSame(cause, failureOf(first));
+        assertSame(cause, failureOf(second));
+        assertSame(cause, failureOf(queue.send(new byte[10])));
+
+        channelWritable.set(true);
+        queue.resume();
+        runTasks();
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void testFailedSendCompletesExceptionally() {
+        sendSucceeds.set(false);
+        CompletableFuture<Void> future = queue.send(new byte[10]);
+        runTasks();
+        assertFailedWith(future, Idscp2Exception.class);
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    private static void assertFailedWith(CompletableFuture<Void> future, Class<? extends Throwable> type) {
+        assertTrue(type.isInstance(failureOf(future)));
+    }
+
+    private static Throwable failureOf(CompletableFuture<Void> future) {
+        assertTrue(future.isCompletedExceptionally());
+        try {
+            future.get();
+            throw new AssertionError("Future has not failed");
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
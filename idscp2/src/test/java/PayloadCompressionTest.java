@@ -0,0 +1,105 @@
+import com.google.protobuf.ByteString;
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver;
+import de.fhg.aisec.ids.idscp2.error.Idscp2Exception;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Connection;
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2MessageHelper;
+import de.fhg.aisec.ids.idscp2.idscp_core.PayloadCompression;
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.FSM;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannel;
+import de.fhg.aisec.ids.idscp2.idscp_core.secure_channel.SecureChannelEndpoint;
+import de.fhg.aisec.ids.idscp2.messages.IDSCP2;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+public class PayloadCompressionTest {
+    private static final PayloadCompression compression = PayloadCompression.INSTANCE;
+
+    @Test
+    public void testNegotiationPrefersTheFirstCodecOfThePriorityList() {
+        String[] local = {PayloadCompression.DEFLATE, PayloadCompression.DEFLATE_FAST};
+        assertEquals(PayloadCompression.DEFLATE_FAST,
+                compression.negotiate(local, List.of(PayloadCompression.DEFLATE, PayloadCompression.DEFLATE_FAST)));
+        assertEquals(PayloadCompression.DEFLATE, compression.negotiate(local, List.of(PayloadCompression.DEFLATE)));
+    }
+
+    @Test
+    public void testNegotiationFallsBackToNoCompression() {
+        String[] local = {PayloadCompression.DEFLATE};
+        assertNull(compression.negotiate(local, List.of(PayloadCompression.DEFLATE_FAST)));
+        assertNull(compression.negotiate(local, List.of("zstd")));
+        assertNull(compression.negotiate(new String[0], List.of(PayloadCompression.DEFLATE)));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        byte[] data = "IDSCP2 payload ".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        for (String codec : compression.getCODEC_PRIORITY()) {
+            byte[] compressed = compression.compress(codec, data);
+            assertNotNull(compressed);
+            assertTrue(compressed.length < data.length);
+            assertArrayEquals(data, compression.decompress(codec, ByteString.copyFrom(compressed)));
+        }
+    }
+
+    @Test
+    public void testIncompressibleDataIsSentUncompressed() {
+        byte[] data = new byte[4096];
+        new Random(42).nextBytes(data);
+        assertNull(compression.compress(PayloadCompression.DEFLATE, data));
+    }
+
+    @Test(expected = Idscp2Exception.class)
+    public void testUnsupportedCodecIsRejected() {
+        compression.decompress("zstd", ByteString.copyFrom(new byte[1]));
+    }
+
+    @Test(expected = Idscp2Exception.class)
+    public void testCorruptedPayloadIsRejected() {
+        compression.decompress(PayloadCompression.DEFLATE,
+                ByteString.copyFrom("not deflated".getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test(expected = Idscp2Exception.class)
+    public void testDecompressionIsLimited() throws IOException {
+        // a small payload that inflates to one byte more than the limit
+        ByteString.Output out = ByteString.newOutput();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+            byte[] zeros = new byte[64 * 1024];
+            for (long remaining = PayloadCompression.MAX_DECOMPRESSED_SIZE + 1L; remaining > 0;
+                 remaining -= zeros.length) {
+                deflater.write(zeros, 0, (int) Math.min(zeros.length, remaining));
+            }
+        }
+        compression.decompress(PayloadCompression.DEFLATE, out.toByteString());
+    }
+
+    @Test
+    public void testFsmOnlyAcceptsTheAgreedCodec() {
+        byte[] data = "IDSCP2 payload ".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        FSM fsm = new FSM(mock(Idscp2Connection.class), new SecureChannel(mock(SecureChannelEndpoint.class)),
+                mock(DapsDriver.class), new String[0], new String[0], 3600, new String[0], Integer.MAX_VALUE, 0.0);
+        fsm.setCompression(PayloadCompression.DEFLATE);
+
+        assertArrayEquals(data, fsm.getIdscpDataPayload(idscpData(PayloadCompression.DEFLATE, data)));
+        assertArrayEquals(data, fsm.getIdscpDataPayload(idscpData("", data)));
+        try {
+            fsm.getIdscpDataPayload(idscpData(PayloadCompression.DEFLATE_FAST, data));
+            fail("Payload with a codec that has not been agreed on was accepted");
+        } catch (Idscp2Exception e) {
+            // expected, the FSM closes the connection
+        }
+    }
+
+    private static IDSCP2.IdscpData idscpData(String codec, byte[] data) {
+        byte[] payload = codec.isEmpty() ? data : compression.compress(codec, data);
+        return Idscp2MessageHelper.INSTANCE.createIdscpDataMessage(payload, codec).getIdscpData();
+    }
+}
@@ -0,0 +1,69 @@
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel.ReceiveBufferPool;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ReceiveBufferPoolTest {
+
+    @Test
+    public void testBuffersAreRoundedUpToSizeClasses() {
+        ReceiveBufferPool pool = new ReceiveBufferPool();
+        assertEquals(256, pool.acquire(1).length);
+        assertEquals(256, pool.acquire(256).length);
+        assertEquals(512, pool.acquire(257).length);
+        assertEquals(1024 * 1024, pool.acquire(1024 * 1024).length);
+        // frames beyond the biggest size class are allocated exactly
+        assertEquals(1024 * 1024 + 1, pool.acquire(1024 * 1024 + 1).length);
+    }
+
+    @Test
+    public void testReleasedBuffersAreReused() {
+        ReceiveBufferPool pool = new ReceiveBufferPool();
+        byte[] buffer = pool.acquire(1000);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(600));
+        assertNotSame(buffer, pool.acquire(600));
+    }
+
+    @Test
+    public void testForeignAndOversizedBuffersAreNotPooled() {
+        ReceiveBufferPool pool = new ReceiveBufferPool();
+        byte[] foreign = new byte[1000];
+        pool.release(foreign);
+        assertNotSame(foreign, pool.acquire(1000));
+
+        byte[] oversized = pool.acquire(2 * 1024 * 1024);
+        pool.release(oversized);
+        assertNotSame(oversized, pool.acquire(2 * 1024 * 1024));
+    }
+
+    @Test
+    public void testIdleBuffersPerSizeClassAreLimited() {
+        ReceiveBufferPool pool = new ReceiveBufferPool(1);
+        byte[] first = pool.acquire(256);
+        byte[] second = pool.acquire(256);
+        pool.release(first);
+        pool.release(second);
+        assertSame(first, pool.acquire(256));
+        assertNotSame(second, pool.acquire(256));
+    }
+
+    @Test
+    public void testConnectionBuffersRetainTheLastBuffer() {
+        ReceiveBufferPool pool = new ReceiveBufferPool();
+        ReceiveBufferPool.ConnectionBuffers connectionBuffers = pool.connectionBuffers(4096);
+
+        byte[] small = connectionBuffers.acquire(100);
+        connectionBuffers.release(small);
+        assertSame(small, connectionBuffers.acquire(50));
+        connectionBuffers.release(small);
+
+        // buffers above the retained size go back to the shared pool
+        byte[] large = connectionBuffers.acquire(8192);
+        connectionBuffers.release(large);
+        assertSame(large, pool.acquire(8000));
+
+        connectionBuffers.close();
+        assertSame(small, pool.acquire(100));
+    }
+}
@@ -0,0 +1,147 @@
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.tpm2d.TPM2dConnectionPool;
+import de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.tpm2d.TPM2dSocket;
+import de.fhg.aisec.ids.idscp2.messages.Tpm2dAttestation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNoException;
+
+/**
+ * Tests of the tpm2d connection pool against a fake tpm2d on the local tpm2d port.
+ *
+ * The pools are shared per host, hence each test uses a different loopback address.
+ */
+public class TPM2dConnectionPoolTest {
+    private static final int TIMEOUT = 5000;
+    private static final Tpm2dAttestation.RemoteToTpm2d REQUEST = Tpm2dAttestation.RemoteToTpm2d.newBuilder()
+            .setCode(Tpm2dAttestation.RemoteToTpm2d.Code.ATTESTATION_REQ)
+            .build();
+
+    private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+    private ServerSocket serverSocket;
+
+    @Before
+    public void setUp() {
+        try {
+            serverSocket = new ServerSocket(TPM2dSocket.TPM2D_PORT);
+        } catch (IOException e) {
+            assumeNoException("tpm2d port is not available", e);
+        }
+        Thread acceptor = new Thread(() -> {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    accepted.add(socket);
+                    Thread handler = new Thread(() -> answerRequests(socket));
+                    handler.setDaemon(true);
+                    handler.start();
+                }
+            } catch (IOException e) {
+                // server socket has been closed
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        closeAccepted();
+    }
+
+    @Test
+    public void testConnectionIsReused() throws Exception {
+        TPM2dConnectionPool pool = TPM2dConnectionPool.Companion.forHost("127.0.0.2");
+        assertEquals(Tpm2dAttestation.Tpm2dToRemote.Code.ATTESTATION_RES, attest(pool).getCode());
+        assertEquals(Tpm2dAttestation.Tpm2dToRemote.Code.ATTESTATION_RES, attest(pool).getCode());
+        assertEquals(1, accepted.size());
+    }
+
+    @Test
+    public void testClosedConnectionIsReplaced() throws Exception {
+        TPM2dConnectionPool pool = TPM2dConnectionPool.Companion.forHost("127.0.0.3");
+        attest(pool);
+        // the tpm2d closes the idle connection, the next request reconnects transparently
+        closeAccepted();
+        assertEquals(Tpm2dAttestation.Tpm2dToRemote.Code.ATTESTATION_RES, attest(pool).getCode());
+        assertEquals(2, accepted.size());
+    }
+
+    @Test
+    public void testFailedRequestDiscardsConnection() throws Exception {
+        TPM2dConnectionPool pool = TPM2dConnectionPool.Companion.forHost("127.0.0.4");
+        AtomicReference<TPM2dSocket> failedSocket = new AtomicReference<>();
+        try {
+            pool.execute(TIMEOUT, socket -> {
+                failedSocket.set(socket);
+                throw sneakyThrow(new IOException("request failed"));
+            });
+            fail("Request did not fail");
+        } catch (IOException e) {
+            assertEquals("request failed", e.getMessage());
+        }
+        assertTrue(failedSocket.get().isClosed());
+
+        attest(pool);
+        assertEquals(2, accepted.size());
+    }
+
+    private static Tpm2dAttestation.Tpm2dToRemote attest(TPM2dConnectionPool pool) throws IOException {
+        return pool.execute(TIMEOUT, socket -> {
+            try {
+                return socket.requestAttestation(REQUEST);
+            } catch (IOException e) {
+                throw sneakyThrow(e);
+            }
+        });
+    }
+
+    /*
+     * The pool distinguishes IOExceptions of the request, which cannot be thrown from a Java lambda
+     */
+    @SuppressWarnings("unchecked")
+    private static <E extends Throwable> RuntimeException sneakyThrow(Throwable t) throws E {
+        throw (E) t;
+    }
+
+    private void closeAccepted() throws IOException {
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+    }
+
+    private static void answerRequests(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            while (true) {
+                byte[] request = new byte[in.readInt()];
+                in.readFully(request);
+                Tpm2dAttestation.RemoteToTpm2d.parseFrom(request);
+                byte[] response = Tpm2dAttestation.Tpm2dToRemote.newBuilder()
+                        .setCode(Tpm2dAttestation.Tpm2dToRemote.Code.ATTESTATION_RES)
+                        .build()
+                        .toByteArray();
+                out.writeInt(response.length);
+                out.write(response);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // connection has been closed
+        }
+    }
+}
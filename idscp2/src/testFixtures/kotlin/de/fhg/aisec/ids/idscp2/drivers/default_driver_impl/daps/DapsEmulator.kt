@@ -0,0 +1,229 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import de.fhg.aisec.ids.idscp2.idscp_core.Idscp2Executors
+import org.jose4j.jwk.JsonWebKey
+import org.jose4j.jwk.JsonWebKeySet
+import org.jose4j.jwk.RsaJsonWebKey
+import org.jose4j.jwk.RsaJwkGenerator
+import org.jose4j.jws.AlgorithmIdentifiers
+import org.jose4j.jws.JsonWebSignature
+import org.jose4j.jwt.JwtClaims
+import org.jose4j.jwt.consumer.JwtConsumerBuilder
+import org.json.JSONObject
+import org.slf4j.LoggerFactory
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.URLDecoder
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * An embeddable DAPS emulator for offline tests and benchmarks of the DefaultDapsDriver
+ *
+ * The emulator listens on the loopback interface via plain HTTP, issues DATs for the subject of the
+ * client assertion at /v2/token and serves its public keys at /.well-known/jwks.json. The DATs are
+ * signed with a local RSA key, which can be rotated, the previous key stays in the JWKS. Response
+ * latencies and token request failures can be injected and changed at any time.
+ *
+ * The issuer of the DATs is the url of the emulator, which has to be used as DAPS url of the driver.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class DapsEmulator @JvmOverloads constructor(port: Int = 0) : AutoCloseable {
+    private val server: HttpServer = HttpServer.create(
+            InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0)
+    private val executor: ExecutorService = Executors.newCachedThreadPool(
+            Idscp2Executors.daemonThreadFactory("DAPS Emulator"))
+    private val keyCounter = AtomicInteger()
+    private val tokenRequestCounter = AtomicInteger()
+    private val jwksRequestCounter = AtomicInteger()
+    private val pendingFailures = AtomicInteger()
+
+    @Volatile
+    private var currentKey: RsaJsonWebKey = generateKey()
+
+    @Volatile
+    private var previousKey: RsaJsonWebKey? = null
+
+    val url: String = "http://127.0.0.1:${server.address.port}"
+
+    /*
+     * Lifetime of issued DATs in seconds
+     */
+    @Volatile
+    var tokenValidity = 3600L
+
+    /*
+     * The securityProfile claim of issued DATs, omitted if null
+     */
+    @Volatile
+    var securityProfile: String? = "idsc:TRUSTED_CONNECTOR_SECURITY_PROFILE"
+
+    /*
+     * Delays in milliseconds before token and JWKS responses are sent
+     */
+    @Volatile
+    var tokenDelay = 0L
+
+    @Volatile
+    var jwksDelay = 0L
+
+    /*
+     * Probability (0.0 - 1.0) that a token request fails with HTTP 500
+     */
+    @Volatile
+    var failureRate = 0.0
+
+    val tokenRequests: Int
+        get() = tokenRequestCounter.get()
+
+    val jwksRequests: Int
+        get() = jwksRequestCounter.get()
+
+    fun start(): DapsEmulator {
+        server.executor = executor
+        server.createContext("/v2/token") { exchange -> handle(exchange) { handleTokenRequest(it) } }
+        server.createContext("/.well-known/jwks.json") { exchange -> handle(exchange) { handleJwksRequest(it) } }
+        server.start()
+        if (LOG.isDebugEnabled) {
+            LOG.debug("DAPS emulator listens on {}", url)
+        }
+        return this
+    }
+
+    override fun close() {
+        server.stop(0)
+        executor.shutdownNow()
+    }
+
+    /*
+     * Let the next token requests fail with HTTP 500
+     */
+    fun failNextTokenRequests(count: Int) {
+        pendingFailures.set(count)
+    }
+
+    /*
+     * Sign new DATs with a new key, the JWKS contains the new and the previous key afterwards
+     */
+    fun rotateKey() {
+        previousKey = currentKey
+        currentKey = generateKey()
+    }
+
+    /*
+     * Issue a DAT for the given subject directly, without a token request
+     */
+    fun issueToken(subject: String): String {
+        val claims = JwtClaims()
+        claims.issuer = url
+        claims.subject = subject
+        claims.setAudience("idsc:IDS_CONNECTORS_ALL")
+        claims.setIssuedAtToNow()
+        claims.setNotBeforeMinutesInThePast(1f)
+        claims.setExpirationTimeMinutesInTheFuture(tokenValidity / 60f)
+        claims.setClaim("@context", "https://w3id.org/idsa/contexts/context.jsonld")
+        claims.setClaim("@type", "ids:DatPayload")
+        securityProfile?.let { claims.setClaim("securityProfile", it) }
+        val key = currentKey
+        val jws = JsonWebSignature()
+        jws.payload = claims.toJson()
+        jws.key = key.privateKey
+        jws.keyIdHeaderValue = key.keyId
+        jws.algorithmHeaderValue = AlgorithmIdentifiers.RSA_USING_SHA256
+        return jws.compactSerialization
+    }
+
+    private fun handleTokenRequest(exchange: HttpExchange) {
+        tokenRequestCounter.incrementAndGet()
+        sleep(tokenDelay)
+        if (pendingFailures.getAndUpdate { maxOf(0, it - 1) } > 0
+                || ThreadLocalRandom.current().nextDouble() < failureRate) {
+            respond(exchange, 500, JSONObject().put("error", "server_error"))
+            return
+        }
+        if (exchange.requestMethod != "POST") {
+            respond(exchange, 405, JSONObject().put("error", "invalid_request"))
+            return
+        }
+        val form = parseForm(String(exchange.requestBody.readBytes(), StandardCharsets.UTF_8))
+        val assertion = form["client_assertion"]
+        if (form["grant_type"] != "client_credentials" || assertion == null) {
+            respond(exchange, 400, JSONObject().put("error", "invalid_request"))
+            return
+        }
+        // the emulator trusts every client, the assertion is only parsed for the subject
+        val subject = try {
+            ASSERTION_PARSER.processToClaims(assertion).subject
+        } catch (e: Exception) {
+            respond(exchange, 400, JSONObject().put("error", "invalid_client"))
+            return
+        }
+        respond(exchange, 200, JSONObject()
+                .put("access_token", issueToken(subject))
+                .put("token_type", "bearer")
+                .put("expires_in", tokenValidity))
+    }
+
+    private fun handleJwksRequest(exchange: HttpExchange) {
+        jwksRequestCounter.incrementAndGet()
+        sleep(jwksDelay)
+        val jwks = JsonWebKeySet(listOfNotNull(currentKey, previousKey))
+        respond(exchange, 200, JSONObject(jwks.toJson(JsonWebKey.OutputControlLevel.PUBLIC_ONLY)))
+    }
+
+    private fun generateKey(): RsaJsonWebKey {
+        val key = RsaJwkGenerator.generateJwk(2048)
+        key.keyId = "emulator-" + keyCounter.incrementAndGet()
+        return key
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(DapsEmulator::class.java)
+
+        private val ASSERTION_PARSER = JwtConsumerBuilder()
+                .setSkipAllValidators()
+                .setDisableRequireSignature()
+                .setSkipSignatureVerification()
+                .build()
+
+        /*
+         * Run the handler and answer with HTTP 500 if it fails
+         */
+        private fun handle(exchange: HttpExchange, handler: (HttpExchange) -> Unit) {
+            try {
+                handler(exchange)
+            } catch (e: Exception) {
+                LOG.warn("DAPS emulator request failed", e)
+                respond(exchange, 500, JSONObject().put("error", "server_error"))
+            } finally {
+                exchange.close()
+            }
+        }
+
+        private fun respond(exchange: HttpExchange, status: Int, body: JSONObject) {
+            val bytes = body.toString().toByteArray(StandardCharsets.UTF_8)
+            exchange.responseHeaders.add("Content-Type", "application/json")
+            exchange.sendResponseHeaders(status, bytes.size.toLong())
+            exchange.responseBody.write(bytes)
+        }
+
+        private fun parseForm(body: String): Map<String, String> {
+            return body.split('&').filter { it.isNotEmpty() }.associate {
+                val parts = it.split('=', limit = 2)
+                URLDecoder.decode(parts[0], "UTF-8") to URLDecoder.decode(parts.getOrElse(1) { "" }, "UTF-8")
+            }
+        }
+
+        private fun sleep(delay: Long) {
+            if (delay > 0) {
+                Thread.sleep(delay)
+            }
+        }
+    }
+}
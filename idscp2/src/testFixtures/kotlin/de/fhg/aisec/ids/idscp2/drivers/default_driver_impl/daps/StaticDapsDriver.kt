@@ -0,0 +1,27 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.daps
+
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.DapsDriver
+
+/**
+ * A local DAPS stand-in, which issues a static token and accepts every non-empty token.
+ *
+ * The verification can be delayed to simulate the latency of a remote DAPS.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class StaticDapsDriver @JvmOverloads constructor(private val verifyDelay: Long = 0) : DapsDriver {
+    override val token: ByteArray
+        get() = TOKEN
+
+    override fun verifyToken(dat: ByteArray?, securityRequirements: Any?): Long {
+        if (verifyDelay > 0) {
+            Thread.sleep(verifyDelay)
+        }
+        return if (dat == null || dat.isEmpty()) -1 else VALIDITY
+    }
+
+    companion object {
+        private val TOKEN = "static-token".toByteArray()
+        private const val VALIDITY = 3600L
+    }
+}
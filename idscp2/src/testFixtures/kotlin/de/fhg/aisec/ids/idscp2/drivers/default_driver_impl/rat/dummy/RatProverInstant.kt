@@ -0,0 +1,17 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy
+
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatProverDriver
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.InternalControlMessage
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.RatListener
+
+/**
+ * A RatProver that succeeds immediately, such that load tests and benchmarks measure the protocol
+ * overhead instead of the artificial delays of RatProverDummy
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class RatProverInstant(fsmListener: RatListener) : RatProverDriver(fsmListener) {
+    override fun start() {
+        execute { fsmListener.onRatProverMessage(InternalControlMessage.RAT_PROVER_OK) }
+    }
+}
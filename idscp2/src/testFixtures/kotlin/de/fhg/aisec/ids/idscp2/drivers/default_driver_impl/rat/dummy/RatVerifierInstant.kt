@@ -0,0 +1,16 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.rat.dummy
+
+import de.fhg.aisec.ids.idscp2.drivers.interfaces.RatVerifierDriver
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.InternalControlMessage
+import de.fhg.aisec.ids.idscp2.idscp_core.fsm.RatListener
+
+/**
+ * A RatVerifier that succeeds immediately, see RatProverInstant
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class RatVerifierInstant(fsmListener: RatListener) : RatVerifierDriver(fsmListener) {
+    override fun start() {
+        execute { fsmListener.onRatVerifierMessage(InternalControlMessage.RAT_VERIFIER_OK) }
+    }
+}
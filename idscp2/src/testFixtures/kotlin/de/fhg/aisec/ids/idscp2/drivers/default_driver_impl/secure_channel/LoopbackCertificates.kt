@@ -0,0 +1,84 @@
+package de.fhg.aisec.ids.idscp2.drivers.default_driver_impl.secure_channel
+
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.TimeUnit
+
+/**
+ * Generates a fresh, self-signed key store and a matching trust store for loopback tests and benchmarks.
+ *
+ * The certificates are generated via the keytool of the running JDK, such that tests do not
+ * depend on the lifetime of checked-in certificates and run without network access. Client and
+ * server share the same certificate, which is issued for localhost and 127.0.0.1 as required by
+ * the TLS session verification.
+ *
+ * @author Leon Beckmann (leon.beckmann@aisec.fraunhofer.de)
+ */
+class LoopbackCertificates private constructor(val directory: Path) {
+    val keyStorePath: Path = directory.resolve("loopback-keystore.p12")
+    val trustStorePath: Path = directory.resolve("loopback-truststore.p12")
+
+    /*
+     * Delete the generated stores
+     */
+    @Throws(IOException::class)
+    fun delete() {
+        Files.list(directory).use { files -> files.forEach { Files.deleteIfExists(it) } }
+        Files.deleteIfExists(directory)
+    }
+
+    private fun generateStores() {
+        val certificatePath = directory.resolve("loopback.crt")
+        keytool("-genkeypair", "-alias", CERTIFICATE_ALIAS, "-keyalg", "RSA", "-keysize", "2048",
+                "-sigalg", "SHA256withRSA", "-validity", VALIDITY_DAYS, "-dname", "CN=localhost",
+                "-ext", "san=dns:localhost,ip:127.0.0.1",
+                "-storetype", "PKCS12", "-keystore", keyStorePath.toString(),
+                "-storepass", PASSWORD, "-keypass", PASSWORD)
+        keytool("-exportcert", "-alias", CERTIFICATE_ALIAS, "-keystore", keyStorePath.toString(),
+                "-storepass", PASSWORD, "-file", certificatePath.toString())
+        keytool("-importcert", "-noprompt", "-alias", "loopback", "-file", certificatePath.toString(),
+                "-storetype", "PKCS12", "-keystore", trustStorePath.toString(), "-storepass", PASSWORD)
+    }
+
+    private fun keytool(vararg args: String) {
+        val keytool = Paths.get(System.getProperty("java.home"), "bin", "keytool").toString()
+        val process = ProcessBuilder(listOf(keytool) + args)
+                .redirectErrorStream(true)
+                .start()
+        val output = process.inputStream.bufferedReader().readText()
+        if (!process.waitFor(KEYTOOL_TIMEOUT, TimeUnit.SECONDS)) {
+            process.destroyForcibly()
+            throw IOException("keytool ${args[0]} did not terminate")
+        }
+        if (process.exitValue() != 0) {
+            throw IOException("keytool ${args[0]} failed with exit code ${process.exitValue()}: $output")
+        }
+        if (LOG.isDebugEnabled) {
+            LOG.debug("keytool {}: {}", args[0], output.trim())
+        }
+    }
+
+    companion object {
+        private val LOG = LoggerFactory.getLogger(LoopbackCertificates::class.java)
+        const val CERTIFICATE_ALIAS = "1.0.1"
+        const val PASSWORD = "password"
+        private const val VALIDITY_DAYS = "30"
+        private const val KEYTOOL_TIMEOUT = 60L
+
+        @JvmStatic
+        @Throws(IOException::class)
+        fun generate(): LoopbackCertificates {
+            val certificates = LoopbackCertificates(Files.createTempDirectory("idscp2-loopback"))
+            try {
+                certificates.generateStores()
+            } catch (e: Exception) {
+                certificates.delete()
+                throw e
+            }
+            return certificates
+        }
+    }
+}